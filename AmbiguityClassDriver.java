@@ -0,0 +1,42 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A driver class that compares decoding restricted to each word's ambiguity class against the full search
+ * on the Brown test set, reporting accuracy, disagreements and throughput.
+ */
+public class AmbiguityClassDriver {
+    public static void main(String[] args) throws Exception {
+        MarkovModel markovTester = new MarkovModel("./PS5/texts/brown-train-sentences.txt", "./PS5/texts/brown-train-tags.txt");
+        CompiledMarkovModel compiledTester = markovTester.compile();
+        ArrayList<String> lines = MarkovBenchmark.readLines("./PS5/texts/brown-test-sentences.txt");
+        ArrayList<String> tagLines = MarkovBenchmark.readLines("./PS5/texts/brown-test-tags.txt");
+
+        Tagger exact = compiledTester;
+        Tagger restricted = compiledTester.restrictedTagger();
+
+        int disagreements = 0;
+        for (String line : lines) {
+            if (!Arrays.equals(exact.tag(line), restricted.tag(line))) { disagreements += 1; }
+        }
+        System.out.println("Sentences tagged differently: " + disagreements + " of " + lines.size());
+        System.out.printf("Full search accuracy: %.3f%%%n", 100 * BeamSearchDriver.accuracy(exact, lines, tagLines));
+        System.out.printf("Ambiguity class accuracy: %.3f%%%n", 100 * BeamSearchDriver.accuracy(restricted, lines, tagLines));
+
+        double exactRate = sentencesPerSecond(exact, lines);
+        double restrictedRate = sentencesPerSecond(restricted, lines);
+        System.out.printf("Full search: %.0f sentences/sec%nAmbiguity classes: %.0f sentences/sec (%.2fx)%n",
+                exactRate, restrictedRate, restrictedRate / exactRate);
+    }
+
+    /**
+     * @return - the sentences per second a tagger reaches over a few passes of the lines, after warming up
+     */
+    static double sentencesPerSecond(Tagger tagger, ArrayList<String> lines) {
+        for (String line : lines) { tagger.tag(line); }
+        int passes = 5;
+        long start = System.nanoTime();
+        for (int i = 0; i < passes; i++) { for (String line : lines) { tagger.tag(line); } }
+        return passes * lines.size() / ((System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,205 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tags whole corpora in parallel with a fixed number of worker threads, keeping the output in the order of the input.
+ * Sentences are handed to the workers in chunks, so each task is large enough to keep the threads busy.
+ * The tagger is shared by every worker and only ever read. Handing it to the worker pool publishes it safely,
+ * since everything a thread does before submitting a task happens-before the task runs.
+ *
+ * When tags are written out, a sentence that has no possible tagging, which taggers return as null tags, is written as
+ * an empty line, so that every output line still belongs to the input line at the same place.
+ */
+public class BatchTagger implements AutoCloseable {
+
+    // Number of sentences given to a worker at a time
+    private static final int CHUNK_SIZE = 256;
+
+    private final Tagger tagger;
+    private final int workers;
+    private final ExecutorService pool;
+
+    /**
+     * Starts the worker threads for a shared tagger
+     * @param tagger - The tagger every worker uses, e.g. a MarkovModel or CompiledMarkovModel
+     * @param workers - The number of worker threads
+     */
+    public BatchTagger(Tagger tagger, int workers) {
+        if (workers < 1) { throw new IllegalArgumentException("At least one worker is needed"); }
+        this.tagger = tagger;
+        this.workers = workers;
+        this.pool = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "batch-tagger");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Tags a list of sentences in parallel
+     * @param sentences - The sentences to tag
+     * @return - the tags of each sentence, in the same order as the sentences
+     * @throws Exception if tagging any of the sentences fails
+     */
+    public List<String[]> tagAll(List<String> sentences) throws Exception {
+        ArrayList<Future<String[][]>> chunks = new ArrayList<>();
+        for (int start = 0; start < sentences.size(); start += CHUNK_SIZE) {
+            chunks.add(submitChunk(sentences.subList(start, Math.min(start + CHUNK_SIZE, sentences.size()))));
+        }
+
+        // Collect the chunks in the order they were submitted
+        ArrayList<String[]> allTags = new ArrayList<>(sentences.size());
+        for (Future<String[][]> chunk : chunks) { allTags.addAll(Arrays.asList(awaitChunk(chunk))); }
+        return allTags;
+    }
+
+    /**
+     * Tags every line of a file in parallel
+     * @param fileName - Name of the file of sentences, one sentence per line
+     * @return - the tags of each line, in the same order as the lines
+     * @throws Exception if the file cannot be read or tagging fails
+     */
+    public List<String[]> tagFile(String fileName) throws Exception {
+        ArrayList<String> lines = new ArrayList<>();
+        BufferedReader input = null;
+        try {
+            input = new BufferedReader(new FileReader(fileName));
+            String line;
+            while ((line = input.readLine()) != null) { lines.add(line); }
+        }
+        catch (Exception e) { throw new Exception("File not found"); }
+        finally { if (input != null) { input.close(); } }
+
+        return tagAll(lines);
+    }
+
+    /**
+     * Tags every line of a file in parallel, writing the tags of each line to an output file
+     * @param inFileName - Name of the file of sentences, one sentence per line
+     * @param outFileName - Name of the file to write, one line of space separated tags per sentence, empty if it has no tagging
+     * @return - the number of lines tagged
+     * @throws Exception if either file cannot be opened or tagging fails
+     */
+    public long tagFile(String inFileName, String outFileName) throws Exception {
+        try (BufferedReader input = new BufferedReader(new FileReader(inFileName));
+             BufferedWriter output = new BufferedWriter(new FileWriter(outFileName))) {
+            return tagStream(input, output);
+        }
+    }
+
+    /**
+     * Tags a stream of lines in parallel, writing the tags of each line to an output stream as UTF-8
+     * @param in - The stream of sentences, one sentence per line
+     * @param out - The stream to write, one line of space separated tags per sentence, empty if it has no tagging
+     * @return - the number of lines tagged
+     * @throws Exception if the streams fail or tagging fails
+     */
+    public long tagStream(InputStream in, OutputStream out) throws Exception {
+        BufferedReader input = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        BufferedWriter output = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        long count = tagStream(input, output);
+        output.flush();
+        return count;
+    }
+
+    /**
+     * Tags lines from a reader in parallel, never holding more than a few chunks per worker in memory.
+     * Chunks are written out in the order they were read as soon as they are done.
+     * @param input - The reader of sentences, one sentence per line
+     * @param output - The writer receiving one line of space separated tags per sentence, empty if it has no tagging
+     * @return - the number of lines tagged
+     * @throws Exception if reading, writing or tagging fails
+     */
+    public long tagStream(BufferedReader input, Writer output) throws Exception {
+        ArrayDeque<Future<String[][]>> inFlight = new ArrayDeque<>();
+        int maxInFlight = workers * 4;
+        long count = 0;
+
+        ArrayList<String> chunk = new ArrayList<>(CHUNK_SIZE);
+        String line;
+        while ((line = input.readLine()) != null) {
+            chunk.add(line);
+            if (chunk.size() == CHUNK_SIZE) {
+                inFlight.add(submitChunk(chunk));
+                chunk = new ArrayList<>(CHUNK_SIZE);
+                // Wait for the oldest chunk before reading further once enough work is queued
+                if (inFlight.size() >= maxInFlight) { count += writeChunk(awaitChunk(inFlight.poll()), output); }
+            }
+        }
+        if (!chunk.isEmpty()) { inFlight.add(submitChunk(chunk)); }
+        while (!inFlight.isEmpty()) { count += writeChunk(awaitChunk(inFlight.poll()), output); }
+        output.flush();
+        return count;
+    }
+
+    /**
+     * Hands a chunk of sentences to the worker pool
+     * @param chunk - The sentences to tag
+     * @return - the pending tags of each sentence of the chunk
+     */
+    private Future<String[][]> submitChunk(List<String> chunk) {
+        return pool.submit(() -> {
+            String[][] chunkTags = new String[chunk.size()][];
+            for (int i = 0; i < chunkTags.length; i++) { chunkTags[i] = tagger.tag(chunk.get(i)); }
+            return chunkTags;
+        });
+    }
+
+    /**
+     * Waits for a chunk to finish, unwrapping the failure of a worker
+     * @param chunk - The pending chunk
+     * @return - the tags of each sentence of the chunk
+     * @throws Exception the exception thrown by the worker
+     */
+    private String[][] awaitChunk(Future<String[][]> chunk) throws Exception {
+        try { return chunk.get(); }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) { throw (Exception) e.getCause(); }
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the tags of a chunk, one line per sentence, and an empty line for a sentence with a null tag
+     * @param chunkTags - The tags of each sentence of the chunk
+     * @param output - The writer to write to
+     * @return - the number of lines written
+     * @throws Exception if the writer fails
+     */
+    private int writeChunk(String[][] chunkTags, Writer output) throws Exception {
+        for (String[] tags : chunkTags) {
+            // A null tag means the sentence could not be tagged, and String.join would write it as "null"
+            if (!Arrays.asList(tags).contains(null)) { output.write(String.join(" ", tags)); }
+            output.write('\n');
+        }
+        return chunkTags.length;
+    }
+
+    /**
+     * @return - the number of worker threads
+     */
+    public int getWorkers() { return workers; }
+
+    /**
+     * Stops the worker threads once the submitted work is done
+     */
+    public void close() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,54 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A driver class that tags the Brown test set replicated 100 times with an increasing number of workers,
+ * to show how the batch tagger scales with the number of cores.
+ */
+public class BatchTaggerDriver {
+    public static void main(String[] args) throws Exception {
+        MarkovModel markovTester = new MarkovModel("./PS5/texts/brown-train-sentences.txt", "./PS5/texts/brown-train-tags.txt");
+        CompiledMarkovModel compiledTester = markovTester.compile();
+
+        // Replicate the test sentences 100 times
+        ArrayList<String> lines = new ArrayList<>();
+        BufferedReader input = new BufferedReader(new FileReader("./PS5/texts/brown-test-sentences.txt"));
+        String line;
+        while ((line = input.readLine()) != null) { lines.add(line); }
+        input.close();
+        ArrayList<String> corpus = new ArrayList<>();
+        for (int i = 0; i < 100; i++) { corpus.addAll(lines); }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("Sentences: " + corpus.size() + ", cores: " + cores);
+
+        double singleSeconds = 0;
+        // Try 1, 2, 4, ... workers, finishing with one worker per core
+        ArrayList<Integer> workerCounts = new ArrayList<>();
+        for (int workers = 1; workers < cores; workers *= 2) { workerCounts.add(workers); }
+        workerCounts.add(cores);
+
+        for (int workers : workerCounts) {
+            try (BatchTagger batchTagger = new BatchTagger(compiledTester, workers)) {
+                batchTagger.tagAll(lines);  // Warm up the threads and the JIT
+
+                long start = System.nanoTime();
+                List<String[]> allTags = batchTagger.tagAll(corpus);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                if (workers == 1) { singleSeconds = seconds; }
+
+                // Every line must come back in order, matching the tags of the sequential decoder
+                boolean ordered = true;
+                for (int i = 0; i < lines.size(); i++) {
+                    if (!Arrays.equals(allTags.get(i), compiledTester.tag(lines.get(i)))) { ordered = false; }
+                }
+
+                System.out.println(workers + " workers: " + (int) (corpus.size() / seconds) + " sentences/sec, speedup "
+                        + (singleSeconds / seconds) + "x, order kept: " + ordered);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+import java.util.ArrayList;
+
+/**
+ * A driver class that reports the accuracy and throughput of beam-pruned decoding against exact decoding
+ * on the Brown test set, for a range of beam widths and thresholds.
+ */
+public class BeamSearchDriver {
+    public static void main(String[] args) throws Exception {
+        MarkovModel markovTester = new MarkovModel("./PS5/texts/brown-train-sentences.txt", "./PS5/texts/brown-train-tags.txt");
+        CompiledMarkovModel compiledTester = markovTester.compile();
+        ArrayList<String> lines = MarkovBenchmark.readLines("./PS5/texts/brown-test-sentences.txt");
+        ArrayList<String> tagLines = MarkovBenchmark.readLines("./PS5/texts/brown-test-tags.txt");
+
+        // {beam width, beam threshold} pairs, starting with exact decoding
+        double[][] beams = {{compiledTester.numTags(), Double.POSITIVE_INFINITY}, {1, Double.POSITIVE_INFINITY},
+                {2, Double.POSITIVE_INFINITY}, {3, Double.POSITIVE_INFINITY}, {5, Double.POSITIVE_INFINITY},
+                {8, Double.POSITIVE_INFINITY}, {compiledTester.numTags(), 5}, {compiledTester.numTags(), 10},
+                {compiledTester.numTags(), 20}, {5, 10}};
+
+        double exactRate = 0;
+        System.out.printf("%-8s %-10s %10s %16s %10s%n", "Width", "Threshold", "Accuracy", "Sentences/sec", "Speedup");
+        for (double[] beam : beams) {
+            Tagger tagger = compiledTester.beamTagger((int) beam[0], beam[1]);
+
+            // Warm up, then time a few passes
+            for (String line : lines) { tagger.tag(line); }
+            int passes = 5;
+            long start = System.nanoTime();
+            for (int i = 0; i < passes; i++) { for (String line : lines) { tagger.tag(line); } }
+            double rate = passes * lines.size() / ((System.nanoTime() - start) / 1e9);
+            if (exactRate == 0) { exactRate = rate; }
+
+            System.out.printf("%-8d %-10s %9.3f%% %16.0f %9.2fx%n", (int) beam[0], beam[1] == Double.POSITIVE_INFINITY ? "none" : beam[1],
+                    100 * accuracy(tagger, lines, tagLines), rate, rate / exactRate);
+        }
+    }
+
+    /**
+     * @return - the fraction of words whose predicted tag matches the answer key
+     */
+    static double accuracy(Tagger tagger, ArrayList<String> lines, ArrayList<String> tagLines) {
+        long correct = 0, total = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            String[] predicted = tagger.tag(lines.get(i));
+            String[] answers = tagLines.get(i).split(" ");
+            for (int j = 0; j < answers.length; j++) {
+                if (j < predicted.length && answers[j].equals(predicted[j])) { correct += 1; }
+                total += 1;
+            }
+        }
+        return (double) correct / total;
+    }
+}
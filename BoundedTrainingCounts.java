@@ -0,0 +1,294 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Transition and observation counts of a set of training sentences, taken within a memory budget however many
+ * distinct words the sentences have. TrainingCounts keeps an exact count of every (tag, word) pair it ever sees, so on
+ * corpora with a long tail of rare words it grows without limit; these counts keep exact per-tag counts only for a
+ * vocabulary of words that fits the budget, and count everything else approximately.
+ *
+ * A count-min sketch counts every word outside the vocabulary. A word joins the vocabulary once the sketch has seen it
+ * admitCount times, which is 1 until the vocabulary first fills up. Whenever the vocabulary outgrows its share of the
+ * budget, its least frequent quarter is evicted, breaking ties so that no more than a quarter goes, and admitCount is
+ * raised above their counts, like a space-saving summary: a new word only displaces the ones evicted once it has been
+ * seen more often than they were.
+ *
+ * No observation is lost. A token of a word outside the vocabulary, including the tokens of a word seen before it was
+ * admitted, is counted under its tag for the pseudo-word MarkovModel.UNKNOWN_WORD, and so are the counts of every
+ * evicted word and, at the end, of every word seen fewer than minCount times. The totals of every tag therefore stay
+ * exact, and the unknown word's row is what CompiledMarkovModel scores words that were never seen with.
+ * The transitions are few and are always counted exactly.
+ */
+public class BoundedTrainingCounts {
+
+    // The share of the budget taken by the sketch, and its number of rows
+    private static final int SKETCH_SHARE = 8;
+    private static final int SKETCH_DEPTH = 4;
+    // The widest sketch row, whose counters are rarely shared even by tens of millions of distinct words
+    private static final int MAX_SKETCH_WIDTH = 1 << 20;
+    // The bytes of a vocabulary word besides its String and its counts: a map node, a table slot and a WordCounts
+    private static final int WORD_OVERHEAD = 32 + 8 + 24;
+
+    private final String startPOS;
+    private final int minCount;
+    private final long vocabularyBudget;
+
+    private final TrainingCounts transitions;
+    private final ArrayList<String> tags = new ArrayList<>();
+    private final HashMap<String,Integer> tagIds = new HashMap<>();
+
+    // Exact counts of the words in the vocabulary, and the counts of every other token under each tag
+    private final HashMap<String,WordCounts> vocabulary = new HashMap<>();
+    private long[] unknownCounts = new long[64];
+    private final CountMinSketch sketch;
+
+    // The number of times the sketch must have seen a word before it joins the vocabulary
+    private int admitCount = 1;
+    private long vocabularyBytes, peakVocabularyBytes;
+    private long evictedWords;
+    private long tokens;
+
+    /**
+     * Creates empty counts
+     * @param startPOS - The starting part of speech that every sentence transitions from
+     * @param budgetBytes - The estimated bytes the observation counts may take, sketch included
+     * @param minCount - The number of times a word must be counted to keep its own observations, below which
+     *                 they are counted as the unknown word's; 1 keeps every word in the vocabulary at the end
+     */
+    public BoundedTrainingCounts(String startPOS, long budgetBytes, int minCount) {
+        if (minCount < 1) { throw new IllegalArgumentException("The minimum count must be at least 1"); }
+        this.startPOS = startPOS;
+        this.minCount = minCount;
+        transitions = new TrainingCounts(startPOS);
+        sketch = new CountMinSketch(SKETCH_DEPTH, (int) Math.min(MAX_SKETCH_WIDTH, budgetBytes / SKETCH_SHARE / SKETCH_DEPTH / 4));
+        vocabularyBudget = budgetBytes - sketch.footprintBytes();
+    }
+
+    /**
+     * Counts a sentence file and its tag file by reading both a line at a time in lockstep, within a memory budget
+     * @param fileWords - The file containing all the sentences
+     * @param fileTags - The file containing all the corresponding tags for the sentences
+     * @param startPOS - The starting part of speech
+     * @param budgetBytes - The estimated bytes the observation counts may take
+     * @param minCount - The number of times a word must be counted to keep its own observations
+     * @return - the counts of every sentence in the files
+     * @throws Exception if a file cannot be read, or if the files do not have the same number of lines,
+     * or if a line does not have as many words as tags
+     */
+    public static BoundedTrainingCounts countStreaming(String fileWords, String fileTags, String startPOS, long budgetBytes, int minCount) throws Exception {
+        BoundedTrainingCounts counts = new BoundedTrainingCounts(startPOS, budgetBytes, minCount);
+        TrainingCounts.forEachSentence(fileWords, fileTags, counts::addSentence);
+        return counts;
+    }
+
+    /**
+     * Counts the transitions and observations of one sentence
+     * @param sentence - The words of the sentence, counted in the form MarkovModel.normalizeWord gives them
+     * @param sentenceTags - The tag of each word of the sentence
+     */
+    public void addSentence(String[] sentence, String[] sentenceTags) {
+        transitions.addTransitions(sentenceTags);
+        tokens += sentenceTags.length;
+        for (int i = 0; i < sentenceTags.length; i++) { addObservation(MarkovModel.normalizeWord(sentence[i]), tagId(sentenceTags[i])); }
+    }
+
+    /**
+     * Counts one word under one tag, in the vocabulary if the word is in it or is admitted now, and as the unknown word if not
+     */
+    private void addObservation(String word, int tag) {
+        WordCounts counts = vocabulary.get(word);
+        if (counts == null) {
+            if (sketch.add(word) < admitCount) {
+                unknownCounts[tag] += 1;
+                return;
+            }
+            counts = new WordCounts();
+            vocabulary.put(word, counts);
+            vocabularyBytes += WORD_OVERHEAD + SharedDictionary.stringBytes(word) + CompactLexicon.arrayBytes(counts.entries.length, 8);
+        }
+
+        vocabularyBytes += counts.add(tag);
+        if (vocabularyBytes > vocabularyBudget) { evictRarest(); }
+        peakVocabularyBytes = Math.max(peakVocabularyBytes, vocabularyBytes);
+    }
+
+    /**
+     * Evicts the least frequent quarter of the vocabulary into the unknown word's counts, and raises the count a word
+     * needs to be admitted above theirs. Words tied at the count where the quarter ends are evicted only as far as the
+     * quarter reaches, so a vocabulary of mostly words seen once still keeps three quarters of them.
+     */
+    private void evictRarest() {
+        int[] totals = new int[vocabulary.size()];
+        int filled = 0;
+        for (WordCounts counts : vocabulary.values()) { totals[filled++] = (int) Math.min(Integer.MAX_VALUE, counts.total); }
+        Arrays.sort(totals);
+        int quarter = Math.max(1, totals.length / 4);
+        int threshold = totals[quarter - 1];
+
+        // Every word below the threshold is evicted, and as many at it as it takes to make up the quarter
+        int tiesToEvict = quarter;
+        for (int total : totals) {
+            if (total >= threshold) { break; }
+            tiesToEvict -= 1;
+        }
+
+        Iterator<Map.Entry<String,WordCounts>> words = vocabulary.entrySet().iterator();
+        while (words.hasNext()) {
+            Map.Entry<String,WordCounts> word = words.next();
+            WordCounts counts = word.getValue();
+            if (counts.total > threshold) { continue; }
+            if (counts.total == threshold) {
+                if (tiesToEvict == 0) { continue; }
+                tiesToEvict -= 1;
+            }
+
+            counts.foldInto(unknownCounts);
+            vocabularyBytes -= WORD_OVERHEAD + SharedDictionary.stringBytes(word.getKey()) + CompactLexicon.arrayBytes(counts.entries.length, 8);
+            evictedWords += 1;
+            words.remove();
+        }
+        admitCount = Math.max(admitCount, threshold + 1);
+    }
+
+    /**
+     * Collects the observation counts into the raw frequency maps that MarkovModel normalizes. Words of the vocabulary
+     * counted fewer than minCount times are counted as the unknown word, which gets a row entry under every tag it was counted under.
+     * @return - the map of each part of speech to its words and their frequencies
+     */
+    public HashMap<String,HashMap<String,Double>> toObservationCounts() {
+        long[] unknown = Arrays.copyOf(unknownCounts, tags.size());
+        HashMap<String,HashMap<String,Double>> observationMap = new HashMap<>();
+        for (Map.Entry<String,WordCounts> word : vocabulary.entrySet()) {
+            WordCounts counts = word.getValue();
+            if (counts.total < minCount) {
+                counts.foldInto(unknown);
+                continue;
+            }
+            for (int k = 0; k < counts.size; k++) {
+                long entry = counts.entries[k];
+                row(observationMap, tags.get(WordCounts.tag(entry))).put(word.getKey(), (double) WordCounts.count(entry));
+            }
+        }
+        for (int tag = 0; tag < tags.size(); tag++) {
+            if (unknown[tag] > 0) { row(observationMap, tags.get(tag)).put(MarkovModel.UNKNOWN_WORD, (double) unknown[tag]); }
+        }
+        return observationMap;
+    }
+
+    /**
+     * @return - the row of a tag in a map of maps, created empty if it has none yet
+     */
+    private static HashMap<String,Double> row(HashMap<String,HashMap<String,Double>> observationMap, String tag) {
+        HashMap<String,Double> row = observationMap.get(tag);
+        if (row == null) {
+            row = new HashMap<>();
+            observationMap.put(tag, row);
+        }
+        return row;
+    }
+
+    /**
+     * Collects the transition counts into the raw frequency maps that MarkovModel normalizes, the same as TrainingCounts
+     * @return - the map of each part of speech to its next parts of speech and their frequencies
+     */
+    public HashMap<String,HashMap<String,Double>> toTransitionsCounts() { return transitions.toTransitionsCounts(); }
+
+    /**
+     * @return - the starting part of speech
+     */
+    public String getStartPOS() { return startPOS; }
+
+    /**
+     * @return - the number of words with their own observations, counting those below minCount that are only dropped at the end
+     */
+    public int vocabularySize() { return vocabulary.size(); }
+
+    /**
+     * @return - the number of tokens counted
+     */
+    public long getTokens() { return tokens; }
+
+    /**
+     * @return - the number of words evicted from the vocabulary to stay within the budget
+     */
+    public long getEvictedWords() { return evictedWords; }
+
+    /**
+     * @return - the number of times a word must have been seen to join the vocabulary now
+     */
+    public int getAdmitCount() { return admitCount; }
+
+    /**
+     * @return - the number of tokens counted as the unknown word, including those of words below minCount
+     */
+    public long unknownTokens() {
+        long tokens = 0;
+        for (long count : unknownCounts) { tokens += count; }
+        for (WordCounts counts : vocabulary.values()) { if (counts.total < minCount) { tokens += counts.total; } }
+        return tokens;
+    }
+
+    /**
+     * @return - the most bytes the sketch and the vocabulary took at any point, by the same estimate that is kept within the budget
+     */
+    public long getPeakBytes() { return sketch.footprintBytes() + peakVocabularyBytes; }
+
+    /**
+     * @return - the id of a tag, giving it the next id if it is new
+     */
+    private int tagId(String tag) {
+        Integer id = tagIds.get(tag);
+        if (id != null) { return id; }
+
+        id = tags.size();
+        tags.add(tag);
+        tagIds.put(tag, id);
+        if (id == unknownCounts.length) { unknownCounts = Arrays.copyOf(unknownCounts, id * 2); }
+        return id;
+    }
+
+    /**
+     * The exact count of one word of the vocabulary under each tag it was seen with, packed as (tag << 48) | count
+     */
+    private static class WordCounts {
+        long[] entries = new long[2];
+        int size;
+        long total;
+
+        /**
+         * Counts the word once more under a tag
+         * @return - the bytes the counts grew by
+         */
+        long add(int tag) {
+            total += 1;
+            for (int k = 0; k < size; k++) {
+                if (tag(entries[k]) == tag) {
+                    entries[k] += 1;
+                    return 0;
+                }
+            }
+
+            long grownBy = 0;
+            if (size == entries.length) {
+                grownBy = CompactLexicon.arrayBytes(size * 2, 8) - CompactLexicon.arrayBytes(size, 8);
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entries[size++] = ((long) tag << 48) | 1;
+            return grownBy;
+        }
+
+        /**
+         * Adds every count of the word to the counts of its tags in an array of per-tag counts
+         */
+        void foldInto(long[] tagCounts) {
+            for (int k = 0; k < size; k++) { tagCounts[tag(entries[k])] += count(entries[k]); }
+        }
+
+        static int tag(long entry) { return (int) (entry >>> 48); }
+
+        static long count(long entry) { return entry & ((1L << 48) - 1); }
+    }
+}
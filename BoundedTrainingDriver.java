@@ -0,0 +1,50 @@
+import java.util.Arrays;
+
+/**
+ * A driver class for memory-bounded training. It trains Brown exactly, then with a vocabulary cutoff and under ever
+ * smaller memory budgets, and reports for each the size of the vocabulary kept, how many tokens were counted as the
+ * unknown word, the most memory the observation counts took, and the accuracy of the compiled model on the test set
+ * against exact training.
+ */
+public class BoundedTrainingDriver {
+
+    private static final String TRAIN_WORDS = "./PS5/texts/brown-train-sentences.txt";
+    private static final String TRAIN_TAGS = "./PS5/texts/brown-train-tags.txt";
+    private static final String TEST_WORDS = "./PS5/texts/brown-test-sentences.txt";
+    private static final String TEST_TAGS = "./PS5/texts/brown-test-tags.txt";
+
+    public static void main(String[] args) throws Exception {
+        CompiledMarkovModel exact = MarkovModel.trainStreaming(TRAIN_WORDS, TRAIN_TAGS).compile();
+        EvaluationResult exactResult = new TaggingEvaluator(exact, 1).evaluate(TEST_WORDS, TEST_TAGS);
+        System.out.printf("Exact training: %d words, accuracy %.3f%% (unknown words %.2f%%)%n%n", exact.numWords(),
+                100 * exactResult.accuracy(), 100 * exactResult.unknownAccuracy());
+
+        // A budget that the whole vocabulary fits with a cutoff of 1 must give exactly the exact model;
+        // the rest trade accuracy for memory
+        long[] budgets = {32_000_000, 32_000_000, 32_000_000, 4_000_000, 2_000_000, 1_000_000, 500_000, 250_000, 125_000};
+        int[] minCounts = {1, 2, 3, 2, 2, 2, 2, 2, 2};
+        System.out.printf("%-10s %4s %7s %8s %6s %9s %10s %9s %10s %9s %8s%n", "Budget", "Min", "Words", "Evicted", "Admit",
+                "Unk toks", "Peak", "Accuracy", "Change", "Unk acc", "Train");
+        for (int k = 0; k < budgets.length; k++) {
+            long start = System.nanoTime();
+            BoundedTrainingCounts counts = BoundedTrainingCounts.countStreaming(TRAIN_WORDS, TRAIN_TAGS, "#", budgets[k], minCounts[k]);
+            CompiledMarkovModel compiled = MarkovModel.fromCounts(counts).compile();
+            double trainMillis = (System.nanoTime() - start) / 1e6;
+
+            // Unknown words are split by the exact vocabulary, so that every model is scored on the same words
+            EvaluationResult result = new TaggingEvaluator(compiled, 1, word -> exact.wordId(word.toLowerCase()) >= 0)
+                    .evaluate(TEST_WORDS, TEST_TAGS);
+            System.out.printf("%-10s %4d %7d %8d %6d %8.2f%% %8.2f MB %8.3f%% %+9.3f %8.2f%% %6.0f ms%n",
+                    String.format("%.0f KB", budgets[k] / 1e3), minCounts[k],
+                    compiled.numWords(), counts.getEvictedWords(), counts.getAdmitCount(), 100.0 * counts.unknownTokens() / counts.getTokens(),
+                    counts.getPeakBytes() / 1e6, 100 * result.accuracy(), 100 * (result.accuracy() - exactResult.accuracy()),
+                    100 * result.unknownAccuracy(), trainMillis);
+
+            if (k == 0) {
+                int differences = 0;
+                for (String line : MarkovBenchmark.readLines(TEST_WORDS)) { if (!Arrays.equals(compiled.tag(line), exact.tag(line))) { differences += 1; } }
+                System.out.printf("%-10s sentences tagged differently from exact training: %d%n", "", differences);
+            }
+        }
+    }
+}
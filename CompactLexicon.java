@@ -0,0 +1,231 @@
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * A memory-compact form of a trained model's observations: one word dictionary and the (tag, score) pairs of every word.
+ *
+ * The observation map of a MarkovModel keeps one HashMap per tag, so a word seen under five tags is a key in five maps
+ * with five boxed Doubles, and each entry costs a map node on top of the String. Here every word is stored once in a
+ * WordTable, as a slice of one shared char array found through an open-addressing table of int ids; the tags of each
+ * word are a contiguous run of an array of tag ids and a float array of log frequencies, found through one int array of
+ * row starts indexed by word id. The word table may be shared with other lexicons, e.g. those of every model compiled
+ * through one SharedDictionary, in which case the ids of words this lexicon never observed have empty rows.
+ * Tag ids are bytes when there are at most 256 tags, and ints for larger tag sets such as compound tags.
+ * Altogether a word costs a few ints and chars, and each of its tags five bytes, or eight with more than 256 tags.
+ *
+ * Words can be looked up either as Strings or as a slice of a char array, so a tokenizer can look words up in its own
+ * buffer without creating a String for each one.
+ */
+public class CompactLexicon {
+
+    // The words and their ids, and whether the table is this lexicon's own or shared with others
+    private final WordTable words;
+    private final boolean sharedWords;
+    // The number of words observed under some tag, which have a row
+    private final int numWords;
+
+    // The tags of word w, with their log frequencies, are at rowStart[w] up to rowStart[w + 1], sorted by tag id.
+    // Tag ids are in rowTags if there are at most 256 tags and in wideRowTags otherwise; the other one is null
+    private final int[] rowStart;
+    private final byte[] rowTags;
+    private final int[] wideRowTags;
+    private final float[] rowScores;
+
+    private final String[] tagNames;
+
+    /**
+     * Builds the lexicon of a trained model, with the start POS at tag id 0 and the other tags in sorted order like CompiledMarkovModel
+     * @param model - The trained model
+     */
+    public CompactLexicon(MarkovModel model) {
+        this(model.getObservationMap(), sortedTags(model));
+    }
+
+    /**
+     * Builds the lexicon of an observation map
+     * @param observationMap - The map of each part of speech to its words and their log frequencies
+     * @param tagNames - The parts of speech by id
+     */
+    CompactLexicon(HashMap<String,HashMap<String,Double>> observationMap, String[] tagNames) {
+        this(observationMap, tagNames, new WordTable(), false);
+    }
+
+    /**
+     * Builds the lexicon of an observation map, adding its words to a word table shared with other lexicons
+     * @param observationMap - The map of each part of speech to its words and their log frequencies
+     * @param tagNames - The parts of speech by id
+     * @param words - The shared word table
+     */
+    CompactLexicon(HashMap<String,HashMap<String,Double>> observationMap, String[] tagNames, WordTable words) {
+        this(observationMap, tagNames, words, true);
+    }
+
+    private CompactLexicon(HashMap<String,HashMap<String,Double>> observationMap, String[] tagNames, WordTable words, boolean sharedWords) {
+        this.tagNames = tagNames.clone();
+        this.words = words;
+        this.sharedWords = sharedWords;
+
+        // Add every word in sorted order; words another lexicon added to a shared table keep their ids
+        TreeSet<String> allWords = new TreeSet<>();
+        for (HashMap<String,Double> tagWords : observationMap.values()) { allWords.addAll(tagWords.keySet()); }
+        words.addAll(allWords);
+        numWords = allWords.size();
+        // Words added by other lexicons after this point have no row here
+        int idLimit = words.size();
+
+        // Count the tags of every word, then lay out each word's row in tag order
+        int[] tagCounts = new int[idLimit];
+        int pairs = 0;
+        for (int tag = 0; tag < tagNames.length; tag++) {
+            HashMap<String,Double> tagWords = observationMap.get(tagNames[tag]);
+            if (tagWords == null) { continue; }
+            for (String word : tagWords.keySet()) { tagCounts[words.wordId(word)] += 1; pairs += 1; }
+        }
+        rowStart = new int[idLimit + 1];
+        for (int word = 0; word < idLimit; word++) { rowStart[word + 1] = rowStart[word] + tagCounts[word]; }
+        boolean byteTags = tagNames.length <= 256;
+        rowTags = byteTags ? new byte[pairs] : null;
+        wideRowTags = byteTags ? null : new int[pairs];
+        rowScores = new float[pairs];
+        int[] filled = new int[idLimit];
+        for (int tag = 0; tag < tagNames.length; tag++) {
+            HashMap<String,Double> tagWords = observationMap.get(tagNames[tag]);
+            if (tagWords == null) { continue; }
+            for (String word : tagWords.keySet()) {
+                int wordId = words.wordId(word);
+                int pair = rowStart[wordId] + filled[wordId]++;
+                if (byteTags) { rowTags[pair] = (byte) tag; }
+                else { wideRowTags[pair] = tag; }
+                rowScores[pair] = (float) (double) tagWords.get(word);
+            }
+        }
+    }
+
+    /**
+     * @return - the tags of a model, with the start POS first and the rest in sorted order
+     */
+    private static String[] sortedTags(MarkovModel model) {
+        TreeSet<String> allTags = new TreeSet<>(model.getTransitionsMap().keySet());
+        allTags.addAll(model.getObservationMap().keySet());
+        for (HashMap<String,Double> nextTags : model.getTransitionsMap().values()) { allTags.addAll(nextTags.keySet()); }
+        allTags.remove(model.getStartPOS());
+
+        String[] tagNames = new String[allTags.size() + 1];
+        tagNames[0] = model.getStartPOS();
+        int id = 1;
+        for (String tag : allTags) { tagNames[id++] = tag; }
+        return tagNames;
+    }
+
+    /**
+     * @param word - A lowercase word
+     * @return - the id of the word, or -1 if it is not in the lexicon
+     */
+    public int wordId(String word) { return observed(words.wordId(word)); }
+
+    /**
+     * @param chars - A buffer holding a lowercase word
+     * @param offset - The index of the first char of the word
+     * @param length - The number of chars of the word
+     * @return - the id of the word, or -1 if it is not in the lexicon
+     */
+    public int wordId(char[] chars, int offset, int length) { return observed(words.wordId(chars, offset, length)); }
+
+    /**
+     * @return - the id of a word in the word table if this lexicon has a row for it, or -1
+     */
+    private int observed(int id) {
+        return id >= 0 && id < rowStart.length - 1 && rowStart[id] != rowStart[id + 1] ? id : -1;
+    }
+
+    /**
+     * @param word - The id of a word
+     * @param tag - The id of a tag
+     * @param unseen - The score to return if the word was never seen with the tag
+     * @return - the log frequency of the word under the tag
+     */
+    public double score(int word, int tag, double unseen) {
+        for (int pair = rowStart[word]; pair < rowStart[word + 1]; pair++) {
+            if (tagAtPair(pair) == tag) { return rowScores[pair]; }
+        }
+        return unseen;
+    }
+
+    /**
+     * @param word - The id of a word
+     * @return - the number of tags the word was seen with
+     */
+    public int tagCount(int word) { return rowStart[word + 1] - rowStart[word]; }
+
+    /**
+     * @param word - The id of a word, up to wordIdLimit
+     * @return - where the (tag, score) pairs of the word start, which is where those of the word before it end
+     */
+    int rowStart(int word) { return rowStart[word]; }
+
+    /**
+     * @param word - The id of a word
+     * @param k - Which of the word's tags, from 0 to tagCount - 1, in increasing tag id order
+     * @return - the id of the tag
+     */
+    public int tagAt(int word, int k) { return tagAtPair(rowStart[word] + k); }
+
+    /**
+     * @return - the tag id of one (tag, score) pair
+     */
+    private int tagAtPair(int pair) { return rowTags != null ? rowTags[pair] & 0xFF : wideRowTags[pair]; }
+
+    /**
+     * @param word - The id of a word
+     * @param k - Which of the word's tags, from 0 to tagCount - 1
+     * @return - the log frequency of the word under that tag
+     */
+    public float scoreAt(int word, int k) { return rowScores[rowStart[word] + k]; }
+
+    /**
+     * @param id - The id of a word
+     * @return - the word with that id
+     */
+    public String wordName(int id) { return words.wordName(id); }
+
+    /**
+     * @param id - The id of a tag
+     * @return - the part of speech with that id
+     */
+    public String tagName(int id) { return tagNames[id]; }
+
+    /**
+     * @return - the number of words observed under some tag
+     */
+    public int numWords() { return numWords; }
+
+    /**
+     * @return - one more than the largest id of a word of this lexicon; ids below it without a row are other lexicons' words
+     */
+    public int wordIdLimit() { return rowStart.length - 1; }
+
+    /**
+     * @return - whether the word table is shared with other lexicons
+     */
+    public boolean hasSharedWords() { return sharedWords; }
+
+    /**
+     * @return - the number of tags, including the start POS
+     */
+    public int numTags() { return tagNames.length; }
+
+    /**
+     * @return - the bytes taken by the arrays of the lexicon, counting a 16 byte header per array and 8 byte alignment,
+     * but not the tag names, which the model shares, nor a shared word table, which its owner counts
+     */
+    public long footprintBytes() {
+        return (sharedWords ? 0 : words.footprintBytes()) + arrayBytes(rowStart.length, 4) + (rowTags != null ? arrayBytes(rowTags.length, 1) : arrayBytes(wideRowTags.length, 4)) + arrayBytes(rowScores.length, 4);
+    }
+
+    /**
+     * @return - the heap size of an array of a number of elements of a given size
+     */
+    static long arrayBytes(long length, int elementSize) {
+        return (16 + length * elementSize + 7) / 8 * 8;
+    }
+}
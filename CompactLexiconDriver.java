@@ -0,0 +1,118 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * A driver class that reports the heap taken by the observations of the Brown model as HashMaps and as a CompactLexicon,
+ * and by the whole compiled model built on the lexicon, and checks that the lexicon holds the same scores. It also checks a synthetic model with more tags than fit in a byte,
+ * whose lexicon keeps its tag ids as ints, and whose compiled model must tag the same as the HashMap model.
+ * Heap sizes are measured as the growth of the used heap after garbage collection, so run it with a fixed heap,
+ * e.g. java -Xms512m -Xmx512m CompactLexiconDriver, for steadier numbers.
+ */
+public class CompactLexiconDriver {
+    public static void main(String[] args) throws Exception {
+        MarkovModel markovTester = new MarkovModel("./PS5/texts/brown-train-sentences.txt", "./PS5/texts/brown-train-tags.txt");
+        HashMap<String,HashMap<String,Double>> observationMap = markovTester.getObservationMap();
+
+        // A copy of the observation map with its own Strings and Doubles, built like training builds it
+        long before = usedHeap();
+        HashMap<String,HashMap<String,Double>> mapsCopy = new HashMap<>();
+        for (String tag : observationMap.keySet()) {
+            HashMap<String,Double> row = new HashMap<>();
+            for (String word : observationMap.get(tag).keySet()) { row.put(new String(word.toCharArray()), Double.valueOf(observationMap.get(tag).get(word))); }
+            mapsCopy.put(tag, row);
+        }
+        long mapsBytes = usedHeap() - before;
+
+        before = usedHeap();
+        CompactLexicon lexicon = new CompactLexicon(markovTester);
+        long lexiconBytes = usedHeap() - before;
+
+        // Every score must be the model's, rounded to a float
+        int pairs = 0, mismatches = 0;
+        double maxError = 0;
+        for (String tag : observationMap.keySet()) {
+            int tagId = -1;
+            for (int id = 0; id < lexicon.numTags(); id++) { if (lexicon.tagName(id).equals(tag)) { tagId = id; } }
+            for (String word : observationMap.get(tag).keySet()) {
+                double expected = observationMap.get(tag).get(word);
+                int wordId = lexicon.wordId(word);
+                char[] chars = word.toCharArray();
+                if (wordId < 0 || lexicon.wordId(chars, 0, chars.length) != wordId || !lexicon.wordName(wordId).equals(word)) { mismatches += 1; continue; }
+                double score = lexicon.score(wordId, tagId, Double.NaN);
+                if (score != (float) expected) { mismatches += 1; }
+                maxError = Math.max(maxError, Math.abs(score - expected));
+                pairs += 1;
+            }
+        }
+
+        int numWords = lexicon.numWords();
+        System.out.println("Words: " + numWords + ", (tag, word) pairs: " + pairs + ", mismatches: " + mismatches
+                + ", largest float rounding error: " + maxError);
+        System.out.printf("HashMap observations: %,d bytes (%.1f per pair)%n", mapsBytes, (double) mapsBytes / pairs);
+        System.out.printf("Compact lexicon: %,d bytes measured, %,d bytes counted (%.1f per pair)%n", lexiconBytes,
+                lexicon.footprintBytes(), (double) lexicon.footprintBytes() / pairs);
+        System.out.printf("Compiled model, which decodes from the lexicon: %,d bytes counted%n", markovTester.compile().footprintBytes());
+        System.out.printf("Reduction over HashMaps: %.1fx%n", (double) mapsBytes / lexicon.footprintBytes());
+
+        // Keep both alive until measured
+        if (mapsCopy.isEmpty() || lexicon.numWords() < 0) { System.out.println(); }
+
+        largeTagSet(300);
+    }
+
+    /**
+     * Trains a model on random sentences over more tags than fit in a byte, and checks that its lexicon holds every
+     * score and that its compiled model tags every sentence like the HashMap model
+     * @param numTags - The number of tags, besides the start POS
+     */
+    private static void largeTagSet(int numTags) {
+        // Word w is seen under tags w % numTags and (w + 7) % numTags, and each tag follows the one before it or a random one
+        Random random = new Random(42);
+        TrainingCounts counts = new TrainingCounts("#");
+        String[][] sentences = new String[2000][], sentenceTags = new String[2000][];
+        for (int s = 0; s < sentences.length; s++) {
+            int length = 5 + random.nextInt(15), tag = random.nextInt(numTags);
+            sentences[s] = new String[length];
+            sentenceTags[s] = new String[length];
+            for (int i = 0; i < length; i++) {
+                tag = random.nextInt(4) == 0 ? random.nextInt(numTags) : (tag + 1) % numTags;
+                int word = tag + numTags * random.nextInt(4);
+                if (random.nextBoolean()) { tag = (tag + 7) % numTags; }
+                sentences[s][i] = "w" + word;
+                sentenceTags[s][i] = "t" + tag;
+            }
+            counts.addSentence(sentences[s], sentenceTags[s]);
+        }
+        MarkovModel model = MarkovModel.fromCounts(counts, 0, MarkovModel.DEFAULT_UNSEEN_CONSTANT);
+        CompactLexicon lexicon = new CompactLexicon(model);
+        CompiledMarkovModel compiled = model.compile();
+
+        int mismatches = 0;
+        HashMap<String,HashMap<String,Double>> observationMap = model.getObservationMap();
+        for (int tagId = 0; tagId < lexicon.numTags(); tagId++) {
+            HashMap<String,Double> words = observationMap.get(lexicon.tagName(tagId));
+            if (words == null) { continue; }
+            for (String word : words.keySet()) { if (lexicon.score(lexicon.wordId(word), tagId, Double.NaN) != (float) (double) words.get(word)) { mismatches += 1; } }
+        }
+        int differentSentences = 0;
+        for (String[] sentence : sentences) {
+            String line = String.join(" ", sentence);
+            if (!Arrays.equals(compiled.viterbiAlgo(line), model.tag(line))) { differentSentences += 1; }
+        }
+        System.out.printf("%n%d tags: lexicon of %d words, %d score mismatches, %d of %d sentences tagged differently by the compiled model%n",
+                lexicon.numTags(), lexicon.numWords(), mismatches, differentSentences, sentences.length);
+    }
+
+    /**
+     * @return - the bytes of heap in use after a few garbage collections
+     */
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,47 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A driver class that checks the compiled model against the original Viterbi algorithm on the Brown test set,
+ * and compares how many sentences per second each of them tags.
+ */
+public class CompiledMarkovDriver {
+    public static void main(String[] args) throws Exception {
+        MarkovModel markovTester = new MarkovModel("./PS5/texts/brown-train-sentences.txt", "./PS5/texts/brown-train-tags.txt");
+        CompiledMarkovModel compiledTester = markovTester.compile();
+
+        // Read in every test sentence
+        ArrayList<String> lines = new ArrayList<>();
+        BufferedReader input = new BufferedReader(new FileReader("./PS5/texts/brown-test-sentences.txt"));
+        String line;
+        while ((line = input.readLine()) != null) { lines.add(line); }
+        input.close();
+
+        // Both decoders must agree tag for tag on every sentence
+        int mismatches = 0;
+        for (String sentence : lines) {
+            if (!Arrays.equals(markovTester.viterbiAlgo(sentence), compiledTester.viterbiAlgo(sentence))) { mismatches += 1; }
+        }
+        System.out.println("Sentences: " + lines.size() + "\nMismatched sentences: " + mismatches);
+
+        // Time a few passes over the test set with each decoder, after letting the JIT warm up
+        int passes = 5;
+        for (int i = 0; i < passes; i++) {
+            for (String sentence : lines) { markovTester.viterbiAlgo(sentence); compiledTester.viterbiAlgo(sentence); }
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < passes; i++) { for (String sentence : lines) { markovTester.viterbiAlgo(sentence); } }
+        double mapSeconds = (System.nanoTime() - start) / 1e9;
+
+        start = System.nanoTime();
+        for (int i = 0; i < passes; i++) { for (String sentence : lines) { compiledTester.viterbiAlgo(sentence); } }
+        double compiledSeconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println("HashMap Viterbi: " + (int) (passes * lines.size() / mapSeconds) + " sentences/sec");
+        System.out.println("Compiled Viterbi: " + (int) (passes * lines.size() / compiledSeconds) + " sentences/sec");
+        System.out.println("Speedup: " + (mapSeconds / compiledSeconds) + "x");
+    }
+}
@@ -0,0 +1,1251 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * An integer-indexed form of a trained MarkovModel used for fast decoding.
+ * Every part of speech and every word is interned into an int id. The transition log frequencies are stored in a flat
+ * double array, and the observation log frequencies in the compact lexicon as one row of (tag, score) pairs per word,
+ * which a decoder spreads out into a reusable array of every tag's score before scoring the word. So the Viterbi
+ * algorithm runs over reusable score and backpointer arrays instead of creating new HashMaps of boxed Doubles for
+ * every word, and the observations take a few bytes per (tag, word) pair instead of a double for every tag of every word.
+ * The tables never change once compiled, so one compiled model can be shared by any number of threads.
+ */
+public class CompiledMarkovModel implements Tagger {
+
+    // Id of the starting part of speech in every table
+    static final int START_ID = 0;
+
+    // Tag and word dictionaries, in both directions
+    private final String[] tagNames;
+    private final HashMap<String,Integer> tagIds;
+    private final CompactLexicon lexicon;
+    private final int numTags;
+
+    // transitionScores[from * numTags + to] is the log frequency of the transition, or negative infinity if it was never seen
+    private final double[] transitionScores;
+    // successors[from] lists every tag that can follow the from tag, so the inner loop skips impossible transitions
+    private final int[][] successors;
+    // predecessors[to] lists every tag that can come before the to tag, in increasing order
+    private final int[][] predecessors;
+    // Every tag id in order, the previous tags of the end of a sentence
+    private final int[] tagOrder;
+
+    // Penalty for a word that was never seen with a given part of speech
+    private final double unseenConstant;
+    // The observation scores of a word that was never observed, when there is no unknown-word model: those of MarkovModel.UNKNOWN_WORD
+    // if the model was trained with it, and the unseen constant for every tag otherwise
+    private final double[] unseenScores;
+    // Guesses the observation scores of words that were never observed, or null to give them the unseen constant
+    private final UnknownWordModel unknownWords;
+    // Number of unknown words whose scores the unknown-word model caches
+    private static final int UNKNOWN_WORD_CACHE_SIZE = 8192;
+
+    // Ambiguity classes: the tags of word w are the tags of its lexicon row, as ints at the same places of wordTags
+    private final int[] wordTags;
+    // The open-class tags, which are the candidates for words that were never observed
+    private final int[] openClassTags;
+    // A tag is open-class if at least this fraction of all distinct words was seen with it
+    private static final double OPEN_CLASS_SHARE = 0.01;
+
+    // The metrics of viterbiAlgo and tagLine, recorded only while the global registry is enabled
+    private static final MetricsRegistry.DecodeMetrics DECODE_METRICS = MetricsRegistry.global().decodeMetrics("compiled");
+
+    // Reusable per-thread score and backpointer arrays
+    private final ThreadLocal<ViterbiBuffers> buffers = ThreadLocal.withInitial(ViterbiBuffers::new);
+    // Reusable per-thread lattices for forward-backward and N-best decoding
+    private final ThreadLocal<LatticeBuffers> lattices = ThreadLocal.withInitial(LatticeBuffers::new);
+    // The transition probabilities, exp of transitionScores, for forward-backward
+    private final double[] transitionProbs;
+
+    /**
+     * Compiles the transitions map of a trained model into a dense table and its observations map into a compact lexicon
+     * @param model - The trained model to compile
+     */
+    public CompiledMarkovModel(MarkovModel model) {
+        this(model, false);
+    }
+
+    /**
+     * Compiles the transitions map of a trained model into a dense table and its observations map into a compact lexicon
+     * @param model - The trained model to compile
+     * @param unknownWordModel - Whether to score words that were never observed by their shape and suffix,
+     *                         which needs the raw counts of the model, instead of giving them the unseen constant
+     * @throws IllegalStateException if an unknown-word model is asked for but the model has no raw counts.
+     * A model that other threads update is compiled through MarkovModel.compile, which holds its update lock
+     * so the two maps read here come from the same update.
+     */
+    public CompiledMarkovModel(MarkovModel model, boolean unknownWordModel) {
+        this(model, unknownWordModel, null);
+    }
+
+    /**
+     * Compiles a trained model like the other constructors, keeping its words in a word table shared with other models
+     * @param model - The trained model to compile
+     * @param unknownWordModel - Whether to score words that were never observed by their shape and suffix
+     * @param words - The word table to add the model's words to, or null for the model to keep its own
+     * @throws IllegalStateException if an unknown-word model is asked for but the model has no raw counts
+     */
+    CompiledMarkovModel(MarkovModel model, boolean unknownWordModel, WordTable words) {
+        HashMap<String,HashMap<String,Double>> transitionsMap = model.getTransitionsMap();
+        HashMap<String,HashMap<String,Double>> observationMap = model.getObservationMap();
+        unseenConstant = model.getUnseenConstant();
+
+        // Intern every part of speech, keeping the start POS at id 0 and the rest in sorted order
+        TreeSet<String> allTags = new TreeSet<>(transitionsMap.keySet());
+        allTags.addAll(observationMap.keySet());
+        for (HashMap<String,Double> nextTags : transitionsMap.values()) { allTags.addAll(nextTags.keySet()); }
+        allTags.remove(model.getStartPOS());
+
+        numTags = allTags.size() + 1;
+        tagNames = new String[numTags];
+        tagIds = new HashMap<>();
+        tagNames[START_ID] = model.getStartPOS();
+        int nextId = START_ID + 1;
+        for (String tag : allTags) { tagNames[nextId++] = tag; }
+        for (int id = 0; id < numTags; id++) { tagIds.put(tagNames[id], id); }
+
+        // Intern every observed word, in a word table of the model's own or the shared one
+        lexicon = words == null ? new CompactLexicon(observationMap, tagNames) : new CompactLexicon(observationMap, tagNames, words);
+        int numWords = lexicon.numWords(), idLimit = lexicon.wordIdLimit();
+
+        // Fill in the transition matrix and the list of successors of each tag
+        transitionScores = new double[numTags * numTags];
+        Arrays.fill(transitionScores, Double.NEGATIVE_INFINITY);
+        successors = new int[numTags][];
+        for (int from = 0; from < numTags; from++) {
+            HashMap<String,Double> nextTags = transitionsMap.get(tagNames[from]);
+            if (nextTags == null) { successors[from] = new int[0]; continue; }
+
+            int[] fromSuccessors = new int[nextTags.size()];
+            int count = 0;
+            for (String nextTag : nextTags.keySet()) {
+                int to = tagIds.get(nextTag);
+                transitionScores[from * numTags + to] = nextTags.get(nextTag);
+                fromSuccessors[count++] = to;
+            }
+            Arrays.sort(fromSuccessors);
+            successors[from] = fromSuccessors;
+        }
+
+        tagOrder = new int[numTags];
+        for (int t = 0; t < numTags; t++) { tagOrder[t] = t; }
+        int[] predecessorCounts = new int[numTags];
+        for (int[] fromSuccessors : successors) { for (int to : fromSuccessors) { predecessorCounts[to] += 1; } }
+        predecessors = new int[numTags][];
+        for (int to = 0; to < numTags; to++) { predecessors[to] = new int[predecessorCounts[to]]; }
+        int[] filled = new int[numTags];
+        for (int from = 0; from < numTags; from++) {
+            for (int to : successors[from]) { predecessors[to][filled[to]++] = from; }
+        }
+
+        transitionProbs = new double[numTags * numTags];
+        for (int i = 0; i < transitionProbs.length; i++) { transitionProbs[i] = Math.exp(transitionScores[i]); }
+
+        // Index the tags every word was seen with, which are the rows of the lexicon, and count the distinct words of every tag
+        int[] typesPerTag = new int[numTags];
+        int[] seenTags = new int[observationCount(observationMap)];
+        int next = 0;
+        for (int word = 0; word < idLimit; word++) {
+            for (int k = 0; k < lexicon.tagCount(word); k++) {
+                int tag = lexicon.tagAt(word, k);
+                seenTags[next++] = tag;
+                typesPerTag[tag] += 1;
+            }
+        }
+        wordTags = seenTags;
+
+        int openCount = 0;
+        int[] openTags = new int[numTags];
+        for (int tag = 0; tag < numTags; tag++) {
+            if (typesPerTag[tag] > 0 && typesPerTag[tag] >= OPEN_CLASS_SHARE * numWords) { openTags[openCount++] = tag; }
+        }
+        openClassTags = Arrays.copyOf(openTags, openCount);
+
+        // Words never seen in training get the scores of the unknown word, if the model was trained with one
+        unseenScores = new double[numTags];
+        Arrays.fill(unseenScores, unseenConstant);
+        int unknownWord = lexicon.wordId(MarkovModel.UNKNOWN_WORD);
+        if (unknownWord >= 0) { observationRow(unknownWord, unseenScores); }
+        if (unknownWordModel) {
+            HashMap<String,HashMap<String,Double>> observationCounts = model.getObservationCounts();
+            if (observationCounts == null) { throw new IllegalStateException("The unknown-word model needs a model trained from data"); }
+            unknownWords = new UnknownWordModel(observationCounts, model.getCapitalCounts(), tagNames, unseenConstant, UNKNOWN_WORD_CACHE_SIZE);
+        }
+        else { unknownWords = null; }
+    }
+
+    /**
+     * @return - the number of (tag, word) pairs in an observation map
+     */
+    private static int observationCount(HashMap<String,HashMap<String,Double>> observationMap) {
+        int count = 0;
+        for (HashMap<String,Double> words : observationMap.values()) { count += words.size(); }
+        return count;
+    }
+
+    /**
+     * Run the Viterbi algorithm on a line of text, producing the same parts of speech as MarkovModel.viterbiAlgo
+     * @param line - String line of text to be tagged, with words separated by a " "
+     * @return - the array of String parts of speech in order from the start to the end of the sentence
+     */
+    public String[] viterbiAlgo(String line) {
+        DecodeEvent event = new DecodeEvent();
+        event.begin();
+        long start = MetricsRegistry.global().startNanos();
+        ViterbiBuffers buf = buffers.get();
+        int length = toWordIds(line, buf);
+        decodeBeam(buf.wordIds, buf.unknownScores, length, buf.tagIds, numTags, Double.POSITIVE_INFINITY);
+        DecodeEvent.end(event, DECODE_METRICS, start, "compiled", length, buf.unknownCount, buf.expanded);
+        return toTagNames(buf.tagIds, length);
+    }
+
+    /**
+     * Tags a line of text using the compiled Viterbi algorithm
+     * @param line - String line of text to be tagged
+     * @return - the array of String parts of speech in order from the start to the end of the sentence
+     */
+    public String[] tag(String line) {
+        return viterbiAlgo(line);
+    }
+
+    /**
+     * Run the Viterbi algorithm over a sentence of word ids.
+     * Uses only this thread's reusable arrays, so nothing is allocated per word.
+     * @param words - The id of each word in the sentence, -1 for words that were never observed
+     * @param length - The number of words in the sentence
+     * @param tagsOut - Array receiving the id of the most likely tag of each word, -1 if no tag can be reached
+     * @return - the score of the most likely path, or negative infinity if no path exists
+     */
+    public double decode(int[] words, int length, int[] tagsOut) {
+        return decodeBeam(words, length, tagsOut, numTags, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Run the Viterbi algorithm on a line of text, pruning unlikely states after every word.
+     * After each word only the beamWidth best states are kept, and of those only the ones whose score is within
+     * beamThreshold of the best one. A narrow beam is faster but may miss the most likely path.
+     * @param line - String line of text to be tagged, with words separated by a " "
+     * @param beamWidth - The number of states to keep after each word
+     * @param beamThreshold - How far below the best score, in log space, a state may fall before it is dropped
+     * @return - the array of String parts of speech in order from the start to the end of the sentence
+     */
+    public String[] viterbiBeam(String line, int beamWidth, double beamThreshold) {
+        ViterbiBuffers buf = buffers.get();
+        int length = toWordIds(line, buf);
+        decodeBeam(buf.wordIds, buf.unknownScores, length, buf.tagIds, beamWidth, beamThreshold);
+        return toTagNames(buf.tagIds, length);
+    }
+
+    /**
+     * @param beamWidth - The number of states to keep after each word
+     * @param beamThreshold - How far below the best score a state may fall before it is dropped
+     * @return - a tagger that decodes with this beam, e.g. for latency-sensitive traffic
+     */
+    public Tagger beamTagger(int beamWidth, double beamThreshold) {
+        return line -> viterbiBeam(line, beamWidth, beamThreshold);
+    }
+
+    /**
+     * Run the Viterbi algorithm over a sentence of word ids, pruning the states after every word.
+     * With a beamWidth of at least numTags and an infinite beamThreshold nothing is pruned and the search is exact.
+     * @param words - The id of each word in the sentence, -1 for words that were never observed
+     * @param length - The number of words in the sentence
+     * @param tagsOut - Array receiving the id of the most likely tag of each word, -1 if no tag can be reached
+     * @param beamWidth - The number of states to keep after each word
+     * @param beamThreshold - How far below the best score a state may fall before it is dropped
+     * @return - the score of the best path found, or negative infinity if no path exists
+     */
+    public double decodeBeam(int[] words, int length, int[] tagsOut, int beamWidth, double beamThreshold) {
+        return decodeBeam(words, null, length, tagsOut, beamWidth, beamThreshold);
+    }
+
+    /**
+     * Beam-pruned Viterbi over a sentence of word ids, where words that were never observed take their scores from unknownScores
+     * @param unknownScores - The observation scores of every word with id -1 by position, or null to give them the unseen constant
+     */
+    private double decodeBeam(int[] words, double[][] unknownScores, int length, int[] tagsOut, int beamWidth, double beamThreshold) {
+        if (beamWidth < 1) { throw new IllegalArgumentException("The beam must keep at least one state"); }
+        boolean pruning = beamWidth < numTags || beamThreshold != Double.POSITIVE_INFINITY;
+
+        ViterbiBuffers buf = buffers.get();
+        buf.ensureCapacity(length, numTags);
+        double[] currScores = buf.currScores;
+        double[] nextScores = buf.nextScores;
+        int[] backPointers = buf.backPointers;
+
+        Arrays.fill(currScores, Double.NEGATIVE_INFINITY);
+        currScores[START_ID] = 0.0;
+
+        long expanded = 0;
+        for (int i = 0; i < length; i++) {
+            expanded += viterbiStep(currScores, observationRow(words[i], unknownScores, i, buf.observedRow), nextScores, backPointers, i * numTags);
+
+            if (pruning) { prune(nextScores, beamWidth, beamThreshold, buf.sortedScores); }
+
+            // Swap the score arrays for the next iteration
+            double[] swap = currScores;
+            currScores = nextScores;
+            nextScores = swap;
+        }
+
+        buf.expanded = expanded;
+        return backTrace(currScores, backPointers, length, tagsOut);
+    }
+
+    /**
+     * One word of the full Viterbi search: scores every possible transition out of every reachable state
+     * @param currScores - The scores of every state at the previous word, negative infinity if it cannot be reached
+     * @param observed - The observation scores of the word
+     * @param nextScores - Array receiving the score of every state at the word
+     * @param backPointers - Array receiving the previous state of every state at the word, from backBase on
+     * @param backBase - Where the word's backpointers start
+     * @return - the number of transitions scored
+     */
+    int viterbiStep(double[] currScores, double[] observed, double[] nextScores, int[] backPointers, int backBase) {
+        Arrays.fill(nextScores, 0, numTags, Double.NEGATIVE_INFINITY);
+
+        // Iterate over every reachable state and all of its possible transitions
+        int expanded = 0;
+        for (int from = 0; from < numTags; from++) {
+            double fromScore = currScores[from];
+            if (fromScore == Double.NEGATIVE_INFINITY) { continue; }
+
+            int transBase = from * numTags;
+            expanded += successors[from].length;
+            for (int to : successors[from]) {
+                double nextScore = fromScore + transitionScores[transBase + to] + observed[to];
+                if (nextScore > nextScores[to]) {
+                    nextScores[to] = nextScore;
+                    backPointers[backBase + to] = from;
+                }
+            }
+        }
+        return expanded;
+    }
+
+    /**
+     * Run the Viterbi algorithm on a line of text with a kernel that scores every transition of every word
+     * @param line - String line of text to be tagged, with words separated by a " "
+     * @param kernel - The kernel that does each step, e.g. ViterbiKernel.best()
+     * @return - the array of String parts of speech in order from the start to the end of the sentence
+     */
+    public String[] viterbiDense(String line, ViterbiKernel kernel) {
+        ViterbiBuffers buf = buffers.get();
+        int length = toWordIds(line, buf);
+        decodeDense(buf.wordIds, buf.unknownScores, length, buf.tagIds, kernel);
+        return toTagNames(buf.tagIds, length);
+    }
+
+    /**
+     * @param kernel - The kernel that does each step
+     * @return - a tagger that decodes with the kernel
+     */
+    public Tagger denseTagger(ViterbiKernel kernel) {
+        return line -> viterbiDense(line, kernel);
+    }
+
+    /**
+     * Run the Viterbi algorithm over a sentence of word ids, with a kernel doing the dense max-plus step of every word
+     * instead of following the lists of successors. It finds the same tags as decode.
+     * @param words - The id of each word in the sentence, -1 for words that were never observed
+     * @param length - The number of words in the sentence
+     * @param tagsOut - Array receiving the id of the most likely tag of each word, -1 if no tag can be reached
+     * @param kernel - The kernel that does each step
+     * @return - the score of the most likely path, or negative infinity if no path exists
+     */
+    public double decodeDense(int[] words, int length, int[] tagsOut, ViterbiKernel kernel) {
+        return decodeDense(words, null, length, tagsOut, kernel);
+    }
+
+    /**
+     * Dense Viterbi over a sentence of word ids, where words that were never observed take their scores from unknownScores
+     * @param unknownScores - The observation scores of every word with id -1 by position, or null to give them the unseen constant
+     */
+    private double decodeDense(int[] words, double[][] unknownScores, int length, int[] tagsOut, ViterbiKernel kernel) {
+        ViterbiBuffers buf = buffers.get();
+        buf.ensureCapacity(length, numTags);
+        double[] currScores = buf.currScores;
+        double[] nextScores = buf.nextScores;
+
+        Arrays.fill(currScores, Double.NEGATIVE_INFINITY);
+        currScores[START_ID] = 0.0;
+        for (int i = 0; i < length; i++) {
+            kernel.step(currScores, transitionScores, observationRow(words[i], unknownScores, i, buf.observedRow), 0,
+                    numTags, nextScores, buf.backPointers, i * numTags);
+
+            // Swap the score arrays for the next iteration
+            double[] swap = currScores;
+            currScores = nextScores;
+            nextScores = swap;
+        }
+
+        return backTrace(currScores, buf.backPointers, length, tagsOut);
+    }
+
+    /**
+     * Computes the probability of every tag at every word of a line, given the whole line, by forward-backward,
+     * along with its Viterbi tags
+     * @param line - String line of text to be tagged, with words separated by a " "
+     * @return - the posterior marginals and Viterbi tags of the line
+     */
+    public TagPosteriors posteriors(String line) {
+        ViterbiBuffers buf = buffers.get();
+        int length = toWordIds(line, buf);
+        double[] probabilities = new double[length * numTags];
+        double logLikelihood = forwardBackward(buf.wordIds, buf.unknownScores, length, probabilities);
+        decodeBeam(buf.wordIds, buf.unknownScores, length, buf.tagIds, numTags, Double.POSITIVE_INFINITY);
+        return new TagPosteriors(tagNames, toTagNames(buf.tagIds, length), probabilities, logLikelihood);
+    }
+
+    /**
+     * Computes the posterior marginals of a sentence of word ids by forward-backward.
+     * The forward and backward passes work with probabilities rather than logs, so the inner loop multiplies instead of
+     * calling exp and log for every transition, and stay stable by rescaling each word's column to sum to 1 and keeping
+     * the log of the scale. The observation scores of each word are shifted by their maximum before exp, so even words
+     * scored with the unseen constant alone keep their relative probabilities.
+     * @param words - The id of each word in the sentence, -1 for words that were never observed
+     * @param length - The number of words in the sentence
+     * @param posteriorsOut - Array receiving the probability of tag t at word i at index i * numTags + t,
+     *                      all 0 if no tagging is possible; at least length * numTags long
+     * @return - the log probability of the sentence summed over every tagging, or negative infinity if no tagging is possible
+     */
+    public double forwardBackward(int[] words, int length, double[] posteriorsOut) {
+        return forwardBackward(words, null, length, posteriorsOut);
+    }
+
+    /**
+     * Forward-backward over a sentence of word ids, where words that were never observed take their scores from unknownScores
+     * @param unknownScores - The observation scores of every word with id -1 by position, or null to give them the unseen constant
+     */
+    private double forwardBackward(int[] words, double[][] unknownScores, int length, double[] posteriorsOut) {
+        LatticeBuffers lattice = lattices.get();
+        lattice.ensureForwardCapacity(length, numTags);
+        double[] emissions = lattice.emissions;
+        double[] forward = lattice.forward;
+        double[] backward = lattice.backward;
+        double[] scales = lattice.scales;
+
+        // The shifted observation probabilities of every word
+        double logLikelihood = 0;
+        for (int i = 0; i < length; i++) {
+            double[] observed = observationRow(words[i], unknownScores, i, lattice.observedRow);
+            double max = Double.NEGATIVE_INFINITY;
+            for (int t = 0; t < numTags; t++) { max = Math.max(max, observed[t]); }
+            for (int t = 0; t < numTags; t++) { emissions[i * numTags + t] = Math.exp(observed[t] - max); }
+            logLikelihood += max;
+        }
+
+        // Forward: the probability of every tag at word i and the words up to it, rescaled to sum to 1
+        for (int i = 0; i < length; i++) {
+            int base = i * numTags;
+            Arrays.fill(forward, base, base + numTags, 0.0);
+            if (i == 0) {
+                for (int to : successors[START_ID]) { forward[to] = transitionProbs[START_ID * numTags + to]; }
+            }
+            else {
+                for (int from = 0; from < numTags; from++) {
+                    double fromProb = forward[base - numTags + from];
+                    if (fromProb == 0) { continue; }
+
+                    int transBase = from * numTags;
+                    for (int to : successors[from]) { forward[base + to] += fromProb * transitionProbs[transBase + to]; }
+                }
+            }
+
+            double sum = 0;
+            for (int t = 0; t < numTags; t++) {
+                forward[base + t] *= emissions[base + t];
+                sum += forward[base + t];
+            }
+            if (sum == 0) {
+                Arrays.fill(posteriorsOut, 0, length * numTags, 0.0);
+                return Double.NEGATIVE_INFINITY;
+            }
+            for (int t = 0; t < numTags; t++) { forward[base + t] /= sum; }
+            scales[i] = sum;
+            logLikelihood += Math.log(sum);
+        }
+
+        // Backward: the probability of the words after word i given each tag at it, divided by the same scales
+        if (length > 0) { Arrays.fill(backward, (length - 1) * numTags, length * numTags, 1.0); }
+        for (int i = length - 2; i >= 0; i--) {
+            int base = i * numTags, next = base + numTags;
+            for (int from = 0; from < numTags; from++) {
+                double sum = 0;
+                int transBase = from * numTags;
+                for (int to : successors[from]) { sum += transitionProbs[transBase + to] * emissions[next + to] * backward[next + to]; }
+                backward[base + from] = sum / scales[i + 1];
+            }
+        }
+
+        // The posteriors are the products, which sum to 1 at every word up to rounding
+        for (int i = 0; i < length; i++) {
+            int base = i * numTags;
+            double sum = 0;
+            for (int t = 0; t < numTags; t++) {
+                posteriorsOut[base + t] = forward[base + t] * backward[base + t];
+                sum += posteriorsOut[base + t];
+            }
+            for (int t = 0; t < numTags; t++) { posteriorsOut[base + t] /= sum; }
+        }
+        return logLikelihood;
+    }
+
+    /**
+     * Finds the n most likely taggings of a line of text. The first one is the tagging of viterbiAlgo.
+     * @param line - String line of text to be tagged, with words separated by a " "
+     * @param n - The number of taggings to find
+     * @return - up to n distinct taggings, most likely first; fewer if the line has fewer possible taggings
+     */
+    public List<TaggedPath> nBest(String line, int n) {
+        ViterbiBuffers buf = buffers.get();
+        int length = toWordIds(line, buf);
+        int[] tags = new int[n * length];
+        double[] scores = new double[n];
+        int found = decodeNBest(buf.wordIds, buf.unknownScores, length, n, tags, scores);
+
+        ArrayList<TaggedPath> paths = new ArrayList<>(found);
+        for (int path = 0; path < found; path++) {
+            String[] pathTags = new String[length];
+            for (int i = 0; i < length; i++) { pathTags[i] = tagNames[tags[path * length + i]]; }
+            paths.add(new TaggedPath(pathTags, scores[path]));
+        }
+        return paths;
+    }
+
+    /**
+     * Finds the n most likely taggings of a sentence of word ids. A Viterbi pass keeps the best partial path of every tag
+     * at every word; the next best paths of a tag are only worked out when a tagging being followed back needs them,
+     * from the next best paths of the tags before it. Only the few tags the n best taggings go through are ever expanded,
+     * so this costs little more than one Viterbi pass.
+     * Ties go to the lower previous tag, as in decode, so the first tagging is the one decode finds.
+     * @param words - The id of each word in the sentence, -1 for words that were never observed
+     * @param length - The number of words in the sentence
+     * @param n - The number of taggings to find
+     * @param tagsOut - Array receiving the tag ids of tagging k at k * length up to (k + 1) * length; at least n * length long
+     * @param scoresOut - Array receiving the log probability of every tagging; at least n long
+     * @return - the number of taggings found, at most n
+     */
+    public int decodeNBest(int[] words, int length, int n, int[] tagsOut, double[] scoresOut) {
+        return decodeNBest(words, null, length, n, tagsOut, scoresOut);
+    }
+
+    /**
+     * N-best Viterbi over a sentence of word ids, where words that were never observed take their scores from unknownScores
+     * @param unknownScores - The observation scores of every word with id -1 by position, or null to give them the unseen constant
+     */
+    private int decodeNBest(int[] words, double[][] unknownScores, int length, int n, int[] tagsOut, double[] scoresOut) {
+        if (n < 1) { throw new IllegalArgumentException("At least one tagging must be asked for"); }
+        if (length == 0) { return 0; }
+        LatticeBuffers lattice = lattices.get();
+        lattice.startNBest(words, unknownScores, length, numTags, n);
+        double[] pathScores = lattice.pathScores;
+        int[] pathFrom = lattice.pathFrom;
+        int[] pathRank = lattice.pathRank;
+        int[] pathCount = lattice.pathCount;
+
+        // Viterbi: the best partial path of tag t at word i is the first of the list at (i * numTags + t) * n
+        for (int i = 0; i < length; i++) {
+            int base = i * numTags, prevBase = base - numTags;
+            double[] observed = observationRow(words[i], unknownScores, i, lattice.observedRow);
+            for (int to = 0; to < numTags; to++) {
+                double best = Double.NEGATIVE_INFINITY;
+                int bestFrom = START_ID;
+                if (i == 0) { best = 0.0 + transitionScores[START_ID * numTags + to] + observed[to]; }
+                else {
+                    double observedScore = observed[to];
+                    for (int from : predecessors[to]) {
+                        if (pathCount[prevBase + from] == 0) { continue; }
+                        double score = pathScores[(prevBase + from) * n] + transitionScores[from * numTags + to] + observedScore;
+                        if (score > best) {
+                            best = score;
+                            bestFrom = from;
+                        }
+                    }
+                }
+                setFirstPath(lattice, base + to, best, bestFrom);
+            }
+        }
+
+        // The taggings end at one more state after the last word, whose paths come from every tag of the last word
+        int last = (length - 1) * numTags, end = length * numTags;
+        double best = Double.NEGATIVE_INFINITY;
+        int bestTag = START_ID;
+        for (int tag = 0; tag < numTags; tag++) {
+            if (pathCount[last + tag] > 0 && pathScores[(last + tag) * n] > best) {
+                best = pathScores[(last + tag) * n];
+                bestTag = tag;
+            }
+        }
+        setFirstPath(lattice, end, best, bestTag);
+
+        // Follow every path back from the end state, working out the next best paths where they are needed
+        int found = 0;
+        while (found < n && findPath(lattice, length, 0, found)) {
+            scoresOut[found] = pathScores[end * n + found];
+            int tag = pathFrom[end * n + found], rank = pathRank[end * n + found];
+            for (int i = length - 1; i >= 0; i--) {
+                tagsOut[found * length + i] = tag;
+                int entry = (i * numTags + tag) * n + rank;
+                tag = pathFrom[entry];
+                rank = pathRank[entry];
+            }
+            found += 1;
+        }
+        return found;
+    }
+
+    /**
+     * Stores the Viterbi path of a state as the first of its list, or leaves the list empty if the state cannot be reached
+     */
+    private static void setFirstPath(LatticeBuffers lattice, int state, double score, int from) {
+        int n = lattice.n;
+        lattice.pathCount[state] = score == Double.NEGATIVE_INFINITY ? 0 : 1;
+        lattice.pathScores[state * n] = score;
+        lattice.pathFrom[state * n] = from;
+        lattice.pathRank[state * n] = 0;
+    }
+
+    /**
+     * Makes sure the list of a state holds a path of the given rank, finding the next best paths one by one.
+     * Finding a path of a state may need the next path of a state at the word before, and so on back to the start of
+     * the sentence, so the states still waiting for a path are kept on an explicit stack rather than the call stack,
+     * which would overflow on long sentences.
+     * @param i - The position of the word, or the length of the sentence for the end state
+     * @param tag - The tag at word i, 0 for the end state
+     * @param rank - The rank of the path needed, 0 for the best
+     * @return - whether the state has that many paths
+     */
+    private boolean findPath(LatticeBuffers lattice, int i, int tag, int rank) {
+        int[] pathCount = lattice.pathCount;
+        int n = lattice.n;
+        // Each frame is a state waiting for a path of some rank, and the previous tag whose head waits for the frame above it, or -1
+        int[] stackI = lattice.stackI, stackTag = lattice.stackTag, stackRank = lattice.stackRank, stackWaiting = lattice.stackWaiting;
+        int top = 0;
+        stackI[0] = i;
+        stackTag[0] = tag;
+        stackRank[0] = rank;
+        stackWaiting[0] = -1;
+        boolean found = false;
+
+        while (top >= 0) {
+            i = stackI[top];
+            tag = stackTag[top];
+            int state = i * numTags + tag, heads = state * numTags;
+
+            // The frame above this one has finished: move the head that waited for it onto the path it found, if any
+            int waiting = stackWaiting[top];
+            if (waiting >= 0) {
+                lattice.headScores[heads + waiting] = found ? pathScore(lattice, i, tag, waiting, lattice.headRanks[heads + waiting]) : Double.NEGATIVE_INFINITY;
+                stackWaiting[top] = -1;
+            }
+
+            if (stackRank[top] < pathCount[state]) { found = true; top -= 1; continue; }
+            if (i == 0 || pathCount[state] == 0) { found = false; top -= 1; continue; }
+
+            // Every previous tag has a head: the best of its paths not yet used by this state, and the score through it.
+            // The Viterbi path is the first path, so the head of its previous tag moves on at once
+            int[] candidates = i == lattice.length ? tagOrder : predecessors[tag];
+            int next;
+            if (!lattice.expanded[state]) {
+                lattice.expanded[state] = true;
+                for (int from : candidates) {
+                    lattice.headRanks[heads + from] = 0;
+                    lattice.headScores[heads + from] = pathScore(lattice, i, tag, from, 0);
+                }
+                next = lattice.pathFrom[state * n];
+            }
+            else {
+                double best = Double.NEGATIVE_INFINITY;
+                int pick = -1;
+                for (int from : candidates) {
+                    if (lattice.headScores[heads + from] > best) {
+                        best = lattice.headScores[heads + from];
+                        pick = from;
+                    }
+                }
+                if (pick < 0) { found = false; top -= 1; continue; }
+
+                int entry = state * n + pathCount[state];
+                lattice.pathScores[entry] = best;
+                lattice.pathFrom[entry] = pick;
+                lattice.pathRank[entry] = lattice.headRanks[heads + pick];
+                pathCount[state] += 1;
+                next = pick;
+            }
+
+            // Move the head of the previous tag just used on to its next path, which may first have to be found
+            int nextRank = lattice.headRanks[heads + next] + 1;
+            lattice.headRanks[heads + next] = nextRank;
+            if (nextRank >= n) {
+                lattice.headScores[heads + next] = Double.NEGATIVE_INFINITY;
+                continue;
+            }
+            stackWaiting[top] = next;
+            top += 1;
+            stackI[top] = i - 1;
+            stackTag[top] = next;
+            stackRank[top] = nextRank;
+            stackWaiting[top] = -1;
+        }
+        return found;
+    }
+
+    /**
+     * @return - the score of the path to tag at word i through the path of the given rank of the previous tag,
+     * added up in the same order as decode; negative infinity if the previous tag has no such path
+     */
+    private double pathScore(LatticeBuffers lattice, int i, int tag, int from, int rank) {
+        int previous = (i - 1) * numTags + from;
+        if (rank >= lattice.pathCount[previous]) { return Double.NEGATIVE_INFINITY; }
+        double score = lattice.pathScores[previous * lattice.n + rank];
+        if (i == lattice.length) { return score; }
+        int word = lattice.words[i];
+        double observed = word >= 0 ? lexicon.score(word, tag, unseenConstant) : lattice.unknownScores == null ? unseenScores[tag] : lattice.unknownScores[i][tag];
+        return score + transitionScores[from * numTags + tag] + observed;
+    }
+
+    /**
+     * Run the Viterbi algorithm on a line of text, only considering the tags each word was seen with in training.
+     * Words that were never observed may take any open-class tag.
+     * @param line - String line of text to be tagged, with words separated by a " "
+     * @return - the array of String parts of speech in order from the start to the end of the sentence
+     */
+    public String[] viterbiRestricted(String line) {
+        ViterbiBuffers buf = buffers.get();
+        int length = toWordIds(line, buf);
+        decodeRestricted(buf.wordIds, buf.unknownScores, length, buf.tagIds);
+        return toTagNames(buf.tagIds, length);
+    }
+
+    /**
+     * @return - a tagger that only considers the tags each word was seen with
+     */
+    public Tagger restrictedTagger() {
+        return this::viterbiRestricted;
+    }
+
+    /**
+     * Rounds the score tables to fixed point, for a smaller model that decodes nearly the same tags
+     * @param bits - The size of each score, 8 or 16
+     * @return - the quantized model
+     */
+    public QuantizedMarkovModel quantize(int bits) {
+        return new QuantizedMarkovModel(this, bits);
+    }
+
+    /**
+     * Run the Viterbi algorithm over a sentence of word ids, where each word only considers the tags of its ambiguity class:
+     * the tags it was seen with in training, or the open-class tags if it was never seen.
+     * Most words were only ever seen with one or two tags, so this skips nearly all of the work of the full search.
+     * If none of a word's candidates can follow any state, that word falls back to every possible transition.
+     * @param words - The id of each word in the sentence, -1 for words that were never observed
+     * @param length - The number of words in the sentence
+     * @param tagsOut - Array receiving the id of the most likely tag of each word, -1 if no tag can be reached
+     * @return - the score of the best path found, or negative infinity if no path exists
+     */
+    public double decodeRestricted(int[] words, int length, int[] tagsOut) {
+        return decodeRestricted(words, null, length, tagsOut);
+    }
+
+    /**
+     * Restricted Viterbi over a sentence of word ids, where words that were never observed take their scores from unknownScores
+     * @param unknownScores - The observation scores of every word with id -1 by position, or null to give them the unseen constant
+     */
+    private double decodeRestricted(int[] words, double[][] unknownScores, int length, int[] tagsOut) {
+        ViterbiBuffers buf = buffers.get();
+        buf.ensureCapacity(length, numTags);
+        double[] currScores = buf.currScores;
+        double[] nextScores = buf.nextScores;
+        int[] backPointers = buf.backPointers;
+        int[] liveTags = buf.liveTags;
+
+        Arrays.fill(currScores, Double.NEGATIVE_INFINITY);
+        currScores[START_ID] = 0.0;
+        liveTags[0] = START_ID;
+        int liveCount = 1;
+
+        for (int i = 0; i < length; i++) {
+            Arrays.fill(nextScores, Double.NEGATIVE_INFINITY);
+            int backBase = i * numTags;
+            int word = words[i];
+            double[] observed = word < 0 ? observationRow(word, unknownScores, i, null) : null;
+
+            // The candidate tags of the word, whose scores for a known word are the pairs of its lexicon row in the same order
+            int[] candidates = candidateTags(word);
+            int candidateStart = candidateStart(word);
+            int candidateEnd = candidateEnd(word);
+
+            boolean reached = false;
+            for (int c = candidateStart; c < candidateEnd; c++) {
+                int to = candidates[c];
+                double observedScore = word < 0 ? observed[to] : lexicon.scoreAt(word, c - candidateStart);
+                for (int k = 0; k < liveCount; k++) {
+                    int from = liveTags[k];
+                    double transitionScore = transitionScores[from * numTags + to];
+                    if (transitionScore == Double.NEGATIVE_INFINITY) { continue; }
+
+                    double nextScore = currScores[from] + transitionScore + observedScore;
+                    if (nextScore > nextScores[to]) {
+                        nextScores[to] = nextScore;
+                        backPointers[backBase + to] = from;
+                        reached = true;
+                    }
+                }
+            }
+
+            // None of the candidates can follow a live state, so expand every transition like the full search
+            if (!reached) {
+                if (word >= 0) { observed = observationRow(word, buf.observedRow); }
+                for (int k = 0; k < liveCount; k++) {
+                    int from = liveTags[k];
+                    for (int to : successors[from]) {
+                        double nextScore = currScores[from] + transitionScores[from * numTags + to] + observed[to];
+                        if (nextScore > nextScores[to]) {
+                            nextScores[to] = nextScore;
+                            backPointers[backBase + to] = from;
+                        }
+                    }
+                }
+            }
+
+            // Collect the live states for the next word, in tag order
+            liveCount = 0;
+            for (int tag = 0; tag < numTags; tag++) {
+                if (nextScores[tag] != Double.NEGATIVE_INFINITY) { liveTags[liveCount++] = tag; }
+            }
+
+            double[] swap = currScores;
+            currScores = nextScores;
+            nextScores = swap;
+        }
+
+        return backTrace(currScores, backPointers, length, tagsOut);
+    }
+
+    /**
+     * @param word - The id of a word, -1 if it was never observed
+     * @param unknownScores - The observation scores of unknown words by position, or null
+     * @param i - The position of the word in the sentence
+     * @param row - Array receiving the scores of a known word
+     * @return - the observation scores of every tag of the word: row, filled in from the lexicon, for a known word
+     */
+    private double[] observationRow(int word, double[][] unknownScores, int i, double[] row) {
+        if (word >= 0) { return observationRow(word, row); }
+        return unknownScores == null ? unseenScores : unknownScores[i];
+    }
+
+    /**
+     * Spreads the lexicon row of a known word out into the score of every tag
+     * @param word - The id of a word that was observed
+     * @param row - Array receiving the log frequency of the word under every tag, the unseen constant for tags it was never seen with
+     * @return - row
+     */
+    double[] observationRow(int word, double[] row) {
+        Arrays.fill(row, 0, numTags, unseenConstant);
+        for (int k = 0; k < lexicon.tagCount(word); k++) { row[lexicon.tagAt(word, k)] = lexicon.scoreAt(word, k); }
+        return row;
+    }
+
+    /**
+     * Drop every state that is not among the beamWidth best, or that is more than beamThreshold below the best
+     * @param scores - The scores of every state, where dropped states are set to negative infinity
+     * @param beamWidth - The number of states to keep
+     * @param beamThreshold - How far below the best score a state may fall
+     * @param sortedScores - Scratch array of at least numTags scores
+     */
+    private void prune(double[] scores, int beamWidth, double beamThreshold, double[] sortedScores) {
+        int live = 0;
+        double best = Double.NEGATIVE_INFINITY;
+        for (int tag = 0; tag < numTags; tag++) {
+            if (scores[tag] == Double.NEGATIVE_INFINITY) { continue; }
+            sortedScores[live++] = scores[tag];
+            best = Math.max(best, scores[tag]);
+        }
+        if (live == 0) { return; }
+
+        // The lowest score that survives is the larger of the threshold cut and the beamWidth-th best score
+        double cutoff = best - beamThreshold;
+        if (live > beamWidth) {
+            Arrays.sort(sortedScores, 0, live);
+            cutoff = Math.max(cutoff, sortedScores[live - beamWidth]);
+        }
+        for (int tag = 0; tag < numTags; tag++) {
+            if (scores[tag] < cutoff) { scores[tag] = Double.NEGATIVE_INFINITY; }
+        }
+    }
+
+    /**
+     * Find the most likely final state and follow the backpointers from it to the start of the sentence
+     * @param finalScores - The scores of every state after the last word
+     * @param backPointers - The previous state of every state at every word
+     * @param length - The number of words in the sentence
+     * @param tagsOut - Array receiving the id of the most likely tag of each word
+     * @return - the score of the most likely final state
+     */
+    private double backTrace(double[] finalScores, int[] backPointers, int length, int[] tagsOut) {
+        int probableTag = -1;
+        double probableScore = Double.NEGATIVE_INFINITY;
+        for (int tag = 0; tag < numTags; tag++) {
+            if (finalScores[tag] > probableScore) {
+                probableTag = tag;
+                probableScore = finalScores[tag];
+            }
+        }
+
+        if (length == 0) { return probableScore; }
+        if (probableTag < 0) {
+            Arrays.fill(tagsOut, 0, length, -1);
+            return probableScore;
+        }
+
+        tagsOut[length - 1] = probableTag;
+        for (int i = length - 1; i > 0; i--) {
+            tagsOut[i - 1] = backPointers[i * numTags + tagsOut[i]];
+        }
+        return probableScore;
+    }
+
+    /**
+     * Split a line into words like viterbiAlgo does, and translate each lowercased word into its id in the buffers.
+     * Every word that was never observed also gets its observation scores, from the unknown-word model if there is one.
+     * @param line - String line of text, with words separated by a " "
+     * @param buf - The buffers of this thread, whose word ids and unknown word scores are filled in
+     * @return - the number of words in the line
+     */
+    private int toWordIds(String line, ViterbiBuffers buf) {
+        String[] eachObservation = line.split(" ");
+        int length = eachObservation.length;
+        buf.ensureCapacity(length, numTags);
+        int unknownCount = 0;
+        for (int i = 0; i < length; i++) {
+            int word = wordId(eachObservation[i].toLowerCase());
+            buf.wordIds[i] = word;
+            if (word < 0) {
+                buf.unknownScores[i] = unknownWordScores(eachObservation[i]);
+                unknownCount += 1;
+            }
+        }
+        buf.unknownCount = unknownCount;
+        return length;
+    }
+
+    /**
+     * @param word - A word that was never observed, as it appears in the text
+     * @return - its observation scores, from the unknown-word model if there is one, or else the unseen constant for every tag
+     */
+    double[] unknownWordScores(String word) {
+        return unknownWords == null ? unseenScores : unknownWords.scores(word);
+    }
+
+    /**
+     * @param word - The id of a word, -1 if it was never observed
+     * @return - the array holding the candidate tags of the word, from candidateStart up to candidateEnd: its ambiguity
+     * class if it was observed, and the open-class tags if not
+     */
+    int[] candidateTags(int word) { return word < 0 ? openClassTags : wordTags; }
+
+    /**
+     * @param word - The id of a word, -1 if it was never observed
+     * @return - where the candidate tags of the word start in candidateTags
+     */
+    int candidateStart(int word) { return word < 0 ? 0 : lexicon.rowStart(word); }
+
+    /**
+     * @param word - The id of a word, -1 if it was never observed
+     * @return - where the candidate tags of the word end in candidateTags
+     */
+    int candidateEnd(int word) { return word < 0 ? openClassTags.length : lexicon.rowStart(word + 1); }
+
+    /**
+     * Tags the current line of a SentenceReader, looking its words up in the reader's buffer instead of creating a String per word.
+     * Only words that were never observed become Strings, and only when there is an unknown-word model.
+     * @param reader - The reader, positioned on the line to tag
+     * @param tagsOut - Array receiving the id of the most likely tag of each word, -1 if no tag can be reached; at least wordCount long
+     * @return - the number of words of the line
+     */
+    public int tagLine(SentenceReader reader, int[] tagsOut) {
+        DecodeEvent event = new DecodeEvent();
+        event.begin();
+        long start = MetricsRegistry.global().startNanos();
+        ViterbiBuffers buf = buffers.get();
+        int length = reader.wordCount();
+        buf.ensureCapacity(length, numTags);
+        reader.lookUp(lexicon, buf.wordIds);
+        int unknownCount = 0;
+        for (int i = 0; i < length; i++) {
+            if (buf.wordIds[i] < 0) {
+                buf.unknownScores[i] = unknownWordScores(reader.word(i));
+                unknownCount += 1;
+            }
+        }
+        decodeBeam(buf.wordIds, buf.unknownScores, length, tagsOut, numTags, Double.POSITIVE_INFINITY);
+        DecodeEvent.end(event, DECODE_METRICS, start, "compiled", length, unknownCount, buf.expanded);
+        return length;
+    }
+
+    /**
+     * Tests the accuracy of the model on a file of sentences and a file of their tags, like MarkovModel.testAccuracy,
+     * but reading both files through SentenceReaders so no String is created per line or per word
+     * @param testSentenceFile - The file of sentences
+     * @param testTagsFile - The file of the correct tags of every sentence
+     * @return - the number of correct and false tags, and the accuracy
+     * @throws Exception if a file cannot be read, or if the files do not line up
+     */
+    public String testAccuracy(String testSentenceFile, String testTagsFile) throws Exception {
+        long correctTags = 0, falseTags = 0;
+        int[] tags = new int[64];
+        try (SentenceReader wordsInput = new SentenceReader(testSentenceFile);
+             SentenceReader tagsInput = new SentenceReader(testTagsFile)) {
+            while (true) {
+                boolean moreWords = wordsInput.nextLine();
+                boolean moreTags = tagsInput.nextLine();
+                if (!moreWords && !moreTags) { break; }
+                if (moreWords != moreTags) {
+                    throw new Exception((moreWords ? testTagsFile : testSentenceFile) + " ends before line " + wordsInput.lineNumber()
+                            + " but " + (moreWords ? testSentenceFile : testTagsFile) + " continues");
+                }
+                if (wordsInput.wordCount() != tagsInput.wordCount()) {
+                    throw new Exception("Line " + wordsInput.lineNumber() + " has " + wordsInput.wordCount() + " words but "
+                            + tagsInput.wordCount() + " tags");
+                }
+
+                if (tags.length < wordsInput.wordCount()) { tags = new int[wordsInput.wordCount() * 2]; }
+                int length = tagLine(wordsInput, tags);
+                for (int i = 0; i < length; i++) {
+                    if (tags[i] >= 0 && tagsInput.wordEquals(i, tagNames[tags[i]])) { correctTags += 1; }
+                    else { falseTags += 1; }
+                }
+            }
+        }
+
+        return "Correct Tags: " + correctTags +
+                "\nFalse Tags: " + falseTags +
+                "\nThe model is approximately " + (double) correctTags / (correctTags + falseTags) * 100 + "% correct!";
+    }
+
+    /**
+     * @param tags - The id of each tag of a sentence, -1 where no tag could be reached
+     * @param length - The number of words in the sentence
+     * @return - the array of String parts of speech
+     */
+    private String[] toTagNames(int[] tags, int length) {
+        String[] finalTags = new String[length];
+        for (int i = 0; i < length; i++) { finalTags[i] = tags[i] < 0 ? null : tagNames[tags[i]]; }
+        return finalTags;
+    }
+
+    /**
+     * @param word - A lowercase word
+     * @return - the id of the word, or -1 if it was never observed in the training data
+     */
+    public int wordId(String word) {
+        return lexicon.wordId(word);
+    }
+
+    /**
+     * @param chars - A buffer holding a lowercase word
+     * @param offset - The index of the first char of the word
+     * @param length - The number of chars of the word
+     * @return - the id of the word, or -1 if it was never observed in the training data
+     */
+    public int wordId(char[] chars, int offset, int length) {
+        return lexicon.wordId(chars, offset, length);
+    }
+
+    /**
+     * @param tag - A part of speech
+     * @return - the id of the tag, or -1 if it is not part of the model
+     */
+    public int tagId(String tag) {
+        Integer id = tagIds.get(tag);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param id - The id of a tag
+     * @return - the part of speech with that id
+     */
+    public String tagName(int id) { return tagNames[id]; }
+
+    /**
+     * @param id - The id of a word
+     * @return - the word with that id
+     */
+    public String wordName(int id) { return lexicon.wordName(id); }
+
+    /**
+     * @return - the number of tags, including the start POS
+     */
+    public int numTags() { return numTags; }
+
+    /**
+     * @return - the number of distinct words observed in the training data
+     */
+    public int numWords() { return lexicon.numWords(); }
+
+    /**
+     * @return - one more than the largest word id; with a shared word table, ids below it may be words of other models,
+     * which this model never observed
+     */
+    public int wordIdLimit() { return lexicon.wordIdLimit(); }
+
+    /**
+     * @return - the lexicon the observations are decoded from
+     */
+    CompactLexicon getLexicon() { return lexicon; }
+
+    /**
+     * @param from - The id of a tag
+     * @param to - The id of the tag after it
+     * @return - the log frequency of the transition, negative infinity if it was never seen
+     */
+    public double transitionScore(int from, int to) { return transitionScores[from * numTags + to]; }
+
+    /**
+     * @param word - The id of a word, -1 if it was never observed
+     * @param tag - The id of a tag
+     * @return - the log frequency of the word under the tag, the unseen constant if it was never seen with the tag,
+     * or for a word never observed the score decoding gives it without an unknown-word model: the unknown word's
+     * log frequency under the tag if the model was trained with one, and otherwise the unseen constant
+     */
+    public double observationScore(int word, int tag) { return word < 0 ? unseenScores[tag] : lexicon.score(word, tag, unseenConstant); }
+
+    /**
+     * @return - the score of a word that was never seen with a tag
+     */
+    public double getUnseenConstant() { return unseenConstant; }
+
+    /**
+     * @return - the unknown-word model, or null if words that were never observed get the unseen constant
+     */
+    public UnknownWordModel getUnknownWordModel() { return unknownWords; }
+
+    /**
+     * @return - the bytes taken by the score tables, the tag lists and the lexicon, with the same accounting as the
+     * lexicon's footprint, but not the per-thread buffers or the unknown-word model
+     */
+    public long footprintBytes() {
+        long bytes = CompactLexicon.arrayBytes(transitionScores.length, 8) + CompactLexicon.arrayBytes(transitionProbs.length, 8)
+                + CompactLexicon.arrayBytes(unseenScores.length, 8)
+                + CompactLexicon.arrayBytes(tagOrder.length, 4) + CompactLexicon.arrayBytes(openClassTags.length, 4)
+                + CompactLexicon.arrayBytes(wordTags.length, 4)
+                + lexicon.footprintBytes();
+        for (int t = 0; t < numTags; t++) {
+            bytes += CompactLexicon.arrayBytes(successors[t].length, 4) + CompactLexicon.arrayBytes(predecessors[t].length, 4);
+        }
+        return bytes;
+    }
+
+    /**
+     * The score and backpointer arrays reused by one thread across sentences.
+     * They only ever grow, to fit the longest sentence seen so far.
+     */
+    private static class LatticeBuffers {
+        // Forward-backward, indexed by i * numTags + tag, and the scale of every word
+        double[] emissions = new double[0];
+        double[] forward = new double[0];
+        double[] backward = new double[0];
+        double[] scales = new double[0];
+        // The observation scores of a known word, spread out from its lexicon row
+        double[] observedRow = new double[0];
+        // N-best partial paths, indexed by (i * numTags + tag) * n + rank, and the count of every list. State length * numTags
+        // is the end of the sentence
+        double[] pathScores = new double[0];
+        int[] pathFrom = new int[0];
+        int[] pathRank = new int[0];
+        int[] pathCount = new int[0];
+        // The head of every previous tag of a state, at state * numTags + previous tag, once the state needs more than one path
+        boolean[] expanded = new boolean[0];
+        int[] headRanks = new int[0];
+        double[] headScores = new double[0];
+        // The states waiting for a path while one is found, at most one per word and the end state
+        int[] stackI = new int[0];
+        int[] stackTag = new int[0];
+        int[] stackRank = new int[0];
+        int[] stackWaiting = new int[0];
+        // The sentence being decoded
+        int[] words;
+        double[][] unknownScores;
+        int length, n;
+
+        void ensureForwardCapacity(int length, int numTags) {
+            if (forward.length < length * numTags) {
+                int size = Math.max(length * numTags, forward.length * 2);
+                emissions = new double[size];
+                forward = new double[size];
+                backward = new double[size];
+            }
+            if (scales.length < length) { scales = new double[Math.max(length, scales.length * 2)]; }
+            if (observedRow.length < numTags) { observedRow = new double[numTags]; }
+        }
+
+        void startNBest(int[] words, double[][] unknownScores, int length, int numTags, int n) {
+            int states = (length + 1) * numTags;
+            if (pathScores.length < states * n) {
+                int size = Math.max(states * n, pathScores.length * 2);
+                pathScores = new double[size];
+                pathFrom = new int[size];
+                pathRank = new int[size];
+            }
+            if (pathCount.length < states) {
+                int size = Math.max(states, pathCount.length * 2);
+                pathCount = new int[size];
+                expanded = new boolean[size];
+                headRanks = new int[size * numTags];
+                headScores = new double[size * numTags];
+            }
+            if (stackI.length < length + 1) {
+                int size = Math.max(length + 1, stackI.length * 2);
+                stackI = new int[size];
+                stackTag = new int[size];
+                stackRank = new int[size];
+                stackWaiting = new int[size];
+            }
+            if (observedRow.length < numTags) { observedRow = new double[numTags]; }
+            Arrays.fill(expanded, 0, states, false);
+            this.words = words;
+            this.unknownScores = unknownScores;
+            this.length = length;
+            this.n = n;
+        }
+    }
+
+    private static class ViterbiBuffers {
+        // The transitions scored by the last decode, and the unknown words of the last line translated, for the metrics
+        long expanded;
+        int unknownCount;
+        double[] currScores = new double[0];
+        double[] nextScores = new double[0];
+        double[] sortedScores = new double[0];
+        // The observation scores of a known word, spread out from its lexicon row
+        double[] observedRow = new double[0];
+        int[] liveTags = new int[0];
+        int[] backPointers = new int[0];
+        int[] wordIds = new int[0];
+        int[] tagIds = new int[0];
+        double[][] unknownScores = new double[0][];
+
+        void ensureCapacity(int length, int numTags) {
+            if (currScores.length < numTags) {
+                currScores = new double[numTags];
+                nextScores = new double[numTags];
+                sortedScores = new double[numTags];
+                observedRow = new double[numTags];
+                liveTags = new int[numTags];
+            }
+            if (wordIds.length < length) {
+                int newLength = Math.max(length, wordIds.length * 2);
+                wordIds = Arrays.copyOf(wordIds, newLength);
+                tagIds = Arrays.copyOf(tagIds, newLength);
+                unknownScores = Arrays.copyOf(unknownScores, newLength);
+            }
+            if (backPointers.length < length * numTags) {
+                backPointers = new int[Math.max(length * numTags, backPointers.length * 2)];
+            }
+        }
+    }
+}
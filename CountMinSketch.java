@@ -0,0 +1,78 @@
+/**
+ * A count-min sketch of how often each String has been seen, in a fixed number of int counters whatever the number
+ * of distinct Strings. Every String is counted in one counter of each row, picked by its own hash per row, and its
+ * estimate is the smallest of those counters. Estimates never fall below the true count, and only overestimate it
+ * where every row's counter is shared with other Strings.
+ *
+ * Adding uses conservative update: only the counters that are at the current estimate are raised, which keeps the
+ * overestimates of rare Strings, the ones that matter for deciding what to keep, much smaller than plain updates.
+ */
+public class CountMinSketch {
+
+    private final int[] counters;
+    private final int depth;
+    private final int width;
+    private final int mask;
+
+    /**
+     * @param depth - The number of rows, each with its own hash
+     * @param width - The number of counters per row, rounded down to a power of two of at least 16
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth < 1) { throw new IllegalArgumentException("A sketch needs at least one row"); }
+        this.depth = depth;
+        this.width = Integer.highestOneBit(Math.max(16, width));
+        this.mask = this.width - 1;
+        counters = new int[depth * this.width];
+    }
+
+    /**
+     * Counts one more sighting of a String
+     * @param key - The String seen
+     * @return - the estimate of how many times it has been seen, including this time
+     */
+    public int add(String key) {
+        int first = spread(key.hashCode());
+        int step = spread(first ^ 0x5BD1E995) | 1;
+        int estimate = estimate(first, step) + 1;
+        for (int row = 0; row < depth; row++) {
+            int index = row * width + ((first + row * step) & mask);
+            if (counters[index] < estimate) { counters[index] = estimate; }
+        }
+        return estimate;
+    }
+
+    /**
+     * @param key - A String
+     * @return - the estimate of how many times it has been seen, which is never less than the true count
+     */
+    public int estimate(String key) {
+        int first = spread(key.hashCode());
+        return estimate(first, spread(first ^ 0x5BD1E995) | 1);
+    }
+
+    /**
+     * @return - the smallest counter of a String over all rows, where the String's counter in row i is picked by first + i * step
+     */
+    private int estimate(int first, int step) {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) { estimate = Math.min(estimate, counters[row * width + ((first + row * step) & mask)]); }
+        return estimate;
+    }
+
+    /**
+     * @return - the bytes taken by the counters
+     */
+    public long footprintBytes() { return CompactLexicon.arrayBytes(counters.length, 4); }
+
+    /**
+     * Mixes the bits of a hash code so that Strings with similar hash codes land in different counters
+     */
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,285 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * K-fold cross-validation of the bigram model on a training corpus, sweeping the transition smoothing and the penalty
+ * for unseen words.
+ * The sentences are dealt round-robin into k folds and every fold is counted once, all folds at the same time. The counts
+ * of the whole corpus are the merge of the fold counts, and the training counts of each fold are the whole minus that
+ * fold, so every sentence is counted exactly once however many folds and configurations are tried. Each (configuration,
+ * fold) pair is then normalized, compiled and evaluated on its held-out fold as its own task on a fixed pool of threads.
+ */
+public class CrossValidation {
+
+    private final int folds;
+    private final int workers;
+    // The sentences and tag lines of every fold
+    private final List<List<String>> foldLines = new ArrayList<>();
+    private final List<List<String>> foldTagLines = new ArrayList<>();
+    // trainingCounts[f] counts every sentence outside fold f
+    private final TrainingCounts[] trainingCounts;
+    private final double countSeconds;
+
+    /**
+     * Reads a corpus, splits it into folds and counts them
+     * @param fileWords - The file containing all the sentences
+     * @param fileTags - The file containing all the corresponding tags for the sentences
+     * @param folds - The number of folds, at least 2
+     * @param workers - The number of threads to count and evaluate with
+     * @throws Exception if a file cannot be read, or its lines or words and tags do not line up
+     */
+    public CrossValidation(String fileWords, String fileTags, int folds, int workers) throws Exception {
+        if (folds < 2) { throw new IllegalArgumentException("At least two folds are needed"); }
+        if (workers < 1) { throw new IllegalArgumentException("At least one worker is needed"); }
+        this.folds = folds;
+        this.workers = workers;
+
+        List<String> lines = readLines(fileWords);
+        List<String> tagLines = readLines(fileTags);
+        if (lines.size() != tagLines.size()) {
+            throw new Exception(fileWords + " has " + lines.size() + " lines but " + fileTags + " has " + tagLines.size());
+        }
+        for (int f = 0; f < folds; f++) {
+            foldLines.add(new ArrayList<>());
+            foldTagLines.add(new ArrayList<>());
+        }
+        for (int i = 0; i < lines.size(); i++) {
+            foldLines.get(i % folds).add(lines.get(i));
+            foldTagLines.get(i % folds).add(tagLines.get(i));
+        }
+
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            ArrayList<Future<TrainingCounts>> foldCounts = new ArrayList<>();
+            for (int f = 0; f < folds; f++) {
+                List<String> foldSentences = foldLines.get(f), foldTags = foldTagLines.get(f);
+                int firstLine = f;
+                foldCounts.add(pool.submit(() -> countFold(foldSentences, foldTags, firstLine)));
+            }
+
+            TrainingCounts allCounts = new TrainingCounts("#");
+            for (Future<TrainingCounts> counts : foldCounts) { allCounts.merge(counts.get()); }
+
+            trainingCounts = new TrainingCounts[folds];
+            for (int f = 0; f < folds; f++) {
+                trainingCounts[f] = new TrainingCounts("#");
+                trainingCounts[f].merge(allCounts);
+                trainingCounts[f].subtract(foldCounts.get(f).get());
+            }
+        }
+        finally { pool.shutdown(); }
+        countSeconds = (System.nanoTime() - start) / 1e9;
+    }
+
+    /**
+     * Counts the sentences of one fold
+     * @param firstLine - The index of the fold's first sentence in the corpus, to report misaligned lines
+     */
+    private TrainingCounts countFold(List<String> lines, List<String> tagLines, int firstLine) throws Exception {
+        TrainingCounts counts = new TrainingCounts("#");
+        for (int i = 0; i < lines.size(); i++) {
+            String[] sentence = lines.get(i).split(" ");
+            String[] sentenceTags = tagLines.get(i).split(" ");
+            if (sentence.length != sentenceTags.length) {
+                throw new Exception("Line " + (firstLine + i * folds + 1) + " has " + sentence.length + " words but "
+                        + sentenceTags.length + " tags");
+            }
+            counts.addSentence(sentence, sentenceTags);
+        }
+        return counts;
+    }
+
+    /**
+     * Cross-validates every combination of smoothing and unseen penalty
+     * @param smoothings - The add-k smoothings of the transitions to try, 0 for none
+     * @param unseenConstants - The penalties for a word not seen with a part of speech to try
+     * @return - the result of every configuration, smoothing by smoothing and penalty by penalty
+     * @throws Exception if evaluating any fold fails
+     */
+    public List<Result> sweep(double[] smoothings, double[] unseenConstants) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            // Queue every fold of every configuration, so the pool stays busy across configurations
+            ArrayList<Future<FoldOutcome>> outcomes = new ArrayList<>();
+            for (double smoothing : smoothings) {
+                for (double unseenConstant : unseenConstants) {
+                    for (int f = 0; f < folds; f++) {
+                        int fold = f;
+                        outcomes.add(pool.submit(() -> evaluateFold(fold, smoothing, unseenConstant)));
+                    }
+                }
+            }
+
+            ArrayList<Result> results = new ArrayList<>();
+            int next = 0;
+            for (double smoothing : smoothings) {
+                for (double unseenConstant : unseenConstants) {
+                    FoldOutcome[] configFolds = new FoldOutcome[folds];
+                    for (int f = 0; f < folds; f++) { configFolds[f] = outcomes.get(next++).get(); }
+                    results.add(new Result(smoothing, unseenConstant, configFolds));
+                }
+            }
+            return results;
+        }
+        finally { pool.shutdown(); }
+    }
+
+    /**
+     * Trains a configuration on every fold but one and evaluates it on that fold
+     */
+    private FoldOutcome evaluateFold(int fold, double smoothing, double unseenConstant) throws Exception {
+        long start = System.nanoTime();
+        CompiledMarkovModel compiled = MarkovModel.fromCounts(trainingCounts[fold], smoothing, unseenConstant).compile();
+        double trainSeconds = (System.nanoTime() - start) / 1e9;
+        EvaluationResult evaluation = new TaggingEvaluator(compiled, 1).evaluate(foldLines.get(fold), foldTagLines.get(fold));
+        return new FoldOutcome(evaluation, trainSeconds, start, System.nanoTime());
+    }
+
+    /**
+     * @return - the counts of every sentence outside a fold
+     */
+    public TrainingCounts getTrainingCounts(int fold) { return trainingCounts[fold]; }
+
+    /**
+     * @return - the number of folds
+     */
+    public int getFolds() { return folds; }
+
+    /**
+     * @return - the seconds spent counting the folds and building the training counts of every fold
+     */
+    public double getCountSeconds() { return countSeconds; }
+
+    /**
+     * @return - every line of a file
+     */
+    private static List<String> readLines(String fileName) throws Exception {
+        ArrayList<String> lines = new ArrayList<>();
+        try (BufferedReader input = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            while ((line = input.readLine()) != null) { lines.add(line); }
+        }
+        return lines;
+    }
+
+    /**
+     * The evaluation of one configuration on one held-out fold
+     */
+    private static class FoldOutcome {
+        final EvaluationResult evaluation;
+        final double trainSeconds;
+        final long startNanos, endNanos;
+
+        FoldOutcome(EvaluationResult evaluation, double trainSeconds, long startNanos, long endNanos) {
+            this.evaluation = evaluation;
+            this.trainSeconds = trainSeconds;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+        }
+    }
+
+    /**
+     * The cross-validated accuracy and time of one configuration
+     */
+    public static class Result {
+        private final double smoothing, unseenConstant;
+        private final double[] foldAccuracies;
+        private final long correct, tokens, unknownCorrect, unknownTokens;
+        private final double trainSeconds, tagSeconds, wallSeconds;
+
+        Result(double smoothing, double unseenConstant, FoldOutcome[] folds) {
+            this.smoothing = smoothing;
+            this.unseenConstant = unseenConstant;
+            foldAccuracies = new double[folds.length];
+            long correct = 0, tokens = 0, unknownCorrect = 0, unknownTokens = 0;
+            double trainSeconds = 0, tagSeconds = 0;
+            long firstStart = Long.MAX_VALUE, lastEnd = Long.MIN_VALUE;
+            for (int f = 0; f < folds.length; f++) {
+                EvaluationResult evaluation = folds[f].evaluation;
+                foldAccuracies[f] = evaluation.accuracy();
+                correct += evaluation.getCorrect();
+                tokens += evaluation.getTokens();
+                unknownCorrect += evaluation.getUnknownCorrect();
+                unknownTokens += evaluation.getUnknownTokens();
+                trainSeconds += folds[f].trainSeconds;
+                tagSeconds += evaluation.getSeconds();
+                firstStart = Math.min(firstStart, folds[f].startNanos);
+                lastEnd = Math.max(lastEnd, folds[f].endNanos);
+            }
+            this.correct = correct;
+            this.tokens = tokens;
+            this.unknownCorrect = unknownCorrect;
+            this.unknownTokens = unknownTokens;
+            this.trainSeconds = trainSeconds;
+            this.tagSeconds = tagSeconds;
+            this.wallSeconds = (lastEnd - firstStart) / 1e9;
+        }
+
+        /**
+         * @return - the add-k smoothing of the transitions
+         */
+        public double getSmoothing() { return smoothing; }
+
+        /**
+         * @return - the penalty for a word not seen with a part of speech
+         */
+        public double getUnseenConstant() { return unseenConstant; }
+
+        /**
+         * @return - the fraction of all held-out words tagged correctly, over every fold
+         */
+        public double accuracy() { return tokens == 0 ? 0 : (double) correct / tokens; }
+
+        /**
+         * @return - the fraction of held-out words never seen in their fold's training data that were tagged correctly
+         */
+        public double unknownAccuracy() { return unknownTokens == 0 ? 0 : (double) unknownCorrect / unknownTokens; }
+
+        /**
+         * @return - the standard deviation of the accuracy of the folds
+         */
+        public double accuracyStdDev() {
+            double mean = 0, squares = 0;
+            for (double accuracy : foldAccuracies) { mean += accuracy / foldAccuracies.length; }
+            for (double accuracy : foldAccuracies) { squares += (accuracy - mean) * (accuracy - mean); }
+            return Math.sqrt(squares / foldAccuracies.length);
+        }
+
+        /**
+         * @return - the accuracy of every fold
+         */
+        public double[] getFoldAccuracies() { return foldAccuracies.clone(); }
+
+        /**
+         * @return - the seconds spent normalizing and compiling the models of every fold, added up
+         */
+        public double getTrainSeconds() { return trainSeconds; }
+
+        /**
+         * @return - the seconds spent tagging the held-out folds, added up
+         */
+        public double getTagSeconds() { return tagSeconds; }
+
+        /**
+         * @return - the seconds from the start of the configuration's first fold to the end of its last one
+         */
+        public double getWallSeconds() { return wallSeconds; }
+
+        /**
+         * @return - one line with the configuration, its accuracy and its times
+         */
+        public String toString() {
+            return String.format(Locale.ROOT, "smoothing %-6s unseen %-7s accuracy %.3f%% (+/- %.3f) unknown %.3f%% "
+                            + "train %.2f s tag %.2f s wall %.2f s",
+                    smoothing, unseenConstant, 100 * accuracy(), 100 * accuracyStdDev(), 100 * unknownAccuracy(),
+                    trainSeconds, tagSeconds, wallSeconds);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+import java.util.List;
+
+/**
+ * A driver class that cross-validates the bigram model on the Brown training set over a grid of transition smoothings
+ * and unseen-word penalties, prints the accuracy and time of every configuration, and checks the best one against the
+ * default model on the test set.
+ * Usage: java CrossValidationDriver [folds]
+ */
+public class CrossValidationDriver {
+    public static void main(String[] args) throws Exception {
+        int folds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int workers = Runtime.getRuntime().availableProcessors();
+        double[] smoothings = {0, 0.001, 0.01, 0.1, 1};
+        double[] unseenConstants = {MarkovModel.DEFAULT_UNSEEN_CONSTANT, -30, -20, -15, -12, -10};
+
+        long start = System.nanoTime();
+        CrossValidation validation = new CrossValidation("./PS5/texts/brown-train-sentences.txt", "./PS5/texts/brown-train-tags.txt", folds, workers);
+        System.out.printf("Read and counted %d folds in %.2f s%n", folds, (System.nanoTime() - start) / 1e9);
+
+        start = System.nanoTime();
+        List<CrossValidation.Result> results = validation.sweep(smoothings, unseenConstants);
+        double sweepSeconds = (System.nanoTime() - start) / 1e9;
+
+        CrossValidation.Result best = results.get(0);
+        for (CrossValidation.Result result : results) {
+            System.out.println(result);
+            if (result.accuracy() > best.accuracy()) { best = result; }
+        }
+        System.out.printf("%d configurations x %d folds on %d workers in %.2f s%n", results.size(), folds, workers, sweepSeconds);
+        System.out.println("Best: " + best);
+
+        // Retrain on the whole training set and compare the best configuration with the default on the test set
+        TrainingCounts counts = TrainingCounts.countStreaming("./PS5/texts/brown-train-sentences.txt", "./PS5/texts/brown-train-tags.txt", "#");
+        for (CrossValidation.Result config : new CrossValidation.Result[] {results.get(0), best}) {
+            CompiledMarkovModel compiled = MarkovModel.fromCounts(counts, config.getSmoothing(), config.getUnseenConstant()).compile();
+            EvaluationResult test = new TaggingEvaluator(compiled, workers).evaluate("./PS5/texts/brown-test-sentences.txt", "./PS5/texts/brown-test-tags.txt");
+            System.out.printf("Test set, smoothing %s, unseen %s: %.3f%% (unknown words %.3f%%)%n", config.getSmoothing(),
+                    config.getUnseenConstant(), 100 * test.accuracy(), 100 * test.unknownAccuracy());
+        }
+    }
+}
@@ -0,0 +1,54 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event for one sentence decoded by the Viterbi algorithm.
+ * When no recording has it enabled, begin and shouldCommit cost next to nothing and the event is never filled in.
+ */
+@Name("postagger.Decode")
+@Label("Decode Sentence")
+@Category("POS Tagger")
+@Description("One sentence tagged by the Viterbi algorithm")
+@StackTrace(false)
+public class DecodeEvent extends Event {
+
+    @Label("Engine")
+    String engine;
+
+    @Label("Words")
+    int words;
+
+    @Label("Unknown Words")
+    @Description("Words never observed in training")
+    int unknownWords;
+
+    @Label("States Expanded")
+    @Description("Transitions scored over the whole sentence")
+    long statesExpanded;
+
+    /**
+     * Ends a decode: commits the event if a recording wants it, and records the sentence in the metrics
+     * @param event - The event, begun before decoding
+     * @param metrics - The metrics of the decoder
+     * @param startNanos - What the registry's startNanos returned before decoding
+     * @param engine - The name of the decoder
+     * @param words - The number of words of the sentence
+     * @param unknownWords - The number of them never observed in training
+     * @param expanded - The number of transitions scored
+     */
+    static void end(DecodeEvent event, MetricsRegistry.DecodeMetrics metrics, long startNanos, String engine, int words,
+                    int unknownWords, long expanded) {
+        if (event.shouldCommit()) {
+            event.engine = engine;
+            event.words = words;
+            event.unknownWords = unknownWords;
+            event.statesExpanded = expanded;
+            event.commit();
+        }
+        metrics.record(startNanos, words, unknownWords, expanded);
+    }
+}
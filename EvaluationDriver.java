@@ -0,0 +1,47 @@
+import java.io.FileWriter;
+import java.io.Writer;
+
+/**
+ * A driver class that evaluates the compiled Brown model, with and without the unknown-word model, on the test set in
+ * parallel, prints the summary and per-tag scores, and compares the time taken with MarkovModel.testAccuracy.
+ * Usage: java EvaluationDriver [jsonFile] [csvFile] [confusionCsvFile], to also save the unknown-word model's result
+ */
+public class EvaluationDriver {
+
+    private static final String TEST_WORDS = "./PS5/texts/brown-test-sentences.txt";
+    private static final String TEST_TAGS = "./PS5/texts/brown-test-tags.txt";
+
+    public static void main(String[] args) throws Exception {
+        MarkovModel markovTester = new MarkovModel("./PS5/texts/brown-train-sentences.txt", "./PS5/texts/brown-train-tags.txt");
+        int workers = Runtime.getRuntime().availableProcessors();
+
+        long start = System.nanoTime();
+        String original = markovTester.testAccuracy(TEST_WORDS, TEST_TAGS);
+        double originalSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.println("testAccuracy: " + original.replace('\n', ' ') + String.format(" in %.2f s", originalSeconds));
+
+        EvaluationResult result = null;
+        for (boolean unknownWords : new boolean[] {false, true}) {
+            CompiledMarkovModel compiled = markovTester.compile(unknownWords);
+            TaggingEvaluator evaluator = new TaggingEvaluator(compiled, workers);
+            evaluator.evaluate(TEST_WORDS, TEST_TAGS);  // warm up
+            result = evaluator.evaluate(TEST_WORDS, TEST_TAGS);
+
+            System.out.println();
+            System.out.println((unknownWords ? "Compiled with unknown-word model" : "Compiled") + ", " + workers + " workers:");
+            System.out.println(result);
+            System.out.printf("%d sentences, %d words, %d unknown, %d misaligned, in %.2f s (%.1fx testAccuracy)%n",
+                    result.getSentences(), result.getTokens(), result.getUnknownTokens(), result.getLengthMismatches(),
+                    result.getSeconds(), originalSeconds / result.getSeconds());
+        }
+
+        System.out.println();
+        System.out.print(result.toCsv());
+
+        String[] exports = {result.toJson(), result.toCsv(), result.confusionToCsv()};
+        for (int i = 0; i < args.length && i < exports.length; i++) {
+            try (Writer output = new FileWriter(args[i])) { output.write(exports[i]); }
+            System.out.println("Wrote " + args[i]);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+import java.util.Locale;
+
+/**
+ * The outcome of evaluating a tagger on a test set: overall, known-word and unknown-word accuracy, a confusion matrix
+ * over the tags, per-tag precision, recall and F1, and decoding speed. It can be exported as JSON or CSV.
+ *
+ * Words whose sentence got fewer tags than the answer key, or no tag at all, count as wrong; they appear in the
+ * confusion matrix under the predicted tag NONE.
+ */
+public class EvaluationResult {
+
+    // The name of the predicted tag of a word that got no tag
+    static final String NONE = "NONE";
+
+    // The tags of the answer key and of the predictions, sorted, with NONE last
+    private final String[] tags;
+    // confusion[gold][predicted] counts the words with each pair of answer and prediction
+    private final long[][] confusion;
+    private final long knownCorrect, knownTotal, unknownCorrect, unknownTotal;
+    private final long sentences, lengthMismatches;
+    private final double seconds;
+
+    EvaluationResult(String[] tags, long[][] confusion, long knownCorrect, long knownTotal, long unknownCorrect, long unknownTotal,
+                     long sentences, long lengthMismatches, double seconds) {
+        this.tags = tags;
+        this.confusion = confusion;
+        this.knownCorrect = knownCorrect;
+        this.knownTotal = knownTotal;
+        this.unknownCorrect = unknownCorrect;
+        this.unknownTotal = unknownTotal;
+        this.sentences = sentences;
+        this.lengthMismatches = lengthMismatches;
+        this.seconds = seconds;
+    }
+
+    /**
+     * @return - the fraction of all words tagged correctly
+     */
+    public double accuracy() { return ratio(knownCorrect + unknownCorrect, knownTotal + unknownTotal); }
+
+    /**
+     * @return - the fraction of words seen in training that were tagged correctly
+     */
+    public double knownAccuracy() { return ratio(knownCorrect, knownTotal); }
+
+    /**
+     * @return - the fraction of words never seen in training that were tagged correctly
+     */
+    public double unknownAccuracy() { return ratio(unknownCorrect, unknownTotal); }
+
+    /**
+     * @param tag - A part of speech
+     * @return - of the words predicted as the tag, the fraction that really are
+     */
+    public double precision(String tag) {
+        int t = indexOf(tag);
+        if (t < 0) { return 0; }
+        long predicted = 0;
+        for (long[] row : confusion) { predicted += row[t]; }
+        return ratio(confusion[t][t], predicted);
+    }
+
+    /**
+     * @param tag - A part of speech
+     * @return - of the words that really are the tag, the fraction predicted as it
+     */
+    public double recall(String tag) {
+        int t = indexOf(tag);
+        return t < 0 ? 0 : ratio(confusion[t][t], support(tag));
+    }
+
+    /**
+     * @param tag - A part of speech
+     * @return - the harmonic mean of the precision and recall of the tag
+     */
+    public double f1(String tag) {
+        double precision = precision(tag), recall = recall(tag);
+        return precision + recall == 0 ? 0 : 2 * precision * recall / (precision + recall);
+    }
+
+    /**
+     * @param tag - A part of speech
+     * @return - the number of words that really are the tag
+     */
+    public long support(String tag) {
+        int t = indexOf(tag);
+        if (t < 0) { return 0; }
+        long support = 0;
+        for (long count : confusion[t]) { support += count; }
+        return support;
+    }
+
+    /**
+     * @param gold - The correct tag
+     * @param predicted - The predicted tag, or NONE
+     * @return - the number of words with that correct tag that were given the predicted tag
+     */
+    public long count(String gold, String predicted) {
+        int g = indexOf(gold), p = indexOf(predicted);
+        return g < 0 || p < 0 ? 0 : confusion[g][p];
+    }
+
+    /**
+     * @return - every tag of the answer key and predictions, sorted, with NONE last
+     */
+    public String[] getTags() { return tags.clone(); }
+
+    /**
+     * @return - the number of words evaluated
+     */
+    public long getTokens() { return knownTotal + unknownTotal; }
+
+    /**
+     * @return - the number of words tagged correctly
+     */
+    public long getCorrect() { return knownCorrect + unknownCorrect; }
+
+    /**
+     * @return - the number of words never seen in training that were tagged correctly
+     */
+    public long getUnknownCorrect() { return unknownCorrect; }
+
+    /**
+     * @return - the number of words never seen in training
+     */
+    public long getUnknownTokens() { return unknownTotal; }
+
+    /**
+     * @return - the number of sentences evaluated
+     */
+    public long getSentences() { return sentences; }
+
+    /**
+     * @return - the number of sentences whose predicted tags did not line up with the answer key
+     */
+    public long getLengthMismatches() { return lengthMismatches; }
+
+    /**
+     * @return - the seconds spent decoding
+     */
+    public double getSeconds() { return seconds; }
+
+    /**
+     * @return - the sentences decoded per second
+     */
+    public double sentencesPerSecond() { return sentences / seconds; }
+
+    /**
+     * @return - the words decoded per second
+     */
+    public double tokensPerSecond() { return getTokens() / seconds; }
+
+    /**
+     * @return - the result as a JSON object with the summary, the per-tag scores and the confusion matrix
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append(String.format(Locale.ROOT, "  \"accuracy\": %.6f,%n", accuracy()));
+        json.append(String.format(Locale.ROOT, "  \"knownAccuracy\": %.6f,%n", knownAccuracy()));
+        json.append(String.format(Locale.ROOT, "  \"unknownAccuracy\": %.6f,%n", unknownAccuracy()));
+        json.append("  \"tokens\": ").append(getTokens()).append(",\n");
+        json.append("  \"unknownTokens\": ").append(unknownTotal).append(",\n");
+        json.append("  \"sentences\": ").append(sentences).append(",\n");
+        json.append("  \"lengthMismatches\": ").append(lengthMismatches).append(",\n");
+        json.append(String.format(Locale.ROOT, "  \"seconds\": %.6f,%n", seconds));
+        json.append(String.format(Locale.ROOT, "  \"sentencesPerSecond\": %.1f,%n", sentencesPerSecond()));
+        json.append(String.format(Locale.ROOT, "  \"tokensPerSecond\": %.1f,%n", tokensPerSecond()));
+
+        json.append("  \"tags\": {\n");
+        for (int t = 0; t < tags.length; t++) {
+            json.append(String.format(Locale.ROOT, "    %s: {\"precision\": %.6f, \"recall\": %.6f, \"f1\": %.6f, \"support\": %d}",
+                    quote(tags[t]), precision(tags[t]), recall(tags[t]), f1(tags[t]), support(tags[t])));
+            json.append(t < tags.length - 1 ? ",\n" : "\n");
+        }
+        json.append("  },\n");
+
+        json.append("  \"confusion\": {\n");
+        for (int g = 0; g < tags.length; g++) {
+            json.append("    ").append(quote(tags[g])).append(": {");
+            boolean first = true;
+            for (int p = 0; p < tags.length; p++) {
+                if (confusion[g][p] == 0) { continue; }
+                json.append(first ? "" : ", ").append(quote(tags[p])).append(": ").append(confusion[g][p]);
+                first = false;
+            }
+            json.append(g < tags.length - 1 ? "},\n" : "}\n");
+        }
+        json.append("  }\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * @return - the per-tag scores as CSV, one row per tag with a header row
+     */
+    public String toCsv() {
+        StringBuilder csv = new StringBuilder("tag,precision,recall,f1,support\n");
+        for (String tag : tags) {
+            csv.append(String.format(Locale.ROOT, "%s,%.6f,%.6f,%.6f,%d%n", csvField(tag), precision(tag), recall(tag), f1(tag), support(tag)));
+        }
+        return csv.toString();
+    }
+
+    /**
+     * @return - the confusion matrix as CSV, with a row per correct tag and a column per predicted tag
+     */
+    public String confusionToCsv() {
+        StringBuilder csv = new StringBuilder("gold\\predicted");
+        for (String tag : tags) { csv.append(',').append(csvField(tag)); }
+        csv.append('\n');
+        for (int g = 0; g < tags.length; g++) {
+            csv.append(csvField(tags[g]));
+            for (int p = 0; p < tags.length; p++) { csv.append(',').append(confusion[g][p]); }
+            csv.append('\n');
+        }
+        return csv.toString();
+    }
+
+    /**
+     * @return - a short summary in the style of MarkovModel.testAccuracy
+     */
+    public String toString() {
+        return String.format(Locale.ROOT, "Correct Tags: %d%nFalse Tags: %d%nThe model is approximately %.3f%% correct "
+                        + "(known words %.3f%%, unknown words %.3f%%), %.0f sentences/sec, %.0f tokens/sec",
+                knownCorrect + unknownCorrect, getTokens() - knownCorrect - unknownCorrect, 100 * accuracy(),
+                100 * knownAccuracy(), 100 * unknownAccuracy(), sentencesPerSecond(), tokensPerSecond());
+    }
+
+    private int indexOf(String tag) {
+        for (int t = 0; t < tags.length; t++) { if (tags[t].equals(tag)) { return t; } }
+        return -1;
+    }
+
+    private static double ratio(long part, long whole) {
+        return whole == 0 ? 0 : (double) part / whole;
+    }
+
+    /**
+     * @return - a JSON string literal
+     */
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') { quoted.append('\\').append(c); }
+            else if (c < 0x20) { quoted.append(String.format("\\u%04x", (int) c)); }
+            else { quoted.append(c); }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * @return - a CSV field, quoted if it holds a comma or a quote, like the tag ","
+     */
+    private static String csvField(String text) {
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0) { return text; }
+        return '"' + text.replace("\"", "\"\"") + '"';
+    }
+}
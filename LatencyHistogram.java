@@ -0,0 +1,89 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations in microseconds, for reporting percentiles such as p50 and p99.
+ * Durations are counted in logarithmic buckets, eight per power of two, so any percentile is accurate to about 9%
+ * while recording costs one array increment and the histogram never grows.
+ */
+public class LatencyHistogram {
+
+    // Buckets per power of two
+    private static final int SUB_BUCKETS = 8;
+    // Covers durations up to 2^40 microseconds, about 12 days
+    private static final int BUCKETS = 41 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Records one duration
+     * @param micros - The duration in microseconds
+     */
+    public void record(long micros) {
+        counts.incrementAndGet(bucketOf(Math.max(0, micros)));
+        total.increment();
+        sum.add(micros);
+    }
+
+    /**
+     * @param percentile - The percentile between 0 and 100
+     * @return - an upper bound of the duration below which that percentage of the recorded durations fall, 0 if none were recorded
+     */
+    public long percentile(double percentile) {
+        long count = total.sum();
+        if (count == 0) { return 0; }
+
+        long rank = (long) Math.ceil(percentile / 100.0 * count);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= Math.max(1, rank)) { return upperBound(bucket); }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    /**
+     * @return - the number of recorded durations
+     */
+    public long count() { return total.sum(); }
+
+    /**
+     * @return - the mean of the recorded durations in microseconds, 0 if none were recorded
+     */
+    public double mean() {
+        long count = total.sum();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * Forgets every recorded duration
+     */
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) { counts.set(bucket, 0); }
+        total.reset();
+        sum.reset();
+    }
+
+    /**
+     * @return - the bucket of a duration: durations below SUB_BUCKETS get a bucket each, and every power of two above
+     * that is split into SUB_BUCKETS equal parts
+     */
+    private static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) { return (int) micros; }
+        int power = 63 - Long.numberOfLeadingZeros(micros);  // micros is in [2^power, 2^(power+1))
+        int sub = (int) ((micros >>> (power - 3)) & (SUB_BUCKETS - 1));
+        return Math.min(BUCKETS - 1, (power - 2) * SUB_BUCKETS + sub);
+    }
+
+    /**
+     * @return - the largest duration that falls into a bucket
+     */
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) { return bucket; }
+        int power = bucket / SUB_BUCKETS + 2;
+        int sub = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (power - 3)) - 1;
+    }
+}
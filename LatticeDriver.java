@@ -0,0 +1,167 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A driver class for forward-backward and N-best decoding.
+ * On the simple model it checks both against every possible tagging of each test sentence. On the Brown model it checks
+ * that the best of the N-best taggings is the Viterbi one, also on a line of thousands of words, shows how well the confidence of a word predicts whether its
+ * tag is right, and compares the time of each kind of decoding with single-best decoding.
+ */
+public class LatticeDriver {
+
+    public static void main(String[] args) throws Exception {
+        // Exhaustive check on the simple model, whose sentences are short enough to enumerate every tagging
+        CompiledMarkovModel simple = new MarkovModel("./PS5/texts/simple-train-sentences.txt", "./PS5/texts/simple-train-tags.txt").compile();
+        double maxError = 0;
+        int checked = 0, nBestMismatches = 0, n = 10;
+        ArrayList<String> simpleLines = MarkovBenchmark.readLines("./PS5/texts/simple-train-sentences.txt");
+        simpleLines.addAll(MarkovBenchmark.readLines("./PS5/texts/simple-test-sentences.txt"));
+        for (String line : simpleLines) {
+            int[] words = wordIds(simple, line);
+            int numTags = simple.numTags(), length = words.length;
+            if (Math.pow(numTags, length) > 50_000_000) { continue; }
+            int taggings = (int) Math.pow(numTags, length);
+
+            // Score every tagging, keeping the n best scores, then add up the probability of every tag at every word
+            double logTotal = Double.NEGATIVE_INFINITY;
+            double[] bestScores = new double[n];
+            Arrays.fill(bestScores, Double.NEGATIVE_INFINITY);
+            for (int path = 0; path < taggings; path++) {
+                double score = pathScore(simple, words, tagsOf(path, numTags, length));
+                logTotal = logAdd(logTotal, score);
+                if (score > bestScores[n - 1]) {
+                    int position = n - 1;
+                    while (position > 0 && bestScores[position - 1] < score) { bestScores[position] = bestScores[position - 1]; position--; }
+                    bestScores[position] = score;
+                }
+            }
+            double[] expected = new double[length * numTags];
+            for (int path = 0; path < taggings; path++) {
+                int[] tags = tagsOf(path, numTags, length);
+                double probability = Math.exp(pathScore(simple, words, tags) - logTotal);
+                for (int i = 0; i < length; i++) { expected[i * numTags + tags[i]] += probability; }
+            }
+
+            double[] posteriors = new double[length * numTags];
+            double logLikelihood = simple.forwardBackward(words, length, posteriors);
+            maxError = Math.max(maxError, Math.abs(logLikelihood - logTotal));
+            for (int k = 0; k < posteriors.length; k++) { maxError = Math.max(maxError, Math.abs(posteriors[k] - expected[k])); }
+
+            // The N-best scores must be the best scores of all taggings, and each must be the score of its own tagging
+            int[] nBestTags = new int[n * length];
+            double[] nBestScores = new double[n];
+            int found = simple.decodeNBest(words, length, n, nBestTags, nBestScores);
+            for (int k = 0; k < found; k++) {
+                int[] tags = Arrays.copyOfRange(nBestTags, k * length, (k + 1) * length);
+                if (nBestScores[k] != bestScores[k] || pathScore(simple, words, tags) != nBestScores[k]) { nBestMismatches += 1; }
+            }
+            checked += 1;
+        }
+        System.out.println("Simple model, " + checked + " sentences against every tagging: largest posterior or log-likelihood error "
+                + maxError + ", N-best mismatches " + nBestMismatches);
+
+        // Brown: the first N-best tagging is the Viterbi one, and low confidence flags likely errors
+        MarkovModel markovTester = new MarkovModel("./PS5/texts/brown-train-sentences.txt", "./PS5/texts/brown-train-tags.txt");
+        CompiledMarkovModel compiled = markovTester.compile();
+        ArrayList<String> lines = MarkovBenchmark.readLines("./PS5/texts/brown-test-sentences.txt");
+        ArrayList<String> tagLines = MarkovBenchmark.readLines("./PS5/texts/brown-test-tags.txt");
+        int viterbiMismatches = 0;
+        long flagged = 0, flaggedWrong = 0, trusted = 0, trustedWrong = 0, posteriorCorrect = 0, tokens = 0;
+        for (int s = 0; s < lines.size(); s++) {
+            String[] viterbi = markovTester.viterbiAlgo(lines.get(s));
+            List<TaggedPath> best = markovTester.nBest(lines.get(s), 5);
+            if (!Arrays.equals(viterbi, best.get(0).getTags())) { viterbiMismatches += 1; }
+
+            TagPosteriors posteriors = markovTester.posteriors(lines.get(s));
+            String[] gold = tagLines.get(s).split(" ");
+            for (int i = 0; i < gold.length; i++) {
+                boolean wrong = !gold[i].equals(viterbi[i]);
+                if (posteriors.confidence(i) < 0.9) { flagged += 1; if (wrong) { flaggedWrong += 1; } }
+                else { trusted += 1; if (wrong) { trustedWrong += 1; } }
+                if (gold[i].equals(posteriors.mostProbableTag(i))) { posteriorCorrect += 1; }
+                tokens += 1;
+            }
+        }
+        System.out.println("Brown: first N-best tagging different from viterbiAlgo: " + viterbiMismatches);
+        System.out.printf("Words with confidence below 0.9: %d (%.1f%%), %.1f%% of them wrong; the rest %.2f%% wrong%n", flagged,
+                100.0 * flagged / tokens, 100.0 * flaggedWrong / flagged, 100.0 * trustedWrong / trusted);
+        System.out.printf("They hold %.1f%% of all errors. Tagging each word with its most probable tag: %.3f%% correct%n",
+                100.0 * flaggedWrong / (flaggedWrong + trustedWrong), 100.0 * posteriorCorrect / tokens);
+
+        // A line far longer than any sentence, which once overflowed the stack when finding the N-best paths
+        StringBuilder longLine = new StringBuilder();
+        for (int s = 0; longLine.length() == 0 || longLine.toString().split(" ").length < 5000; s++) {
+            if (s > 0) { longLine.append(' '); }
+            longLine.append(lines.get(s));
+        }
+        List<TaggedPath> longBest = markovTester.nBest(longLine.toString(), 3);
+        boolean ordered = true;
+        for (int k = 1; k < longBest.size(); k++) { ordered &= longBest.get(k).getScore() <= longBest.get(k - 1).getScore(); }
+        System.out.printf("One line of %d words: %d taggings, best one the Viterbi one: %b, scores in order: %b%n",
+                longLine.toString().split(" ").length, longBest.size(),
+                Arrays.equals(longBest.get(0).getTags(), compiled.viterbiAlgo(longLine.toString())), ordered);
+
+        // Time of each kind of decoding over the test set, on word ids, after a warm-up round
+        List<int[]> sentences = new ArrayList<>();
+        for (String line : lines) { sentences.add(wordIds(compiled, line)); }
+        int[] tags = new int[5 * 256];
+        double[] scores = new double[5], posteriors = new double[256 * compiled.numTags()];
+        double viterbiSeconds = 0;
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int pass = 0; pass < 5; pass++) { for (int[] words : sentences) { compiled.decode(words, words.length, tags); } }
+            viterbiSeconds = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+            for (int pass = 0; pass < 5; pass++) { for (int[] words : sentences) { compiled.forwardBackward(words, words.length, posteriors); } }
+            double forwardBackwardSeconds = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+            for (int pass = 0; pass < 5; pass++) { for (int[] words : sentences) { compiled.decodeNBest(words, words.length, 5, tags, scores); } }
+            double nBestSeconds = (System.nanoTime() - start) / 1e9;
+            if (round == 1) {
+                double rate = 5.0 * sentences.size();
+                System.out.printf("Viterbi:          %8.0f sentences/sec%n", rate / viterbiSeconds);
+                System.out.printf("Forward-backward: %8.0f sentences/sec (%.2fx the time)%n", rate / forwardBackwardSeconds, forwardBackwardSeconds / viterbiSeconds);
+                System.out.printf("5-best Viterbi:   %8.0f sentences/sec (%.2fx the time)%n", rate / nBestSeconds, nBestSeconds / viterbiSeconds);
+            }
+        }
+    }
+
+    /**
+     * @return - the word ids of a line, -1 for words that were never observed
+     */
+    private static int[] wordIds(CompiledMarkovModel model, String line) {
+        String[] words = line.split(" ");
+        int[] ids = new int[words.length];
+        for (int i = 0; i < words.length; i++) { ids[i] = model.wordId(words[i].toLowerCase()); }
+        return ids;
+    }
+
+    /**
+     * @return - the tags of tagging number path, counting taggings in base numTags
+     */
+    private static int[] tagsOf(int path, int numTags, int length) {
+        int[] tags = new int[length];
+        for (int i = length - 1; i >= 0; i--) { tags[i] = path % numTags; path /= numTags; }
+        return tags;
+    }
+
+    /**
+     * @return - the log probability of a tagging, added up in the same order as the decoders
+     */
+    private static double pathScore(CompiledMarkovModel model, int[] words, int[] tags) {
+        double score = 0;
+        int prev = CompiledMarkovModel.START_ID;
+        for (int i = 0; i < words.length; i++) {
+            score = score + model.transitionScore(prev, tags[i]) + model.observationScore(words[i], tags[i]);
+            prev = tags[i];
+        }
+        return score;
+    }
+
+    private static double logAdd(double a, double b) {
+        if (a == Double.NEGATIVE_INFINITY) { return b; }
+        if (b == Double.NEGATIVE_INFINITY) { return a; }
+        return Math.max(a, b) + Math.log1p(Math.exp(-Math.abs(a - b)));
+    }
+}
@@ -0,0 +1,116 @@
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash table from non-negative long keys to long counts.
+ * It stores keys and counts in two primitive arrays, so counting never boxes a value or allocates an entry.
+ */
+public class LongCountTable {
+
+    // Marks a slot that has never held a key
+    private static final long EMPTY = -1L;
+
+    private long[] keys;
+    private long[] counts;
+    private int size;
+    private int mask;
+
+    /**
+     * Creates an empty table
+     * @param expectedKeys - The number of keys the table should hold before it first has to grow
+     */
+    public LongCountTable(int expectedKeys) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedKeys * 2 - 1)) << 1;
+        keys = new long[capacity];
+        counts = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+    }
+
+    /**
+     * Adds an amount to the count of a key, inserting the key if it is not in the table yet
+     * @param key - A non-negative key
+     * @param amount - The amount to add, which may be negative
+     */
+    public void add(long key, long amount) {
+        int slot = findSlot(key);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            size += 1;
+            if (size * 3 > keys.length * 2) {  // Grow once two thirds of the slots are used
+                counts[slot] = amount;
+                grow();
+                return;
+            }
+        }
+        counts[slot] += amount;
+    }
+
+    /**
+     * @param key - A non-negative key
+     * @return - the count of the key, 0 if it is not in the table
+     */
+    public long get(long key) {
+        int slot = findSlot(key);
+        return keys[slot] == EMPTY ? 0 : counts[slot];
+    }
+
+    /**
+     * @return - the number of keys in the table
+     */
+    public int size() { return size; }
+
+    /**
+     * @return - the number of slots, for iterating with keyAt and countAt
+     */
+    public int capacity() { return keys.length; }
+
+    /**
+     * @param slot - A slot between 0 and capacity
+     * @return - the key in the slot, or -1 if the slot is empty
+     */
+    public long keyAt(int slot) { return keys[slot]; }
+
+    /**
+     * @param slot - A slot between 0 and capacity
+     * @return - the count in the slot
+     */
+    public long countAt(int slot) { return counts[slot]; }
+
+    /**
+     * Finds the slot holding a key, or the empty slot where it would be inserted
+     */
+    private int findSlot(long key) {
+        int slot = mix(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) { slot = (slot + 1) & mask; }
+        return slot;
+    }
+
+    /**
+     * Doubles the number of slots and reinserts every key
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldCounts = counts;
+        keys = new long[oldKeys.length * 2];
+        counts = new long[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        mask = keys.length - 1;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) { continue; }
+            int slot = findSlot(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            counts[slot] = oldCounts[i];
+        }
+    }
+
+    /**
+     * Spreads the bits of a key so that neighbouring keys land in different slots
+     */
+    private static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
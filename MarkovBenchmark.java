@@ -0,0 +1,251 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+
+/**
+ * A benchmark harness for training, decoding and generation, in the spirit of JMH.
+ * Each benchmark is warmed up, then measured over several timed iterations, and reported as operations per second,
+ * microseconds per operation and bytes allocated per operation (like JMH's -prof gc), plus the GC activity it caused.
+ * Every result is fed into a sink so that the JIT cannot drop the work being measured.
+ * The allocation is that of the calling thread only: a benchmark that hands work to other threads, such as
+ * training.sharded with its pool, allocates more than it reports, though its GC counts cover every thread.
+ *
+ * Usage: java MarkovBenchmark [-wi warmupIterations] [-i iterations] [-t secondsPerIteration] [nameFilter ...]
+ * Only benchmarks whose names contain one of the filters are run, and only the models and inputs they use are built;
+ * with no filter every benchmark runs.
+ */
+public class MarkovBenchmark {
+
+    private static final String TRAIN_WORDS = "./PS5/texts/brown-train-sentences.txt";
+    private static final String TRAIN_TAGS = "./PS5/texts/brown-train-tags.txt";
+    private static final String TEST_WORDS = "./PS5/texts/brown-test-sentences.txt";
+    private static final String TEST_TAGS = "./PS5/texts/brown-test-tags.txt";
+
+    // Sentence length buckets for the decoding benchmarks, as inclusive {min, max} word counts
+    private static final int[][] LENGTH_BUCKETS = {{1, 10}, {11, 20}, {21, 40}, {41, Integer.MAX_VALUE}};
+
+    // Receives every result so the work cannot be optimized away
+    private static volatile int sink;
+
+    private int warmupIterations = 3;
+    private int iterations = 5;
+    private double secondsPerIteration = 1.0;
+    private final ArrayList<String> filters = new ArrayList<>();
+    // Every benchmark by name, as the setup that builds its operation
+    private final LinkedHashMap<String,Callable<Callable<Object>>> benchmarks = new LinkedHashMap<>();
+
+    // The models and inputs shared between benchmarks, built when the first benchmark that uses them is set up
+    private MarkovModel model;
+    private CompiledMarkovModel compiled;
+    private ArrayList<String> testLines;
+
+    public static void main(String[] args) throws Exception {
+        MarkovBenchmark harness = new MarkovBenchmark();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-wi")) { harness.warmupIterations = Integer.parseInt(args[++i]); }
+            else if (args[i].equals("-i")) { harness.iterations = Integer.parseInt(args[++i]); }
+            else if (args[i].equals("-t")) { harness.secondsPerIteration = Double.parseDouble(args[++i]); }
+            else { harness.filters.add(args[i]); }
+        }
+
+        harness.registerBenchmarks();
+        harness.runAll();
+    }
+
+    /**
+     * Registers every benchmark by name, with the setup that builds what it needs when it is about to run
+     */
+    private void registerBenchmarks() {
+        // Training
+        benchmarks.put("training.single", () -> () -> new MarkovModel(TRAIN_WORDS, TRAIN_TAGS));
+        benchmarks.put("training.sharded", () -> () -> new MarkovModel(TRAIN_WORDS, TRAIN_TAGS, Runtime.getRuntime().availableProcessors()));
+        benchmarks.put("training.streaming", () -> () -> MarkovModel.trainStreaming(TRAIN_WORDS, TRAIN_TAGS));
+
+        // Decoding throughput by sentence length, for the HashMap engine and the compiled engine on the same inputs
+        for (int[] bucket : LENGTH_BUCKETS) {
+            String range = bucket[1] == Integer.MAX_VALUE ? bucket[0] + "+" : bucket[0] + "-" + bucket[1];
+            benchmarks.put("viterbi.hashmap.len" + range, () -> sentenceLoop(bucketLines(bucket), model()));
+            benchmarks.put("viterbi.compiled.len" + range, () -> sentenceLoop(bucketLines(bucket), compiled()));
+        }
+
+        // Beam-pruned decoding of the whole test set, against exact compiled decoding
+        benchmarks.put("viterbi.compiled.all", () -> sentenceLoop(testLines(), compiled()));
+        benchmarks.put("viterbi.beam.width5", () -> sentenceLoop(testLines(), compiled().beamTagger(5, Double.POSITIVE_INFINITY)));
+        benchmarks.put("viterbi.beam.threshold10", () -> sentenceLoop(testLines(), compiled().beamTagger(compiled().numTags(), 10)));
+        benchmarks.put("viterbi.restricted.all", () -> sentenceLoop(testLines(), compiled().restrictedTagger()));
+        benchmarks.put("viterbi.unknownWords.all", () -> sentenceLoop(testLines(), model().compile(true)));
+        benchmarks.put("viterbi.trigram.all", () -> sentenceLoop(testLines(), new TrigramMarkovModel(TRAIN_WORDS, TRAIN_TAGS, false)));
+
+        // End-to-end accuracy test over the whole Brown test set
+        benchmarks.put("testAccuracy", () -> {
+            MarkovModel trained = model();
+            return () -> trained.testAccuracy(TEST_WORDS, TEST_TAGS);
+        });
+
+        // Generation
+        benchmarks.put("generate.random", () -> model()::generateRandomSentence);
+        benchmarks.put("generate.predictive", () -> model()::generatePredictiveSentence);
+        benchmarks.put("generate.alias", () -> {
+            SentenceGenerator generator = new SentenceGenerator(model());
+            SplittableRandom random = new SplittableRandom(42);
+            return () -> generator.generateSentence(random);
+        });
+    }
+
+    /**
+     * @return - the model trained on the Brown training files, trained on first use
+     */
+    private MarkovModel model() throws Exception {
+        if (model == null) { model = new MarkovModel(TRAIN_WORDS, TRAIN_TAGS); }
+        return model;
+    }
+
+    /**
+     * @return - the compiled form of the Brown model, compiled on first use
+     */
+    private CompiledMarkovModel compiled() throws Exception {
+        if (compiled == null) { compiled = model().compile(); }
+        return compiled;
+    }
+
+    /**
+     * @return - the sentences of the Brown test set, read on first use
+     */
+    private ArrayList<String> testLines() throws Exception {
+        if (testLines == null) { testLines = readLines(TEST_WORDS); }
+        return testLines;
+    }
+
+    /**
+     * @param bucket - Inclusive {min, max} word counts
+     * @return - the test sentences whose lengths fall in the bucket
+     */
+    private ArrayList<String> bucketLines(int[] bucket) throws Exception {
+        ArrayList<String> bucketLines = new ArrayList<>();
+        for (String line : testLines()) {
+            int length = line.split(" ").length;
+            if (length >= bucket[0] && length <= bucket[1]) { bucketLines.add(line); }
+        }
+        return bucketLines;
+    }
+
+    /**
+     * @param lines - The sentences to tag
+     * @param tagger - The tagger to tag them with
+     * @return - a benchmark that tags every sentence once per operation
+     */
+    static Callable<Object> sentenceLoop(ArrayList<String> lines, Tagger tagger) {
+        return () -> {
+            int tags = 0;
+            for (String line : lines) { tags += tagger.tag(line).length; }
+            return tags;
+        };
+    }
+
+    /**
+     * Sets up and runs every registered benchmark that matches the filters, printing one line of results for each
+     * @throws Exception if a benchmark fails
+     */
+    private void runAll() throws Exception {
+        System.out.printf("%-32s %12s %14s %16s %8s %10s%n", "Benchmark", "ops/s", "us/op", "caller B/op", "GCs", "GC ms");
+        for (Map.Entry<String,Callable<Callable<Object>>> benchmark : benchmarks.entrySet()) {
+            if (!matches(benchmark.getKey())) { continue; }
+            run(benchmark.getKey(), benchmark.getValue().call());
+        }
+        System.out.println("caller B/op: bytes allocated by the benchmark thread only, not by pools such as training.sharded's");
+    }
+
+    /**
+     * @return - whether a benchmark name contains one of the filters, or there are no filters
+     */
+    private boolean matches(String name) {
+        if (filters.isEmpty()) { return true; }
+        for (String filter : filters) { if (name.contains(filter)) { return true; } }
+        return false;
+    }
+
+    /**
+     * Warms up and measures one benchmark
+     * @param name - The name to report
+     * @param op - The operation to time
+     * @throws Exception if the operation fails
+     */
+    private void run(String name, Callable<Object> op) throws Exception {
+        for (int i = 0; i < warmupIterations; i++) { iterate(op); }
+
+        long ops = 0, nanos = 0;
+        long allocatedBefore = allocatedBytes();
+        long gcCountBefore = gcCount(), gcMillisBefore = gcMillis();
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            ops += iterate(op);
+            nanos += System.nanoTime() - start;
+        }
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        System.out.printf("%-32s %12.2f %14.2f %16d %8d %10d%n", name, ops / (nanos / 1e9), nanos / 1e3 / ops,
+                allocated / ops, gcCount() - gcCountBefore, gcMillis() - gcMillisBefore);
+    }
+
+    /**
+     * Runs an operation repeatedly for one iteration, always at least once
+     * @return - the number of operations run
+     */
+    private long iterate(Callable<Object> op) throws Exception {
+        long deadline = System.nanoTime() + (long) (secondsPerIteration * 1e9);
+        long ops = 0;
+        do {
+            Object result = op.call();
+            sink += result == null ? 0 : result.hashCode();
+            ops += 1;
+        } while (System.nanoTime() < deadline);
+        return ops;
+    }
+
+    /**
+     * @return - the bytes allocated so far by this thread, not counting threads it hands work to, or 0 if the JVM cannot tell
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * @return - the number of garbage collections so far
+     */
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) { count += Math.max(0, gc.getCollectionCount()); }
+        return count;
+    }
+
+    /**
+     * @return - the milliseconds spent in garbage collection so far
+     */
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) { millis += Math.max(0, gc.getCollectionTime()); }
+        return millis;
+    }
+
+    /**
+     * @return - every line of a file
+     */
+    static ArrayList<String> readLines(String fileName) throws Exception {
+        ArrayList<String> lines = new ArrayList<>();
+        try (BufferedReader input = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            while ((line = input.readLine()) != null) { lines.add(line); }
+        }
+        return lines;
+    }
+}
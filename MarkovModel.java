@@ -3,7 +3,11 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 /**
@@ -12,18 +16,39 @@ import java.util.Scanner;
  * @author Veronica Quidore, Dartmouth CS 10, Spring 2021
  * @author Nicholas Sugiarto, Dartmouth CS 10, Spring 2021
  */
-public class MarkovModel {
+public class MarkovModel implements Tagger {
 
     // Markov Model "Graph"
-    private HashMap<String,HashMap<String,Double>> observationMap;
-    private HashMap<String,HashMap<String,Double>> transitionsMap;
+    // Both normalized maps are replaced together whenever the model is updated, so readers always see a consistent pair
+    private volatile ScoreMaps scores;
+
+    // The raw frequencies and totals behind the normalized maps, kept so that update can fold in new sentences.
+    // They are null for models that were not trained from data, and are only touched while holding updateLock
+    private HashMap<String,HashMap<String,Double>> observationCounts;
+    private HashMap<String,HashMap<String,Double>> transitionsCounts;
+    // How many of the tokens counted for each word under each part of speech were written with a capital first letter,
+    // which the unknown-word model learns capitalization from since the words themselves are counted lowercased
+    private HashMap<String,HashMap<String,Double>> capitalCounts;
+    private HashMap<String,Double> observationTotals;
+    private HashMap<String,Double> transitionsTotals;
+    private final Object updateLock = new Object();
+
+    // The metrics of viterbiAlgo, recorded only while the global registry is enabled
+    private static final MetricsRegistry.DecodeMetrics DECODE_METRICS = MetricsRegistry.global().decodeMetrics("markov");
 
     // Penalty for having a word not contained in any of the training data
     private double unseenConstant;
+    // The penalty used unless a model is built with another one
+    public static final double DEFAULT_UNSEEN_CONSTANT = -100.0;
+    // The pseudo-word that memory-bounded training counts rare words as, whose scores the compiled model gives unknown words
+    public static final String UNKNOWN_WORD = "<unk>";
 
     // The starting part of speech
     private String startPOS;
 
+    // The compiled form of the current maps, for forward-backward and N-best decoding, compiled again after updates
+    private volatile CompiledVersion lattices;
+
     /**
      * Default constructor for the Markov model
      * Makes a hard-coded graph provided by the PS-5 web page
@@ -31,9 +56,9 @@ public class MarkovModel {
      */
     public MarkovModel(){
         startPOS = "#";
-        unseenConstant = -100.0;
-        transitionsMap = new HashMap<String,HashMap<String,Double>>();
-        observationMap= new HashMap<String,HashMap<String,Double>>();
+        unseenConstant = DEFAULT_UNSEEN_CONSTANT;
+        HashMap<String,HashMap<String,Double>> transitionsMap = new HashMap<String,HashMap<String,Double>>();
+        HashMap<String,HashMap<String,Double>> observationMap= new HashMap<String,HashMap<String,Double>>();
 
         // Transition map for the start part of speech
         HashMap<String, Double> startTransMap = new HashMap<>();
@@ -141,6 +166,8 @@ public class MarkovModel {
         npObsMap.put("jobs", -0.7);
         npObsMap.put("will", -0.7);
         observationMap.put("NP", npObsMap);
+
+        scores = new ScoreMaps(observationMap, transitionsMap, 0);
     }
 
     /**
@@ -157,7 +184,7 @@ public class MarkovModel {
         ArrayList<String[]> sentenceTags;
         ArrayList<String[]> sentences;
 
-        unseenConstant = -100.0;
+        unseenConstant = DEFAULT_UNSEEN_CONSTANT;
         startPOS = "#";
 
         sentences = readFile(fileWords);  // Reads in the words
@@ -166,21 +193,210 @@ public class MarkovModel {
         this.training(sentences, sentenceTags);
     }
 
+    /**
+     * The constructor that reads in data files and trains the model on several threads.
+     * The sentences are split into shards that are counted in parallel, and the merged counts are normalized once,
+     * which gives the same model as the single-threaded constructor.
+     * @param fileWords - The file containing all the sentences
+     * @param fileTags - The file containing all the corresponding tags for the sentences
+     * @param shards - The number of shards to count in parallel
+     * @throws Exception - if the files cannot be opened
+     */
+    public MarkovModel(String fileWords, String fileTags, int shards) throws Exception {
+        unseenConstant = DEFAULT_UNSEEN_CONSTANT;
+        startPOS = "#";
+
+        TrainingCounts counts = TrainingCounts.countSharded(readFile(fileWords), readFile(fileTags), startPOS, shards);
+        setCounts(counts.toObservationCounts(), counts.toCapitalCounts(), counts.toTransitionsCounts());
+    }
+
+    /**
+     * Trains a model by streaming through the data files instead of reading them into memory first,
+     * so that training on corpora larger than the heap only needs memory for the model itself
+     * @param fileWords - The file containing all the sentences
+     * @param fileTags - The file containing all the corresponding tags for the sentences
+     * @return - the trained model, the same as the one built by the file constructor
+     * @throws Exception if the files cannot be opened or their lines or words and tags do not line up
+     */
+    public static MarkovModel trainStreaming(String fileWords, String fileTags) throws Exception {
+        TrainingCounts counts = TrainingCounts.countStreaming(fileWords, fileTags, "#");
+        MarkovModel model = new MarkovModel(counts.getStartPOS(), DEFAULT_UNSEEN_CONSTANT, null, null);
+        model.setCounts(counts.toObservationCounts(), counts.toCapitalCounts(), counts.toTransitionsCounts());
+        return model;
+    }
+
+    /**
+     * Trains a model by streaming through the data files and keeping the observation counts within a memory budget.
+     * Rare words, and words that do not fit the budget, are counted as UNKNOWN_WORD instead of by themselves,
+     * so the compiled form of the model tags unknown words by how often each part of speech had a rare word in training.
+     * @param fileWords - The file containing all the sentences
+     * @param fileTags - The file containing all the corresponding tags for the sentences
+     * @param budgetBytes - The estimated bytes the observation counts may take while counting
+     * @param minCount - The number of times a word must be seen to keep its own observations
+     * @return - the trained model
+     * @throws Exception if the files cannot be opened or their lines or words and tags do not line up
+     */
+    public static MarkovModel trainBounded(String fileWords, String fileTags, long budgetBytes, int minCount) throws Exception {
+        return fromCounts(BoundedTrainingCounts.countStreaming(fileWords, fileTags, "#", budgetBytes, minCount));
+    }
+
+    /**
+     * Builds a model from counts taken within a memory budget. Bounded counts do not keep which tokens were
+     * capitalized, so an unknown-word model compiled from them never gives a word the capital shape.
+     * @param counts - The transition and observation counts of the training sentences
+     * @return - the trained model
+     */
+    public static MarkovModel fromCounts(BoundedTrainingCounts counts) {
+        MarkovModel model = new MarkovModel(counts.getStartPOS(), DEFAULT_UNSEEN_CONSTANT, null, null);
+        model.setCounts(counts.toObservationCounts(), new HashMap<>(), counts.toTransitionsCounts());
+        return model;
+    }
+
+    /**
+     * Builds a model from counts that were already taken, with its own smoothing and penalty, so that many models
+     * can be tried on the same counts without reading or counting the data again
+     * @param counts - The transition and observation counts of the training sentences
+     * @param smoothing - Added to the count of every transition between two parts of speech, seen or not, so that
+     *                  transitions never seen in training are possible; 0 keeps the unsmoothed model
+     * @param unseenConstant - Penalty for a word not seen with a part of speech
+     * @return - the trained model
+     */
+    public static MarkovModel fromCounts(TrainingCounts counts, double smoothing, double unseenConstant) {
+        if (smoothing < 0) { throw new IllegalArgumentException("Smoothing cannot be negative"); }
+        HashMap<String,HashMap<String,Double>> observationCounts = counts.toObservationCounts();
+        HashMap<String,HashMap<String,Double>> transitionsCounts = counts.toTransitionsCounts();
+
+        // Add-k smoothing: every part of speech, and the start POS, can move to every part of speech that emits words
+        if (smoothing > 0) {
+            HashSet<String> fromTags = new HashSet<>(observationCounts.keySet());
+            fromTags.add(counts.getStartPOS());
+            for (String fromTag : fromTags) {
+                HashMap<String,Double> row = transitionsCounts.get(fromTag);
+                if (row == null) {
+                    row = new HashMap<>();
+                    transitionsCounts.put(fromTag, row);
+                }
+                for (String toTag : observationCounts.keySet()) { row.put(toTag, row.getOrDefault(toTag, 0.0) + smoothing); }
+            }
+        }
+
+        MarkovModel model = new MarkovModel(counts.getStartPOS(), unseenConstant, null, null);
+        model.setCounts(observationCounts, counts.toCapitalCounts(), transitionsCounts);
+        return model;
+    }
+
+    /**
+     * The constructor for a model whose maps are already trained and normalized, e.g. one loaded from a snapshot
+     * @param startPOS - The starting part of speech
+     * @param unseenConstant - Penalty for a word not seen with a part of speech
+     * @param observationMap - Map of each part of speech to its words and their log frequencies
+     * @param transitionsMap - Map of each part of speech to its next parts of speech and their log frequencies
+     */
+    MarkovModel(String startPOS, double unseenConstant, HashMap<String,HashMap<String,Double>> observationMap,
+                HashMap<String,HashMap<String,Double>> transitionsMap) {
+        this.startPOS = startPOS;
+        this.unseenConstant = unseenConstant;
+        this.scores = new ScoreMaps(observationMap, transitionsMap, 0);
+    }
+
+    /**
+     * Loads the model saved in a snapshot file if there is one saved from the data files as they are now, and otherwise
+     * trains it from the data files and saves a snapshot so that the next run can skip training.
+     * A snapshot saved from other files, or before the files last changed in size or modification time, is replaced,
+     * and so is one that cannot be read, e.g. because it was cut short.
+     * @param snapshotFile - The snapshot file to load, or to create
+     * @param fileWords - The file containing all the sentences
+     * @param fileTags - The file containing all the corresponding tags for the sentences
+     * @return - the loaded or trained model
+     * @throws Exception if neither the snapshot nor the data files can be read
+     */
+    public static MarkovModel loadOrTrain(String snapshotFile, String fileWords, String fileTags) throws Exception {
+        return loadOrTrain(snapshotFile, fileWords, fileTags, null);
+    }
+
+    /**
+     * Loads or trains a model like loadOrTrain, taking its words and tags from a shared dictionary
+     * @param snapshotFile - The snapshot file to load, or to create
+     * @param fileWords - The file containing all the sentences
+     * @param fileTags - The file containing all the corresponding tags for the sentences
+     * @param dictionary - The dictionary to intern every word and tag into, or null to keep the model's own copies
+     * @return - the loaded or trained model
+     * @throws Exception if neither the snapshot nor the data files can be read
+     */
+    public static MarkovModel loadOrTrain(String snapshotFile, String fileWords, String fileTags, SharedDictionary dictionary) throws Exception {
+        try {
+            if (ModelSnapshot.isCurrent(snapshotFile, fileWords, fileTags)) { return ModelSnapshot.load(snapshotFile, dictionary); }
+        }
+        catch (IOException e) {
+            // A snapshot that cannot be read is trained again and replaced, like a stale one
+        }
+
+        MarkovModel model = new MarkovModel(fileWords, fileTags);
+        model.save(snapshotFile, fileWords, fileTags);
+        if (dictionary != null) { model.internStrings(dictionary); }
+        return model;
+    }
+
+    /**
+     * Saves the trained model to a binary snapshot file
+     * @param fileName - Name of the snapshot file to write
+     * @param sources - The training files the model was trained from, recorded so that loadOrTrain can tell when they change
+     * @throws IOException if the file cannot be written
+     */
+    public void save(String fileName, String... sources) throws IOException {
+        // Hold off updates so that the saved counts match the saved maps
+        synchronized (updateLock) { ModelSnapshot.save(this, fileName, sources); }
+    }
+
+    /**
+     * Loads a model from a binary snapshot file written by save
+     * @param fileName - Name of the snapshot file
+     * @return - the model stored in the file
+     * @throws IOException if the file cannot be read
+     */
+    public static MarkovModel load(String fileName) throws IOException {
+        return ModelSnapshot.load(fileName);
+    }
+
+    /**
+     * Puts a word in the form it is counted and looked up in. Every way of counting words, from training, streaming and
+     * bounded training to updates, counts them through this, so that words are not separated by capitalization and a
+     * model counted one way has the same words as one counted another way.
+     * @param word - A word as written
+     * @return - the word lowercased
+     */
+    static String normalizeWord(String word) { return word.toLowerCase(); }
+
+    /**
+     * Counts a token in a map of capitalized tokens if it was written with a capital first letter
+     * @param capitalCounts - The map of each part of speech to its words and how many of their tokens were capitalized
+     * @param tag - The part of speech of the token
+     * @param word - The token as written
+     */
+    private static void countCapital(HashMap<String,HashMap<String,Double>> capitalCounts, String tag, String word) {
+        if (!UnknownWordModel.isCapitalized(word)) { return; }
+        capitalCounts.computeIfAbsent(tag, t -> new HashMap<>()).merge(normalizeWord(word), 1.0, Double::sum);
+    }
+
     /**
      * Build the transitions and observations maps and normalize them by the totals in the training data.
      * @param sentences - An ArrayList of each line in the file. Each word in the sentence line is an array of strings.
      * @param sentenceTags - An ArrayList of the corresponding tags for each word in each sentence
      */
     private void training(ArrayList<String[]> sentences, ArrayList<String[]> sentenceTags) {
+        TrainingPhaseEvent event = new TrainingPhaseEvent();
+        event.begin();
+        long start = MetricsRegistry.global().startNanos();
 
         // Initializes map of correspondences between current parts of speech and their current words
-        observationMap = new HashMap<String,HashMap<String,Double>>();
+        HashMap<String,HashMap<String,Double>> observationMap = new HashMap<String,HashMap<String,Double>>();
         // Initializes map of correspondences between current and next possible parts of speech
-        transitionsMap = new HashMap<String,HashMap<String,Double>>();
+        HashMap<String,HashMap<String,Double>> transitionsMap = new HashMap<String,HashMap<String,Double>>();
 
         // The total observations and transitions for later normalization
         HashMap<String,Double> observationTotals = new HashMap<>();
         HashMap<String,Double> transitionsTotals = new HashMap<>();
+        HashMap<String,HashMap<String,Double>> capitalCounts = new HashMap<>();
 
         // Initializes the start transition total, insert the empty map of possible transitions from the start POS
         HashMap<String,Double> startMap = new HashMap<>();
@@ -199,7 +415,8 @@ public class MarkovModel {
                 // Messy, but allows us to to get both the transitions and observations in one pass
                 currTag = sentenceTags.get(j)[i];
                 String nextTag = sentenceTags.get(j)[i+1];
-                String currWord = sentences.get(j)[i];
+                String currWord = normalizeWord(sentences.get(j)[i]);
+                countCapital(capitalCounts, currTag, sentences.get(j)[i]);
 
                 // Builds the transition map
                 if (nextTag != null) {
@@ -219,8 +436,9 @@ public class MarkovModel {
             // we don't want transitions because next element will be null, which is why this is a special case
             // initialize last indexes
             int lastIdx = sentenceTags.get(j).length-1;
-            String lastWord = sentences.get(j)[lastIdx];
+            String lastWord = normalizeWord(sentences.get(j)[lastIdx]);
             String lastTag = sentenceTags.get(j)[lastIdx];
+            countCapital(capitalCounts, lastTag, sentences.get(j)[lastIdx]);
 
             if (observationMap.containsKey(lastTag)) {
                 incrementMap(lastTag, lastWord, observationMap, observationTotals);
@@ -228,8 +446,57 @@ public class MarkovModel {
             else { initializeMap(lastTag, lastWord, observationMap, observationTotals); }
         }
 
-        normalizeData(transitionsMap, transitionsTotals);
-        normalizeData(observationMap, observationTotals);
+        TrainingPhaseEvent.end(event, start, "count", null, sentenceTags.size());
+
+        // Keep the raw frequencies for later updates, and publish their normalized maps
+        this.observationCounts = observationMap;
+        this.transitionsCounts = transitionsMap;
+        this.capitalCounts = capitalCounts;
+        this.observationTotals = observationTotals;
+        this.transitionsTotals = transitionsTotals;
+        publishNormalized();
+    }
+
+    /**
+     * Keep a set of raw frequencies as the model's counts, total them, and publish their normalized maps
+     * @param observationCounts - The frequency of each word under each part of speech
+     * @param capitalCounts - How many of those tokens were written with a capital first letter
+     * @param transitionsCounts - The frequency of each transition between parts of speech
+     */
+    private void setCounts(HashMap<String,HashMap<String,Double>> observationCounts, HashMap<String,HashMap<String,Double>> capitalCounts,
+                           HashMap<String,HashMap<String,Double>> transitionsCounts) {
+        this.observationCounts = observationCounts;
+        this.capitalCounts = capitalCounts;
+        this.transitionsCounts = transitionsCounts;
+        this.observationTotals = totalData(observationCounts);
+        this.transitionsTotals = totalData(transitionsCounts);
+        publishNormalized();
+    }
+
+    /**
+     * Normalize the counts and totals into the first version of the score maps
+     */
+    private void publishNormalized() {
+        TrainingPhaseEvent event = new TrainingPhaseEvent();
+        event.begin();
+        long start = MetricsRegistry.global().startNanos();
+        scores = new ScoreMaps(normalizeData(observationCounts, observationTotals), normalizeData(transitionsCounts, transitionsTotals), 0);
+        TrainingPhaseEvent.end(event, start, "normalize", null, observationCounts.size() + transitionsCounts.size());
+    }
+
+    /**
+     * Add the frequencies in each row of a transitions or observations map of raw frequencies
+     * @param incrementMap - transitions or observations HashMap<String,HashMap<String,Double>> of raw frequencies
+     * @return - the total frequency of each part of speech key
+     */
+    private HashMap<String,Double> totalData(HashMap<String,HashMap<String,Double>> incrementMap) {
+        HashMap<String,Double> totalsMap = new HashMap<>();
+        for (String fromEle : incrementMap.keySet()) {
+            double total = 0;
+            for (double freq : incrementMap.get(fromEle).values()) { total += freq; }
+            totalsMap.put(fromEle, total);
+        }
+        return totalsMap;
     }
 
     /**
@@ -272,14 +539,105 @@ public class MarkovModel {
      * Divide every frequency value in the HashMap corresponding to a POS key by the total frequency of that POS key
      * @param incrementMap - either transitions or observations (contains every frequency value) HashMap<String,HashMap<String,Double>>
      * @param totalsMap - transitions or observations HashMap<String,Double> containing for every corresponding frequency value
+     * @return - a new map of the log frequencies, leaving the raw frequencies unchanged
      */
-    private void normalizeData( HashMap<String,HashMap<String,Double>> incrementMap, HashMap<String,Double> totalsMap){
+    private HashMap<String,HashMap<String,Double>> normalizeData( HashMap<String,HashMap<String,Double>> incrementMap, HashMap<String,Double> totalsMap){
+        HashMap<String,HashMap<String,Double>> normalizedMap = new HashMap<>();
         for (String fromEle : incrementMap.keySet()) {
-            for (String toEle : incrementMap.get(fromEle).keySet()) {
-                double freq = incrementMap.get(fromEle).get(toEle);
-                incrementMap.get(fromEle).put(toEle, (Math.log(freq/totalsMap.get(fromEle))));  //use logs for preserve precision
+            normalizedMap.put(fromEle, normalizeRow(incrementMap.get(fromEle), totalsMap.get(fromEle)));
+        }
+        return normalizedMap;
+    }
+
+    /**
+     * Normalize the frequencies of a single part of speech key
+     * @param frequencies - HashMap<String,Double> of the raw frequency of each transition or word of the key
+     * @param total - the total frequency of the key
+     * @return - a new HashMap<String,Double> of the log frequencies
+     */
+    private HashMap<String,Double> normalizeRow(HashMap<String,Double> frequencies, double total) {
+        HashMap<String,Double> normalizedRow = new HashMap<>();
+        for (String toEle : frequencies.keySet()) {
+            normalizedRow.put(toEle, Math.log(frequencies.get(toEle)/total));  //use logs for preserve precision
+        }
+        return normalizedRow;
+    }
+
+    /**
+     * Fold one more tagged sentence into the model without retraining it.
+     * Only the rows of the parts of speech that appear in the sentence are renormalized. The new maps are published
+     * all at once, so threads tagging at the same time see either the old model or the new one and never a mix of both.
+     * Compiled models are not affected and have to be compiled again to pick up updates.
+     * @param sentence - The words of the sentence, separated by a " "
+     * @param tags - The corresponding tags, separated by a " "
+     */
+    public void update(String sentence, String tags) {
+        update(Collections.singletonList(sentence.split(" ")), Collections.singletonList(tags.split(" ")));
+    }
+
+    /**
+     * Fold a batch of tagged sentences into the model without retraining it.
+     * A row that appears in several sentences of the batch is only renormalized once, so batching many corrections
+     * together is much cheaper than updating with them one at a time.
+     * @param sentences - The words of each sentence
+     * @param sentenceTags - The tag of each word of each sentence
+     */
+    public void update(List<String[]> sentences, List<String[]> sentenceTags) {
+        if (sentences.size() != sentenceTags.size()) {
+            throw new IllegalArgumentException(sentences.size() + " sentences but " + sentenceTags.size() + " tag lines");
+        }
+        for (int j = 0; j < sentences.size(); j++) {
+            if (sentences.get(j).length != sentenceTags.get(j).length) {
+                throw new IllegalArgumentException("Sentence " + j + " has " + sentences.get(j).length + " words but "
+                        + sentenceTags.get(j).length + " tags");
             }
         }
+
+        synchronized (updateLock) {
+            if (observationCounts == null) { throw new IllegalStateException("This model has no raw counts to update"); }
+
+            // Count the sentences, remembering every row that changes
+            HashSet<String> changedTransitions = new HashSet<>();
+            HashSet<String> changedObservations = new HashSet<>();
+            for (int j = 0; j < sentences.size(); j++) {
+                String[] sentence = sentences.get(j);
+                String[] tags = sentenceTags.get(j);
+                String prevTag = startPOS;
+                for (int i = 0; i < tags.length; i++) {
+                    addCount(prevTag, tags[i], transitionsCounts, transitionsTotals);
+                    addCount(tags[i], normalizeWord(sentence[i]), observationCounts, observationTotals);
+                    countCapital(capitalCounts, tags[i], sentence[i]);
+                    changedTransitions.add(prevTag);
+                    changedObservations.add(tags[i]);
+                    prevTag = tags[i];
+                }
+            }
+
+            // Copy the current maps, replacing only the rows that changed
+            ScoreMaps current = scores;
+            HashMap<String,HashMap<String,Double>> observationMap = new HashMap<>(current.observationMap);
+            HashMap<String,HashMap<String,Double>> transitionsMap = new HashMap<>(current.transitionsMap);
+            for (String tag : changedTransitions) {
+                transitionsMap.put(tag, normalizeRow(transitionsCounts.get(tag), transitionsTotals.get(tag)));
+            }
+            for (String tag : changedObservations) {
+                observationMap.put(tag, normalizeRow(observationCounts.get(tag), observationTotals.get(tag)));
+            }
+            scores = new ScoreMaps(observationMap, transitionsMap, current.version + 1);
+        }
+    }
+
+    /**
+     * Add one to a raw frequency and to the total of its part of speech key, creating the row if it is new
+     */
+    private void addCount(String fromEle, String toEle, HashMap<String,HashMap<String,Double>> countsMap, HashMap<String,Double> totalsMap) {
+        HashMap<String,Double> row = countsMap.get(fromEle);
+        if (row == null) {
+            row = new HashMap<>();
+            countsMap.put(fromEle, row);
+        }
+        row.put(toEle, row.getOrDefault(toEle, 0.0) + 1);
+        totalsMap.put(fromEle, totalsMap.getOrDefault(fromEle, 0.0) + 1);
     }
 
     /**
@@ -290,6 +648,9 @@ public class MarkovModel {
      * @throws Exception if the file cannot be opened
      */
     private ArrayList<String[]> readFile(String fileName) throws Exception {
+        TrainingPhaseEvent event = new TrainingPhaseEvent();
+        event.begin();
+        long start = MetricsRegistry.global().startNanos();
         BufferedReader input = null;
         ArrayList<String[]> allEle = new ArrayList<String[]>(); // The ArrayList of all the elements
 
@@ -309,6 +670,7 @@ public class MarkovModel {
 
         finally { if (input != null) { input.close(); } }
 
+        TrainingPhaseEvent.end(event, start, "readFile", fileName, allEle.size());
         return allEle;
     }
 
@@ -339,7 +701,8 @@ public class MarkovModel {
                 // Iterate over each item in the line
                 for (int resultIndex = 0; resultIndex < (tagResults.length); resultIndex++) {
                     // If the Viterbi's prediction for a given word aligns with the corresponding answer, increment correct tags by one
-                    if (tagResults[resultIndex].equals(testTags.get(lineIndex)[resultIndex])) { correctTags += 1; }
+                    // (a prediction past the end of the answer, from a misaligned line, is false)
+                    if (resultIndex < testTags.get(lineIndex).length && tagResults[resultIndex].equals(testTags.get(lineIndex)[resultIndex])) { correctTags += 1; }
                     // Otherwise increment false tags by one
                     else {falseTags += 1;}
                 }
@@ -367,6 +730,17 @@ public class MarkovModel {
      * @return - return the correct array of String parts of speech in order from the start to the end of the sentence
      */
     protected String[] viterbiAlgo(String line) {
+        DecodeEvent event = new DecodeEvent();
+        event.begin();
+        long start = MetricsRegistry.global().startNanos();
+        int unknownWords = 0;
+        long expanded = 0;
+
+        // read the maps once, so that an update in the middle of the sentence cannot change them
+        ScoreMaps current = scores;
+        HashMap<String,HashMap<String,Double>> observationMap = current.observationMap;
+        HashMap<String,HashMap<String,Double>> transitionsMap = current.transitionsMap;
+
         //instantiate array list of observed words, back tracer, current scores, and current states
         String[] eachObservation = line.split(" ");
         ArrayList<HashMap<String, String>> backTrace = new ArrayList<>();
@@ -385,7 +759,8 @@ public class MarkovModel {
             //instantiate empty next states and next scores HashMap
             HashMap<String, Double> nextScores = new HashMap<>();
             HashMap<String, String> nextStates = new HashMap<>();
-            observedWord = observedWord.toLowerCase(); // make sure that all words not separated based on capitalization
+            observedWord = normalizeWord(observedWord); // make sure that all words not separated based on capitalization
+            boolean observed = false;  // whether any reachable part of speech has seen the word, for the metrics
 
             // iterates over current states and all of their possible transitions
             for (String currState : currStates.keySet()) {
@@ -394,10 +769,12 @@ public class MarkovModel {
                         // if the word is observed, set the observed score to that in the observation map, otherwise penalize that cowardly morphemic blob
                         if (observationMap.get(possTrans).containsKey(observedWord)) {
                             observedScore = observationMap.get(possTrans).get(observedWord);
+                            observed = true;
                         }
                         else {
                             observedScore = unseenConstant;
                         }
+                        expanded += 1;
 
                         nextScore = currScores.get(currState) + transitionsMap.get(currState).get(possTrans) + observedScore;
 
@@ -413,7 +790,9 @@ public class MarkovModel {
             currScores = nextScores;
             backTrace.add(nextStates);
             currStates = nextStates;
+            if (!observed) { unknownWords += 1; }
         }
+        DecodeEvent.end(event, DECODE_METRICS, start, "markov", eachObservation.length, unknownWords, expanded);
 
         // iterate over all possible final states. Identify greatest corresponding score
         // set the starting part of speech for the backtrace accordingly
@@ -444,6 +823,223 @@ public class MarkovModel {
         return finalWords;
     }
 
+    /**
+     * Tags a line of text using the Viterbi algorithm.
+     * The model is only read while tagging, so once it is built any number of threads may tag with it at the same time.
+     * @param line - String line of text to be tagged
+     * @return - the array of String parts of speech in order from the start to the end of the sentence
+     */
+    public String[] tag(String line) {
+        return viterbiAlgo(line);
+    }
+
+    /**
+     * Computes the probability of every part of speech at every word of a line, given the whole line, by forward-backward.
+     * The confidence of each word is the probability of its viterbiAlgo tag, so words with a low confidence can be sent for review.
+     * @param line - String line of text to be tagged
+     * @return - the posterior marginals and the viterbiAlgo tags of the line
+     */
+    public TagPosteriors posteriors(String line) {
+        return compiledLattices().posteriors(line);
+    }
+
+    /**
+     * Finds the n most likely taggings of a line, the first of which is the one viterbiAlgo finds
+     * @param line - String line of text to be tagged
+     * @param n - The number of taggings to find
+     * @return - up to n distinct taggings with their log probabilities, most likely first
+     */
+    public List<TaggedPath> nBest(String line, int n) {
+        return compiledLattices().nBest(line, n);
+    }
+
+    /**
+     * @return - the compiled form of the current maps, compiling them if the model was updated since the last time.
+     * The lattices of forward-backward and N-best decoding are the compiled model's reusable per-thread buffers.
+     */
+    private CompiledMarkovModel compiledLattices() {
+        CompiledVersion current = lattices;
+        if (current != null && current.version == scores.version) { return current.model; }
+        synchronized (updateLock) {
+            if (lattices == null || lattices.version != scores.version) {
+                lattices = new CompiledVersion(new CompiledMarkovModel(this), scores.version);
+            }
+            return lattices.model;
+        }
+    }
+
+    /**
+     * Compiles the model into its integer-indexed form, which decodes the same tags as viterbiAlgo
+     * without hashing Strings or boxing scores in the inner loop.
+     * It holds the update lock, so the transitions and observations are compiled from the same update.
+     * @return - the compiled model built from the current transitions and observations maps
+     */
+    public CompiledMarkovModel compile() {
+        return compile(false);
+    }
+
+    /**
+     * Compiles the model like compile, optionally guessing the observations of unknown words from their shape and suffix
+     * @param unknownWordModel - Whether to train an unknown-word model from the raw counts
+     * @return - the compiled model built from the current maps and counts
+     * @throws IllegalStateException if an unknown-word model is asked for but the model was not trained from data
+     */
+    public CompiledMarkovModel compile(boolean unknownWordModel) {
+        synchronized (updateLock) { return new CompiledMarkovModel(this, unknownWordModel); }
+    }
+
+    /**
+     * Compiles the model like compile, numbering its words in a word table shared with other compiled models
+     * @param unknownWordModel - Whether to train an unknown-word model from the raw counts
+     * @param words - The shared word table, e.g. that of a SharedDictionary
+     * @return - the compiled model built from the current maps and counts
+     * @throws IllegalStateException if an unknown-word model is asked for but the model was not trained from data
+     */
+    CompiledMarkovModel compile(boolean unknownWordModel, WordTable words) {
+        synchronized (updateLock) { return new CompiledMarkovModel(this, unknownWordModel, words); }
+    }
+
+    /**
+     * @return - the map of each part of speech to its observed words and their log frequencies
+     */
+    HashMap<String,HashMap<String,Double>> getObservationMap() { return scores.observationMap; }
+
+    /**
+     * @return - the map of each part of speech to its next parts of speech and their log frequencies
+     */
+    HashMap<String,HashMap<String,Double>> getTransitionsMap() { return scores.transitionsMap; }
+
+    /**
+     * @return - the raw frequency of each word under each part of speech, or null if the model was not trained from data.
+     * Only stable while holding off updates.
+     */
+    HashMap<String,HashMap<String,Double>> getObservationCounts() { return observationCounts; }
+
+    /**
+     * @return - how many tokens of each word under each part of speech were written with a capital first letter,
+     * or null if the model was not trained from data. Only stable while holding off updates.
+     */
+    HashMap<String,HashMap<String,Double>> getCapitalCounts() { return capitalCounts; }
+
+    /**
+     * @return - the raw frequency of each transition, or null if the model was not trained from data.
+     * Only stable while holding off updates.
+     */
+    HashMap<String,HashMap<String,Double>> getTransitionsCounts() { return transitionsCounts; }
+
+    /**
+     * Restore the raw frequencies behind the current maps, e.g. when loading a snapshot, so that the model can be updated
+     * @param observationCounts - The frequency of each word under each part of speech
+     * @param capitalCounts - How many of those tokens were written with a capital first letter
+     * @param transitionsCounts - The frequency of each transition between parts of speech
+     */
+    void restoreCounts(HashMap<String,HashMap<String,Double>> observationCounts, HashMap<String,HashMap<String,Double>> capitalCounts,
+                       HashMap<String,HashMap<String,Double>> transitionsCounts) {
+        synchronized (updateLock) {
+            this.observationCounts = observationCounts;
+            this.capitalCounts = capitalCounts;
+            this.transitionsCounts = transitionsCounts;
+            this.observationTotals = totalData(observationCounts);
+            this.transitionsTotals = totalData(transitionsCounts);
+        }
+    }
+
+    /**
+     * @return - the penalty given to a word that was never observed with a part of speech
+     */
+    double getUnseenConstant() { return unseenConstant; }
+
+    /**
+     * @return - the starting part of speech of every sentence
+     */
+    String getStartPOS() { return startPOS; }
+
+    /**
+     * @return - the number of updates folded into the model so far, which changes whenever its maps change
+     */
+    public long getVersion() { return scores.version; }
+
+    /**
+     * Replaces every word and tag in the model's maps with the dictionary's copy of it, so that models interned
+     * through the same dictionary share their Strings. The scores are unchanged and the version stays the same.
+     * @param dictionary - The dictionary shared by the models
+     */
+    void internStrings(SharedDictionary dictionary) {
+        synchronized (updateLock) {
+            ScoreMaps current = scores;
+            scores = new ScoreMaps(internTable(current.observationMap, dictionary), internTable(current.transitionsMap, dictionary), current.version);
+            startPOS = dictionary.intern(startPOS);
+            lattices = null;
+            if (observationCounts != null) {
+                observationCounts = internTable(observationCounts, dictionary);
+                capitalCounts = internTable(capitalCounts, dictionary);
+                transitionsCounts = internTable(transitionsCounts, dictionary);
+                observationTotals = internRow(observationTotals, dictionary);
+                transitionsTotals = internRow(transitionsTotals, dictionary);
+            }
+        }
+    }
+
+    /**
+     * @return - a copy of a map of maps keyed by the dictionary's copies of its keys
+     */
+    private static HashMap<String,HashMap<String,Double>> internTable(HashMap<String,HashMap<String,Double>> table, SharedDictionary dictionary) {
+        HashMap<String,HashMap<String,Double>> interned = new HashMap<>((int) (table.size() / 0.75) + 1);
+        for (Map.Entry<String,HashMap<String,Double>> row : table.entrySet()) { interned.put(dictionary.intern(row.getKey()), internRow(row.getValue(), dictionary)); }
+        return interned;
+    }
+
+    /**
+     * @return - a copy of a map keyed by the dictionary's copies of its keys
+     */
+    private static HashMap<String,Double> internRow(HashMap<String,Double> row, SharedDictionary dictionary) {
+        HashMap<String,Double> interned = new HashMap<>((int) (row.size() / 0.75) + 1);
+        for (Map.Entry<String,Double> entry : row.entrySet()) { interned.put(dictionary.intern(entry.getKey()), entry.getValue()); }
+        return interned;
+    }
+
+    /**
+     * @return - an estimate of the heap taken by the model's maps, including the raw frequencies if it has them
+     * but not the word and tag Strings, which are counted by whoever owns them, e.g. a shared dictionary
+     */
+    public long footprintBytes() {
+        synchronized (updateLock) {
+            ScoreMaps current = scores;
+            long bytes = tableBytes(current.observationMap) + tableBytes(current.transitionsMap);
+            if (observationCounts != null) {
+                bytes += tableBytes(observationCounts) + tableBytes(capitalCounts) + tableBytes(transitionsCounts)
+                        + rowBytes(observationTotals) + rowBytes(transitionsTotals);
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * @return - the estimated heap size of a map of maps, not counting its keys
+     */
+    private static long tableBytes(HashMap<String,HashMap<String,Double>> table) {
+        long bytes = mapBytes(table.size());
+        for (HashMap<String,Double> row : table.values()) { bytes += rowBytes(row); }
+        return bytes;
+    }
+
+    /**
+     * @return - the estimated heap size of a map of Doubles, not counting its keys
+     */
+    private static long rowBytes(HashMap<String,Double> row) {
+        // Each entry also boxes its Double in 16 bytes
+        return mapBytes(row.size()) + 16L * row.size();
+    }
+
+    /**
+     * @return - the estimated heap size of a HashMap of a number of entries, without its keys and values:
+     * the map itself, a 32 byte node per entry and a table of 4 byte slots at most three quarters full
+     */
+    private static long mapBytes(int size) {
+        int slots = Integer.highestOneBit(Math.max(1, (int) (size / 0.75)) * 2 - 1);
+        return 48 + 16 + 4L * slots + 32L * size;
+    }
+
     /**
      * Console test method for the user to input screens using a Scanner Class.
      */
@@ -481,11 +1077,13 @@ public class MarkovModel {
     public String generateRandomSentence(){
         String sentence = "";
 
+        ScoreMaps current = scores;
+
         // Build a sentence until the sentence hits a punctuation mark
         String selectPOS = startPOS;  // Initialize the start of the sentence
         while(!selectPOS.equals(".")) {
-            selectPOS = generateRandomEle(selectPOS, transitionsMap);  // Select a random part of speech
-            String word = generateRandomEle(selectPOS, observationMap);  // From that part of speech, select a random word
+            selectPOS = generateRandomEle(selectPOS, current.transitionsMap);  // Select a random part of speech
+            String word = generateRandomEle(selectPOS, current.observationMap);  // From that part of speech, select a random word
             sentence += word + " ";  // Add the random word to the sentence
         }
         return sentence;
@@ -542,7 +1140,7 @@ public class MarkovModel {
         String selectPOS = startPOS;
         for (int i = 0; i < 7; i++) {  // Hard-capped at 7 because a period-to-period transition is never the most likely option
             selectPOS = mostLikelyTransition(selectPOS);  // Selects the most likely transition
-            String word = generateRandomEle(selectPOS, observationMap);  // Selects the most likely word given that transition
+            String word = generateRandomEle(selectPOS, scores.observationMap);  // Selects the most likely word given that transition
             sentence += word + " ";  // Add the word to the sentence
         }
         sentence += ".";  // Add a period to end the sentence
@@ -561,8 +1159,9 @@ public class MarkovModel {
         String likelyTransition = null;
 
         // Loops over all the possible transitions, selecting the most probable one
-        for (String nextPossEle : transitionsMap.get(selectPOS).keySet()) {
-            double nextPossProb = transitionsMap.get(selectPOS).get(nextPossEle);
+        HashMap<String,Double> possTransitions = scores.transitionsMap.get(selectPOS);
+        for (String nextPossEle : possTransitions.keySet()) {
+            double nextPossProb = possTransitions.get(nextPossEle);
             if (nextPossProb > highestProbability) {
                 highestProbability = nextPossProb;
                 likelyTransition = nextPossEle;
@@ -572,5 +1171,32 @@ public class MarkovModel {
         return likelyTransition;
     }
 
+    /**
+     * A compiled model and the version of the maps it was compiled from
+     */
+    private static class CompiledVersion {
+        final CompiledMarkovModel model;
+        final long version;
 
+        CompiledVersion(CompiledMarkovModel model, long version) {
+            this.model = model;
+            this.version = version;
+        }
+    }
+
+    /**
+     * The normalized observations and transitions maps of one version of the model.
+     * A published ScoreMaps is never modified; updates publish a new one instead.
+     */
+    private static class ScoreMaps {
+        final HashMap<String,HashMap<String,Double>> observationMap;
+        final HashMap<String,HashMap<String,Double>> transitionsMap;
+        final long version;
+
+        ScoreMaps(HashMap<String,HashMap<String,Double>> observationMap, HashMap<String,HashMap<String,Double>> transitionsMap, long version) {
+            this.observationMap = observationMap;
+            this.transitionsMap = transitionsMap;
+            this.version = version;
+        }
+    }
 }
@@ -6,7 +6,7 @@
 
 public class MarkovModelDriver {
     public static void main(String[] args) throws Exception {
-        MarkovModel markovTester = new MarkovModel("./PS5/texts/brown-train-sentences.txt", "./PS5/texts/brown-train-tags.txt");
+        MarkovModel markovTester = MarkovModel.loadOrTrain("./PS5/texts/brown-train.hmm", "./PS5/texts/brown-train-sentences.txt", "./PS5/texts/brown-train-tags.txt");
         System.out.println(markovTester.testAccuracy("./PS5/texts/brown-test-sentences.txt", "./PS5/texts/brown-test-tags.txt"));
         markovTester.consoleInput();
     }
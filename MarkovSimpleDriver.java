@@ -6,7 +6,7 @@
 
 public class MarkovSimpleDriver {
     public static void main(String[] args) throws Exception {
-        MarkovModel markovTester = new MarkovModel("./PS5/texts/simple-train-sentences.txt", "./PS5/texts/simple-train-tags.txt");
+        MarkovModel markovTester = MarkovModel.loadOrTrain("./PS5/texts/simple-train.hmm", "./PS5/texts/simple-train-sentences.txt", "./PS5/texts/simple-train-tags.txt");
         System.out.println(markovTester.testAccuracy("./PS5/texts/simple-test-sentences.txt", "./PS5/texts/simple-test-tags.txt"));
         markovTester.consoleInput();
     }
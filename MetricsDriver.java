@@ -0,0 +1,130 @@
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A driver class for the instrumentation. It trains the Brown model under a flight recording with the metrics enabled
+ * and prints the training phase events and the registry, tags the test set with both decoders to show the unknown-word
+ * rate and the states expanded per word, and measures what the instrumentation costs the compiled decoder: disabled,
+ * with the registry on, and under a flight recording, against viterbiBeam with no beam, which decodes the same way
+ * without any instrumentation.
+ */
+public class MetricsDriver {
+
+    public static void main(String[] args) throws Exception {
+        MetricsRegistry metrics = MetricsRegistry.global();
+
+        // Training and decoding under a flight recording of the tagger's events, with the registry on
+        Path recordingFile = Files.createTempFile("postagger", ".jfr");
+        MarkovModel markovTester;
+        CompiledMarkovModel compiled;
+        ArrayList<String> lines = MarkovBenchmark.readLines("./PS5/texts/brown-test-sentences.txt");
+        try (Recording recording = new Recording()) {
+            recording.enable("postagger.TrainingPhase");
+            recording.enable("postagger.Decode");
+            recording.start();
+            metrics.setEnabled(true);
+
+            markovTester = new MarkovModel("./PS5/texts/brown-train-sentences.txt", "./PS5/texts/brown-train-tags.txt");
+            compiled = markovTester.compile();
+            for (String line : lines.subList(0, 200)) { markovTester.tag(line); }
+            for (String line : lines) { compiled.tag(line); }
+
+            metrics.setEnabled(false);
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile);
+        Files.delete(recordingFile);
+        long decodeEvents = 0;
+        System.out.println("Training phases recorded by JFR:");
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals("postagger.Decode")) { decodeEvents += 1; continue; }
+            System.out.printf("  %-10s %8.1f ms  %7d items  %s%n", event.getString("phase"), event.getDuration().toNanos() / 1e6,
+                    event.getLong("items"), event.getString("source") == null ? "" : event.getString("source"));
+        }
+        System.out.println("Decode events recorded by JFR: " + decodeEvents);
+        System.out.println();
+        System.out.print(metrics.report());
+        System.out.printf("Unknown-word rate: HashMap decoder %.2f%% (first 200 sentences), compiled decoder %.2f%%%n%n",
+                100 * metrics.decodeMetrics("markov").unknownRate(), 100 * metrics.decodeMetrics("compiled").unknownRate());
+
+        // The cost of the instrumentation of one sentence on its own, against the time to decode an average sentence
+        double sentenceNanos = 1e9 / sentencesPerSecond(lines, compiled);
+        MetricsRegistry.DecodeMetrics overheadMetrics = metrics.decodeMetrics("overhead");
+        String[] modes = {"Disabled", "Registry enabled", "JFR recording"};
+        double[] callNanos = new double[modes.length];
+        for (int round = 0; round < 3; round++) {
+            callNanos[0] = nanosPerSentence(overheadMetrics);
+            metrics.setEnabled(true);
+            callNanos[1] = nanosPerSentence(overheadMetrics);
+            metrics.setEnabled(false);
+            try (Recording recording = new Recording()) {
+                recording.enable("postagger.Decode");
+                recording.start();
+                callNanos[2] = nanosPerSentence(overheadMetrics);
+                recording.stop();
+            }
+        }
+        for (int k = 0; k < modes.length; k++) {
+            System.out.printf("%-20s %8.1f ns of instrumentation per sentence, %.3f%% of the %.1f us to decode one%n",
+                    modes[k], callNanos[k], 100 * callNanos[k] / sentenceNanos, sentenceNanos / 1000);
+        }
+        System.out.println();
+
+        // The cost of the instrumentation in decoding, every way in turn over several rounds so they are all equally warmed up,
+        // keeping the best round of each so that noise from the machine does not count as overhead
+        String[] names = {"No instrumentation", "Disabled", "Registry enabled", "JFR recording"};
+        double[] speeds = new double[names.length];
+        int numTags = compiled.numTags();
+        for (int round = 0; round < 10; round++) {
+            speeds[0] = Math.max(speeds[0], sentencesPerSecond(lines, line -> compiled.viterbiBeam(line, numTags, Double.POSITIVE_INFINITY)));
+            speeds[1] = Math.max(speeds[1], sentencesPerSecond(lines, compiled));
+
+            metrics.setEnabled(true);
+            speeds[2] = Math.max(speeds[2], sentencesPerSecond(lines, compiled));
+            metrics.setEnabled(false);
+
+            try (Recording recording = new Recording()) {
+                recording.enable("postagger.Decode");
+                recording.start();
+                speeds[3] = Math.max(speeds[3], sentencesPerSecond(lines, compiled));
+                recording.stop();
+            }
+        }
+        for (int k = 0; k < names.length; k++) {
+            System.out.printf("%-20s %8.0f sentences/sec (%+.1f%% time)%n", names[k], speeds[k], 100 * (speeds[0] / speeds[k] - 1));
+        }
+    }
+
+    /**
+     * @return - the nanoseconds taken by what viterbiAlgo does to instrument one sentence, without the decoding
+     */
+    private static double nanosPerSentence(MetricsRegistry.DecodeMetrics decodeMetrics) {
+        MetricsRegistry metrics = MetricsRegistry.global();
+        int sentences = 2_000_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < sentences; i++) {
+            DecodeEvent event = new DecodeEvent();
+            event.begin();
+            long started = metrics.startNanos();
+            DecodeEvent.end(event, decodeMetrics, started, "compiled", 15, 1, 10_000);
+        }
+        return (System.nanoTime() - start) / (double) sentences;
+    }
+
+    /**
+     * @return - the sentences a tagger tags per second, over three passes of the lines
+     */
+    private static double sentencesPerSecond(ArrayList<String> lines, Tagger tagger) {
+        long start = System.nanoTime();
+        for (int pass = 0; pass < 3; pass++) { for (String line : lines) { tagger.tag(line); } }
+        return 3.0 * lines.size() / ((System.nanoTime() - start) / 1e9);
+    }
+}
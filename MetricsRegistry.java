@@ -0,0 +1,137 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named counters and histograms of what happens inside the tagger: the sentences, words and unknown words decoded,
+ * decode latency, the states expanded per word, and the time of every training phase.
+ * Nothing is recorded until the registry is enabled. While it is disabled, instrumented code only reads one volatile flag
+ * per sentence or per training phase. JFR events are separate: they are recorded whenever a flight recording asks for them.
+ * Counters and histograms are only ever reset, never replaced, so callers may keep them.
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+
+    private final ConcurrentHashMap<String,LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String,LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private volatile boolean enabled;
+
+    /**
+     * @return - the registry the models record into
+     */
+    public static MetricsRegistry global() { return GLOBAL; }
+
+    /**
+     * @param enabled - Whether to record from now on
+     */
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+    /**
+     * @return - whether the registry is recording
+     */
+    public boolean isEnabled() { return enabled; }
+
+    /**
+     * @return - the time to measure an operation from if the registry is recording, or 0 if it is not
+     */
+    public long startNanos() { return enabled ? System.nanoTime() : 0; }
+
+    /**
+     * @param name - The name of the counter, e.g. "compiled_sentences_total"
+     * @return - the counter, created at 0 the first time it is asked for
+     */
+    public LongAdder counter(String name) { return counters.computeIfAbsent(name, key -> new LongAdder()); }
+
+    /**
+     * @param name - The name of the histogram, e.g. "compiled_decode_latency_us"
+     * @return - the histogram, created empty the first time it is asked for
+     */
+    public LatencyHistogram histogram(String name) { return histograms.computeIfAbsent(name, key -> new LatencyHistogram()); }
+
+    /**
+     * @param engine - The name of a decoder, e.g. "compiled"
+     * @return - the counters and histograms of that decoder
+     */
+    public DecodeMetrics decodeMetrics(String engine) { return new DecodeMetrics(this, engine); }
+
+    /**
+     * Records the time of one training phase, if recording was on when it started
+     * @param phase - The name of the phase, e.g. "normalize"
+     * @param startNanos - What startNanos returned at the start of the phase
+     */
+    public void recordPhase(String phase, long startNanos) {
+        if (startNanos == 0) { return; }
+        histogram("training_" + phase + "_us").record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    /**
+     * Sets every counter to 0 and empties every histogram
+     */
+    public void reset() {
+        for (LongAdder counter : counters.values()) { counter.reset(); }
+        for (LatencyHistogram histogram : histograms.values()) { histogram.reset(); }
+    }
+
+    /**
+     * @return - every metric as "name value" lines, sorted by name, with the count, mean, p50 and p99 of every histogram
+     */
+    public String report() {
+        TreeMap<String,String> lines = new TreeMap<>();
+        for (Map.Entry<String,LongAdder> counter : counters.entrySet()) { lines.put(counter.getKey(), String.valueOf(counter.getValue().sum())); }
+        for (Map.Entry<String,LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            lines.put(entry.getKey() + "_count", String.valueOf(histogram.count()));
+            lines.put(entry.getKey() + "_mean", String.valueOf(histogram.mean()));
+            lines.put(entry.getKey() + "_p50", String.valueOf(histogram.percentile(50)));
+            lines.put(entry.getKey() + "_p99", String.valueOf(histogram.percentile(99)));
+        }
+
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String,String> line : lines.entrySet()) { report.append(line.getKey()).append(' ').append(line.getValue()).append('\n'); }
+        return report.toString();
+    }
+
+    /**
+     * The metrics of one decoder, looked up once so that recording a sentence does no lookups
+     */
+    public static class DecodeMetrics {
+        private final LongAdder sentences, tokens, unknownTokens, statesExpanded;
+        private final LatencyHistogram latency, statesPerToken;
+
+        DecodeMetrics(MetricsRegistry registry, String engine) {
+            sentences = registry.counter(engine + "_sentences_total");
+            tokens = registry.counter(engine + "_tokens_total");
+            unknownTokens = registry.counter(engine + "_unknown_tokens_total");
+            statesExpanded = registry.counter(engine + "_states_expanded_total");
+            latency = registry.histogram(engine + "_decode_latency_us");
+            statesPerToken = registry.histogram(engine + "_states_expanded_per_token");
+        }
+
+        /**
+         * Records one decoded sentence, if recording was on when it started
+         * @param startNanos - What startNanos returned before the sentence was decoded
+         * @param words - The number of words of the sentence
+         * @param unknownWords - The number of them never observed in training, which were scored with the unseen constant or the unknown-word model
+         * @param expanded - The number of transitions scored
+         */
+        public void record(long startNanos, int words, int unknownWords, long expanded) {
+            if (startNanos == 0) { return; }
+            latency.record((System.nanoTime() - startNanos) / 1000);
+            sentences.increment();
+            tokens.add(words);
+            unknownTokens.add(unknownWords);
+            statesExpanded.add(expanded);
+            statesPerToken.record(words == 0 ? 0 : expanded / words);
+        }
+
+        /**
+         * @return - the fraction of the decoded words that were never observed in training
+         */
+        public double unknownRate() {
+            long total = tokens.sum();
+            return total == 0 ? 0 : (double) unknownTokens.sum() / total;
+        }
+    }
+}
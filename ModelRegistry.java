@@ -0,0 +1,280 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves several tagger models in one JVM, e.g. the simple model, Brown and domain-specific variants of it.
+ * Registering a model only records how to load it; it is loaded the first time it is asked for, so models that are
+ * never used cost nothing. Every model is loaded and compiled through one SharedDictionary, so a variant shares its words
+ * and tags with the models already loaded instead of bringing its own copy of every String, and a compiled variant
+ * numbers its words in the same word table instead of bringing its own.
+ *
+ * A model is served in one form at a time where it can be: compiling it drops its HashMap form, which is only loaded
+ * again if get asks for it, so a model served through tagger or compiled only costs its compiled tables.
+ *
+ * The loaded models are kept under a memory budget: whenever a load or compile takes the estimated footprint of the
+ * loaded models over the budget, the least recently used other models are dropped until it fits again, and are loaded
+ * again the next time they are asked for. The model just loaded is always kept, even if it alone is over the budget.
+ * The shared dictionary counts against the budget too. Its Strings are only kept while some model is loaded in its
+ * HashMap form, since compiled models only use its word table, and the whole dictionary is dropped, to start again
+ * empty, once every model has been dropped.
+ *
+ * Models are loaded and compiled at most once at a time, holding only their own entry, so asking for a loaded model
+ * never waits for another one to load.
+ */
+public class ModelRegistry {
+
+    private final ConcurrentHashMap<String,Entry> entries = new ConcurrentHashMap<>();
+
+    // The following are only changed while holding the registry's lock
+    private SharedDictionary dictionary = new SharedDictionary();
+    private long budgetBytes;
+    // The bytes of the loaded models, and of the dictionary when it was last measured
+    private long usedBytes, dictionaryBytes;
+    private long loads, evictions;
+
+    // Ticks on every use, so that the entry with the smallest tick is the least recently used
+    private final AtomicLong clock = new AtomicLong();
+
+    /**
+     * Loads one model, interning its words and tags through the registry's dictionary
+     */
+    public interface ModelLoader {
+        MarkovModel load(SharedDictionary dictionary) throws Exception;
+    }
+
+    /**
+     * @param budgetBytes - The estimated bytes the loaded models may take before idle ones are dropped
+     */
+    public ModelRegistry(long budgetBytes) { this.budgetBytes = budgetBytes; }
+
+    /**
+     * @param snapshotFile - A snapshot file written by ModelSnapshot.save
+     * @return - a loader of the model saved in the file
+     */
+    public static ModelLoader snapshot(String snapshotFile) {
+        return dictionary -> ModelSnapshot.load(snapshotFile, dictionary);
+    }
+
+    /**
+     * Like MarkovModel.loadOrTrain, but interning through the registry's dictionary
+     * @param snapshotFile - The snapshot file to load, or to create
+     * @param fileWords - The file containing all the sentences
+     * @param fileTags - The file containing all the corresponding tags for the sentences
+     * @return - a loader of the model saved in the file, which trains and saves it first if there is no snapshot yet
+     */
+    public static ModelLoader snapshotOrTrain(String snapshotFile, String fileWords, String fileTags) {
+        return dictionary -> MarkovModel.loadOrTrain(snapshotFile, fileWords, fileTags, dictionary);
+    }
+
+    /**
+     * Registers a model without loading it
+     * @param name - The name to ask for the model by
+     * @param loader - How to load the model the first time it is asked for, and again after it is dropped
+     * @throws IllegalArgumentException if a model is already registered under the name
+     */
+    public void register(String name, ModelLoader loader) {
+        if (entries.putIfAbsent(name, new Entry(loader)) != null) { throw new IllegalArgumentException("A model is already registered as " + name); }
+    }
+
+    /**
+     * @param name - The name of a registered model
+     * @return - the model, loaded now if it is not loaded yet, or if only its compiled form is
+     * @throws IllegalArgumentException if no model is registered under the name
+     * @throws IllegalStateException if the model cannot be loaded
+     */
+    public MarkovModel get(String name) {
+        Entry entry = entry(name);
+        MarkovModel model = entry.model;
+        entry.lastUsed = clock.incrementAndGet();
+        if (model != null) { return model; }
+
+        synchronized (entry) {
+            // Another thread may have loaded it while this one waited
+            if (entry.model != null) { return entry.model; }
+            try {
+                model = entry.loader.load(getDictionary());
+            } catch (Exception e) {
+                throw new IllegalStateException("Could not load model " + name, e);
+            }
+
+            synchronized (this) {
+                entry.model = model;
+                entry.modelBytes = model.footprintBytes();
+                usedBytes += entry.modelBytes;
+                dictionaryBytes = dictionary.footprintBytes();
+                loads += 1;
+                evictOver(entry);
+            }
+            return model;
+        }
+    }
+
+    /**
+     * @param name - The name of a registered model
+     * @return - the compiled form of the model, loaded and compiled now if it is not already.
+     * Once compiled, the HashMap form of the model is dropped and only the compiled form counts against the budget.
+     * @throws IllegalArgumentException if no model is registered under the name
+     * @throws IllegalStateException if the model cannot be loaded
+     */
+    public CompiledMarkovModel compiled(String name) {
+        Entry entry = entry(name);
+        CompiledMarkovModel compiled = entry.compiled;
+        if (compiled != null) {
+            entry.lastUsed = clock.incrementAndGet();
+            return compiled;
+        }
+
+        MarkovModel model = get(name);
+        synchronized (entry) {
+            if (entry.compiled != null) { return entry.compiled; }
+            compiled = model.compile(false, getDictionary().getWords());
+
+            synchronized (this) {
+                // Only keep it if the model was not dropped while it compiled
+                if (entry.model == model) {
+                    entry.compiled = compiled;
+                    entry.compiledBytes = compiled.footprintBytes();
+                    usedBytes += entry.compiledBytes - entry.modelBytes;
+                    entry.model = null;
+                    entry.modelBytes = 0;
+                    dropUnusedDictionary();
+                    evictOver(entry);
+                }
+            }
+            return compiled;
+        }
+    }
+
+    /**
+     * @param name - The name of a registered model
+     * @return - a tagger that tags with the compiled model of that name, loading it again if it was dropped in between
+     * @throws IllegalArgumentException if no model is registered under the name
+     */
+    public Tagger tagger(String name) {
+        entry(name);
+        return line -> compiled(name).tag(line);
+    }
+
+    /**
+     * Drops the least recently used models other than the one given until the loaded models and the dictionary fit the
+     * budget again, and drops the dictionary if no model is left.
+     * Called while holding the registry's lock.
+     * @param keep - The entry that was just loaded or compiled
+     */
+    private void evictOver(Entry keep) {
+        while (usedBytes + dictionaryBytes > budgetBytes) {
+            Entry oldest = null;
+            for (Entry entry : entries.values()) {
+                if (entry != keep && entry.isLoaded() && (oldest == null || entry.lastUsed < oldest.lastUsed)) { oldest = entry; }
+            }
+            if (oldest == null) { break; }
+
+            usedBytes -= oldest.modelBytes + oldest.compiledBytes;
+            oldest.model = null;
+            oldest.compiled = null;
+            oldest.modelBytes = 0;
+            oldest.compiledBytes = 0;
+            evictions += 1;
+            dropUnusedDictionary();
+        }
+    }
+
+    /**
+     * Clears the dictionary's Strings if no model is loaded in its HashMap form, and replaces the whole dictionary with
+     * an empty one if no model is loaded at all; then measures it again.
+     * Called while holding the registry's lock.
+     */
+    private void dropUnusedDictionary() {
+        boolean maps = false, compiledForms = false;
+        for (Entry entry : entries.values()) {
+            maps |= entry.model != null;
+            compiledForms |= entry.compiled != null;
+        }
+        if (!maps && !compiledForms) { dictionary = new SharedDictionary(); }
+        else if (!maps) { dictionary.clearStrings(); }
+        dictionaryBytes = dictionary.footprintBytes();
+    }
+
+    /**
+     * @param name - The name of a model
+     * @return - its entry
+     * @throws IllegalArgumentException if no model is registered under the name
+     */
+    private Entry entry(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) { throw new IllegalArgumentException("No model is registered as " + name); }
+        return entry;
+    }
+
+    /**
+     * Changes the budget, dropping the least recently used models at once if the loaded ones no longer fit
+     * @param budgetBytes - The estimated bytes the loaded models may take
+     */
+    public synchronized void setBudgetBytes(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        evictOver(null);
+    }
+
+    /**
+     * @return - the estimated bytes the loaded models may take before idle ones are dropped
+     */
+    public synchronized long getBudgetBytes() { return budgetBytes; }
+
+    /**
+     * @return - the estimated bytes taken by the loaded models and their compiled forms, and by the dictionary
+     */
+    public synchronized long getUsedBytes() { return usedBytes + dictionaryBytes; }
+
+    /**
+     * @return - the estimated bytes taken by the dictionary when a model was last loaded, compiled or dropped
+     */
+    public synchronized long getDictionaryBytes() { return dictionaryBytes; }
+
+    /**
+     * @return - the number of times a model was loaded, including loads after it was dropped
+     */
+    public synchronized long getLoads() { return loads; }
+
+    /**
+     * @return - the number of times a model was dropped to stay under the budget
+     */
+    public synchronized long getEvictions() { return evictions; }
+
+    /**
+     * @param name - The name of a registered model
+     * @return - whether the model is loaded right now, in either form
+     */
+    public boolean isLoaded(String name) { return entry(name).isLoaded(); }
+
+    /**
+     * @return - the names of the models loaded right now
+     */
+    public List<String> loadedNames() {
+        ArrayList<String> names = new ArrayList<>();
+        for (String name : entries.keySet()) { if (entries.get(name).isLoaded()) { names.add(name); } }
+        return names;
+    }
+
+    /**
+     * @return - the dictionary every model is loaded and compiled through, which is a new one after every model was dropped
+     */
+    public synchronized SharedDictionary getDictionary() { return dictionary; }
+
+    /**
+     * A registered model: how to load it and, while it is loaded, its HashMap and compiled forms and their footprints.
+     * The forms and their footprints are only changed while holding the registry's lock.
+     */
+    private static class Entry {
+        final ModelLoader loader;
+        volatile MarkovModel model;
+        volatile CompiledMarkovModel compiled;
+        long modelBytes, compiledBytes;
+        volatile long lastUsed;
+
+        Entry(ModelLoader loader) { this.loader = loader; }
+
+        boolean isLoaded() { return model != null || compiled != null; }
+    }
+}
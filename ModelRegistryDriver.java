@@ -0,0 +1,118 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A driver class for the model registry. It registers the simple model, Brown and a smoothed variant of Brown,
+ * shows that registering them loads nothing, compares the heap taken by Brown and its variant loaded on their own
+ * against loaded through one registry sharing their words and tags, and the heap of serving both compiled, which share
+ * one word table, and serves the models under a budget, which counts the shared dictionary, that only
+ * fits some of them at once, checking that a model dropped and loaded again tags the same.
+ */
+public class ModelRegistryDriver {
+
+    private static final String BROWN_SNAPSHOT = "./PS5/texts/brown-train.hmm";
+    private static final String BROWN_WORDS = "./PS5/texts/brown-train-sentences.txt";
+    private static final String BROWN_TAGS = "./PS5/texts/brown-train-tags.txt";
+
+    public static void main(String[] args) throws Exception {
+        // Make sure the snapshots exist, so that the registries below only ever load them
+        MarkovModel.loadOrTrain(BROWN_SNAPSHOT, BROWN_WORDS, BROWN_TAGS);
+        MarkovModel.loadOrTrain("./PS5/texts/simple-train.hmm", "./PS5/texts/simple-train-sentences.txt", "./PS5/texts/simple-train-tags.txt");
+
+        // Registering costs nothing until a model is used
+        long start = System.nanoTime();
+        ModelRegistry registry = newRegistry(Long.MAX_VALUE);
+        System.out.printf("Registered 3 models in %.2f ms; loaded: %s, %d bytes used%n%n", (System.nanoTime() - start) / 1e6,
+                registry.loadedNames(), registry.getUsedBytes());
+
+        // Brown and its variant loaded on their own, each with its own copy of every String, against through the registry
+        long baseline = usedHeap();
+        MarkovModel brown = ModelSnapshot.load(BROWN_SNAPSHOT);
+        long brownAlone = usedHeap() - baseline;
+        MarkovModel variant = smoothedBrown();
+        long bothAlone = usedHeap() - baseline;
+        System.out.printf("On their own:  Brown %6.1f MB, Brown and its variant %6.1f MB (+%.1f MB for the variant)%n",
+                brownAlone / 1e6, bothAlone / 1e6, (bothAlone - brownAlone) / 1e6);
+        brown = null;
+        variant = null;
+
+        baseline = usedHeap();
+        registry.get("brown");
+        long brownShared = usedHeap() - baseline;
+        registry.get("brown-smoothed");
+        long bothShared = usedHeap() - baseline;
+        System.out.printf("Registry:      Brown %6.1f MB, Brown and its variant %6.1f MB (+%.1f MB for the variant)%n",
+                brownShared / 1e6, bothShared / 1e6, (bothShared - brownShared) / 1e6);
+        SharedDictionary dictionary = registry.getDictionary();
+        System.out.printf("Shared dictionary: %d words and tags, about %.1f MB; estimated model maps: brown %.1f MB, brown-smoothed %.1f MB%n%n",
+                dictionary.size(), dictionary.footprintBytes() / 1e6, registry.get("brown").footprintBytes() / 1e6,
+                registry.get("brown-smoothed").footprintBytes() / 1e6);
+
+        // Serving compiles the models and drops their HashMap forms, so each one only costs its compiled tables, and the
+        // dictionary only its word table, which both compiled models number their words in
+        long mapsBytes = registry.getUsedBytes();
+        for (String name : new String[] {"brown", "brown-smoothed"}) { registry.compiled(name); }
+        long servingHeap = usedHeap() - baseline;
+        System.out.printf("Serving Brown and its variant compiled: %.1f MB of heap, %.1f MB estimated of which the dictionary %.1f MB "
+                        + "(%.1f MB as maps); %d words in the shared word table%n", servingHeap / 1e6, registry.getUsedBytes() / 1e6,
+                registry.getDictionaryBytes() / 1e6, mapsBytes / 1e6, registry.getDictionary().getWords().size());
+
+        // The footprint of every model, compiled, to size a budget with
+        registry.compiled("simple");
+        long allBytes = registry.getUsedBytes();
+        System.out.printf("All three models compiled: %.1f MB estimated%n", allBytes / 1e6);
+
+        // Serve a mixed workload under a budget that fits the simple model and one of the Brown models, but not both of them
+        long budget = allBytes - registry.compiled("brown").footprintBytes() / 2;
+        ModelRegistry bounded = newRegistry(budget);
+        ArrayList<String> lines = MarkovBenchmark.readLines("./PS5/texts/brown-test-sentences.txt");
+        String[] workload = {"brown", "brown", "simple", "brown-smoothed", "brown", "simple", "brown-smoothed", "brown-smoothed", "brown"};
+        Tagger[] expected = {registry.tagger("brown"), registry.tagger("simple"), registry.tagger("brown-smoothed")};
+        int mismatches = 0;
+        start = System.nanoTime();
+        for (String name : workload) {
+            Tagger tagger = bounded.tagger(name);
+            Tagger reference = expected[name.equals("brown") ? 0 : name.equals("simple") ? 1 : 2];
+            for (String line : lines.subList(0, 500)) { if (!Arrays.equals(tagger.tag(line), reference.tag(line))) { mismatches += 1; } }
+            System.out.printf("  %-15s loaded now: %-34s %6.1f of %.1f MB%n", name, bounded.loadedNames(), bounded.getUsedBytes() / 1e6, budget / 1e6);
+        }
+        System.out.printf("%d requests in %.0f ms: %d loads, %d evictions, %d sentences tagged differently from the unbounded registry%n",
+                workload.length, (System.nanoTime() - start) / 1e6, bounded.getLoads(), bounded.getEvictions(), mismatches);
+
+        // Shrinking the budget drops idle models at once
+        bounded.setBudgetBytes(0);
+        System.out.printf("With no budget left: loaded %s, %d bytes used%n", bounded.loadedNames(), bounded.getUsedBytes());
+    }
+
+    /**
+     * @param budgetBytes - The budget of the registry
+     * @return - a registry of the simple model, Brown and a smoothed variant of Brown, none of them loaded
+     */
+    private static ModelRegistry newRegistry(long budgetBytes) {
+        ModelRegistry registry = new ModelRegistry(budgetBytes);
+        registry.register("simple", ModelRegistry.snapshot("./PS5/texts/simple-train.hmm"));
+        registry.register("brown", ModelRegistry.snapshotOrTrain(BROWN_SNAPSHOT, BROWN_WORDS, BROWN_TAGS));
+        registry.register("brown-smoothed", dictionary -> {
+            MarkovModel model = smoothedBrown();
+            model.internStrings(dictionary);
+            return model;
+        });
+        return registry;
+    }
+
+    /**
+     * @return - a variant of Brown trained with add-0.1 smoothing of the transitions
+     */
+    private static MarkovModel smoothedBrown() throws Exception {
+        return MarkovModel.fromCounts(TrainingCounts.countStreaming(BROWN_WORDS, BROWN_TAGS, "#"), 0.1, MarkovModel.DEFAULT_UNSEEN_CONSTANT);
+    }
+
+    /**
+     * @return - the bytes of heap in use after collecting garbage
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) { System.gc(); }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
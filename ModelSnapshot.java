@@ -0,0 +1,351 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Saves a trained MarkovModel to a compact binary file and loads it back, so a model only has to be trained once.
+ * The file holds a tag dictionary, a word dictionary, and the transition and observation log frequencies keyed by their ids.
+ * Loading memory-maps the file and reads the tables straight out of it, without re-parsing any training text.
+ * The file also records the training files the model was trained from, with their sizes and modification times, so
+ * that a snapshot can be told apart from the files it was trained from once they have changed.
+ *
+ * A snapshot is written to a temporary file next to it and only then moved into place, so a save that fails or is
+ * interrupted never leaves a half-written snapshot under the file's name. A file that is cut short or malformed anyway
+ * fails to load with an IOException rather than any other exception.
+ *
+ * Layout, all numbers big-endian:
+ *   int magic, int version,
+ *   int numSources, numSources x (String path, long size, long lastModified),
+ *   String startPOS, double unseenConstant,
+ *   int numTags, String[numTags] tags, int numWords, String[numWords] words,
+ *   for each tag: int count, count x (int nextTagId, double score)   -- transitions
+ *   for each tag: int count, count x (int wordId, double score)      -- observations
+ *   byte hasCounts, and if it is 1 the raw transition and observation frequencies as two more tables in the same layout,
+ *   followed by the counts of the capitalized tokens of every word as a third
+ * where a String is an int byte length followed by its UTF-8 bytes, and a tag with no transitions or observations
+ * has a count of -1 so that it is left out of that map when loaded.
+ * Version 1 files have no raw frequencies; models loaded from them can tag but cannot be updated.
+ * Version 1 and 2 files have no sources, and are never current for any training files.
+ * Files before version 4 have no capitalized counts, so models loaded from them know of no capitalized token.
+ */
+public class ModelSnapshot {
+
+    // "HMMS" in ASCII
+    private static final int MAGIC = 0x484D4D53;
+    private static final int VERSION = 4;
+
+    /**
+     * Writes a model to a snapshot file
+     * @param model - The trained model to save
+     * @param fileName - Name of the file to write
+     * @param sources - The training files the model was trained from, whose sizes and modification times are recorded
+     * @throws IOException if the file cannot be written, in which case any snapshot already in the file is left unchanged
+     */
+    public static void save(MarkovModel model, String fileName, String... sources) throws IOException {
+        File target = new File(fileName).getAbsoluteFile();
+        File temporary = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+        try {
+            write(model, temporary, sources);
+            Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally { temporary.delete(); }
+    }
+
+    /**
+     * Writes the snapshot of a model to a file
+     * @param model - The trained model to save
+     * @param file - The file to write
+     * @param sources - The training files the model was trained from
+     * @throws IOException if the file cannot be written
+     */
+    private static void write(MarkovModel model, File file, String[] sources) throws IOException {
+        HashMap<String,HashMap<String,Double>> transitionsMap = model.getTransitionsMap();
+        HashMap<String,HashMap<String,Double>> observationMap = model.getObservationMap();
+
+        // Number every tag and word in the order they are first found
+        ArrayList<String> tags = new ArrayList<>();
+        HashMap<String,Integer> tagIds = new HashMap<>();
+        internKey(model.getStartPOS(), tags, tagIds);
+        for (String tag : transitionsMap.keySet()) {
+            internKey(tag, tags, tagIds);
+            for (String nextTag : transitionsMap.get(tag).keySet()) { internKey(nextTag, tags, tagIds); }
+        }
+        for (String tag : observationMap.keySet()) { internKey(tag, tags, tagIds); }
+
+        ArrayList<String> words = new ArrayList<>();
+        HashMap<String,Integer> wordIds = new HashMap<>();
+        for (HashMap<String,Double> tagWords : observationMap.values()) {
+            for (String word : tagWords.keySet()) { internKey(word, words, wordIds); }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sources.length);
+            for (String source : sources) {
+                File sourceFile = new File(source);
+                writeString(out, sourceFile.getAbsolutePath());
+                out.writeLong(sourceFile.length());
+                out.writeLong(sourceFile.lastModified());
+            }
+            writeString(out, model.getStartPOS());
+            out.writeDouble(model.getUnseenConstant());
+
+            out.writeInt(tags.size());
+            for (String tag : tags) { writeString(out, tag); }
+            out.writeInt(words.size());
+            for (String word : words) { writeString(out, word); }
+
+            writeTable(out, tags, transitionsMap, tagIds);
+            writeTable(out, tags, observationMap, wordIds);
+
+            // The raw frequencies have the same keys as the maps normalized from them
+            boolean hasCounts = model.getObservationCounts() != null;
+            out.writeByte(hasCounts ? 1 : 0);
+            if (hasCounts) {
+                writeTable(out, tags, model.getTransitionsCounts(), tagIds);
+                writeTable(out, tags, model.getObservationCounts(), wordIds);
+                writeTable(out, tags, model.getCapitalCounts(), wordIds);
+            }
+        }
+    }
+
+    /**
+     * Loads a model from a snapshot file written by save
+     * @param fileName - Name of the snapshot file
+     * @return - the model stored in the file
+     * @throws IOException if the file cannot be read or is not a snapshot of a supported version
+     */
+    public static MarkovModel load(String fileName) throws IOException {
+        return load(fileName, null);
+    }
+
+    /**
+     * Loads a model from a snapshot file written by save, taking its words and tags from a shared dictionary
+     * so that models loaded through the same dictionary share one copy of every String
+     * @param fileName - Name of the snapshot file
+     * @param dictionary - The dictionary to intern every word and tag into, or null to keep the model's own copies
+     * @return - the model stored in the file
+     * @throws IOException if the file cannot be read, is not a snapshot of a supported version, or is cut short or malformed
+     */
+    public static MarkovModel load(String fileName, SharedDictionary dictionary) throws IOException {
+        MappedByteBuffer in = map(fileName);
+        try { return read(in, fileName, dictionary); }
+        catch (BufferUnderflowException | IndexOutOfBoundsException e) { throw malformed(fileName, e); }
+    }
+
+    /**
+     * Reads the model out of a mapped snapshot
+     * @throws IOException if the file is not a snapshot of a supported version
+     * @throws BufferUnderflowException or IndexOutOfBoundsException if the file is cut short or malformed
+     */
+    private static MarkovModel read(MappedByteBuffer in, String fileName, SharedDictionary dictionary) throws IOException {
+        int version = readVersion(in, fileName);
+        if (version >= 3) { readSources(in); }
+
+        String startPOS = readString(in, dictionary);
+        double unseenConstant = in.getDouble();
+
+        String[] tags = new String[readLength(in, 4)];
+        for (int i = 0; i < tags.length; i++) { tags[i] = readString(in, dictionary); }
+        String[] words = new String[readLength(in, 4)];
+        for (int i = 0; i < words.length; i++) { words[i] = readString(in, dictionary); }
+
+        HashMap<String,HashMap<String,Double>> transitionsMap = readTable(in, tags, tags);
+        HashMap<String,HashMap<String,Double>> observationMap = readTable(in, tags, words);
+
+        MarkovModel model = new MarkovModel(startPOS, unseenConstant, observationMap, transitionsMap);
+        if (version >= 2 && in.get() == 1) {
+            HashMap<String,HashMap<String,Double>> transitionsCounts = readTable(in, tags, tags);
+            HashMap<String,HashMap<String,Double>> observationCounts = readTable(in, tags, words);
+            model.restoreCounts(observationCounts, version >= 4 ? readTable(in, tags, words) : new HashMap<>(), transitionsCounts);
+        }
+        return model;
+    }
+
+    /**
+     * Checks whether a snapshot was saved from exactly the given training files, as they are now
+     * @param fileName - Name of the snapshot file
+     * @param sources - The training files the model should have been trained from, in the order they were saved
+     * @return - whether the snapshot exists and records the same files, each with its current size and modification time
+     * @throws IOException if the file exists but cannot be read, is not a snapshot of a supported version, or is cut short
+     */
+    public static boolean isCurrent(String fileName, String... sources) throws IOException {
+        if (!new File(fileName).isFile()) { return false; }
+
+        MappedByteBuffer in = map(fileName);
+        if (readVersion(in, fileName) < 3) { return false; }
+
+        ArrayList<Source> saved;
+        try { saved = readSources(in); }
+        catch (BufferUnderflowException e) { throw malformed(fileName, e); }
+        if (saved.size() != sources.length) { return false; }
+        for (int i = 0; i < sources.length; i++) {
+            File file = new File(sources[i]);
+            Source source = saved.get(i);
+            if (!source.path.equals(file.getAbsolutePath()) || source.size != file.length() || source.lastModified != file.lastModified()) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * Memory-maps a whole snapshot file
+     */
+    private static MappedByteBuffer map(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Reads the magic number and version at the start of a snapshot
+     * @return - the version
+     * @throws IOException if the file is not a snapshot of a supported version
+     */
+    private static int readVersion(ByteBuffer in, String fileName) throws IOException {
+        if (in.remaining() < 8 || in.getInt() != MAGIC) { throw new IOException(fileName + " is not a model snapshot"); }
+        int version = in.getInt();
+        if (version < 1 || version > VERSION) { throw new IOException("Unsupported snapshot version " + version + " in " + fileName); }
+        return version;
+    }
+
+    /**
+     * Reads a count of items stored after it, checking that the file is long enough to hold them
+     * @param in - The mapped snapshot, positioned at the count
+     * @param bytesEach - The fewest bytes an item takes
+     * @return - the count
+     * @throws BufferUnderflowException if the count is negative or the rest of the file is too short for it
+     */
+    private static int readLength(ByteBuffer in, int bytesEach) {
+        int length = in.getInt();
+        if (length < 0 || (long) length * bytesEach > in.remaining()) { throw new BufferUnderflowException(); }
+        return length;
+    }
+
+    /**
+     * @return - the exception reporting that a snapshot is cut short or malformed
+     */
+    private static IOException malformed(String fileName, RuntimeException cause) {
+        return new IOException(fileName + " is cut short or malformed", cause);
+    }
+
+    /**
+     * Reads the training files recorded by save
+     * @param in - The mapped snapshot, positioned after its version
+     * @return - each training file with the size and modification time it had when the snapshot was saved
+     */
+    private static ArrayList<Source> readSources(ByteBuffer in) {
+        ArrayList<Source> sources = new ArrayList<>();
+        int count = readLength(in, 20);
+        for (int i = 0; i < count; i++) { sources.add(new Source(readString(in, null), in.getLong(), in.getLong())); }
+        return sources;
+    }
+
+    /**
+     * Gives a key the next id if it does not have one yet
+     * @param key - The tag or word
+     * @param keys - The list of keys in id order
+     * @param ids - The map of each key to its id
+     */
+    private static void internKey(String key, ArrayList<String> keys, HashMap<String,Integer> ids) {
+        if (!ids.containsKey(key)) {
+            ids.put(key, keys.size());
+            keys.add(key);
+        }
+    }
+
+    /**
+     * Writes a transitions or observations map as one list of (id, score) pairs per tag
+     * @param out - The output to write to
+     * @param tags - Every tag in id order
+     * @param table - The map of each tag to its scores
+     * @param valueIds - The ids of the keys of the inner maps
+     * @throws IOException if writing fails
+     */
+    private static void writeTable(DataOutputStream out, ArrayList<String> tags, HashMap<String,HashMap<String,Double>> table,
+                                   HashMap<String,Integer> valueIds) throws IOException {
+        for (String tag : tags) {
+            HashMap<String,Double> row = table.get(tag);
+            if (row == null) { out.writeInt(-1); continue; }
+
+            out.writeInt(row.size());
+            for (String key : row.keySet()) {
+                out.writeInt(valueIds.get(key));
+                out.writeDouble(row.get(key));
+            }
+        }
+    }
+
+    /**
+     * Reads a table written by writeTable
+     * @param in - The mapped snapshot, positioned at the table
+     * @param tags - Every tag in id order
+     * @param values - Every key of the inner maps in id order
+     * @return - the map of each tag to its scores
+     */
+    private static HashMap<String,HashMap<String,Double>> readTable(ByteBuffer in, String[] tags, String[] values) {
+        HashMap<String,HashMap<String,Double>> table = new HashMap<>();
+        for (String tag : tags) {
+            // A row of -1 is a tag left out of the map
+            in.mark();
+            if (in.getInt() == -1) { continue; }
+            in.reset();
+            int count = readLength(in, 12);
+
+            // Size the row up front so it never has to rehash
+            HashMap<String,Double> row = new HashMap<>((int) (count / 0.75) + 1);
+            for (int i = 0; i < count; i++) {
+                String key = values[in.getInt()];
+                row.put(key, in.getDouble());
+            }
+            table.put(tag, row);
+        }
+        return table;
+    }
+
+    /**
+     * Writes a String as its UTF-8 byte length followed by its bytes
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a String written by writeString, as the dictionary's copy of it if there is a dictionary
+     */
+    private static String readString(ByteBuffer in, SharedDictionary dictionary) {
+        byte[] bytes = new byte[readLength(in, 1)];
+        in.get(bytes);
+        String value = new String(bytes, StandardCharsets.UTF_8);
+        return dictionary == null ? value : dictionary.intern(value);
+    }
+
+    /**
+     * A training file as it was when a snapshot was saved from it
+     */
+    private static class Source {
+        final String path;
+        final long size, lastModified;
+
+        Source(String path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A driver class for QuantizedMarkovModel. It compares the full-precision compiled Brown model with its 16- and 8-bit
+ * forms on the test set: accuracy and its change, how many tags differ from the full-precision ones, decoding speed,
+ * the size of the score tables, and everything each form keeps, including the lexicon a quantized model shares with
+ * the compiled one. The heap taken by MarkovModel's HashMaps is measured for reference.
+ */
+public class QuantizedDriver {
+
+    private static final String TEST_WORDS = "./PS5/texts/brown-test-sentences.txt";
+    private static final String TEST_TAGS = "./PS5/texts/brown-test-tags.txt";
+
+    public static void main(String[] args) throws Exception {
+        long before = usedHeap();
+        MarkovModel markovTester = new MarkovModel("./PS5/texts/brown-train-sentences.txt", "./PS5/texts/brown-train-tags.txt");
+        long mapBytes = usedHeap() - before;
+        CompiledMarkovModel compiled = markovTester.compile();
+        int numTags = compiled.numTags(), numWords = compiled.numWords();
+        System.out.printf("%d tags, %d words. MarkovModel with its HashMaps: about %.1f MB of heap%n%n", numTags, numWords, mapBytes / 1e6);
+
+        ArrayList<String> lines = MarkovBenchmark.readLines(TEST_WORDS);
+        String[][] fullTags = new String[lines.size()][];
+        for (int i = 0; i < lines.size(); i++) { fullTags[i] = compiled.tag(lines.get(i)); }
+
+        // Time every form in turn over several rounds, keeping the last, so they are all equally warmed up
+        int[] allBits = {64, 16, 8};
+        Tagger[] taggers = {compiled, compiled.quantize(16), compiled.quantize(8)};
+        double[] speeds = new double[taggers.length];
+        for (int round = 0; round < 5; round++) {
+            for (int k = 0; k < taggers.length; k++) { speeds[k] = sentencesPerSecond(taggers[k], lines); }
+        }
+
+        double fullAccuracy = 0;
+        for (int k = 0; k < taggers.length; k++) {
+            int bits = allBits[k];
+            Tagger tagger = taggers[k];
+            EvaluationResult result = new TaggingEvaluator(tagger, 1, word -> compiled.wordId(word.toLowerCase()) >= 0)
+                    .evaluate(TEST_WORDS, TEST_TAGS);
+            if (bits == 64) { fullAccuracy = result.accuracy(); }
+
+            long changed = 0;
+            for (int i = 0; i < lines.size(); i++) {
+                String[] tags = tagger.tag(lines.get(i));
+                for (int w = 0; w < tags.length; w++) { if (!tags[w].equals(fullTags[i][w])) { changed += 1; } }
+            }
+
+            long transitionBytes, observationBytes, keptBytes;
+            String name;
+            if (bits == 64) {
+                name = "Full precision";
+                transitionBytes = (long) numTags * numTags * Double.BYTES;
+                observationBytes = compiled.getLexicon().footprintBytes();
+                keptBytes = compiled.footprintBytes();
+            }
+            else {
+                QuantizedMarkovModel quantized = (QuantizedMarkovModel) tagger;
+                name = String.format("%d-bit, step %.5f", bits, quantized.getStep());
+                transitionBytes = quantized.transitionBytes();
+                observationBytes = quantized.observationBytes();
+                keptBytes = quantized.footprintBytes();
+            }
+            System.out.printf("%-24s accuracy %.3f%% (%+.3f points), %d tags changed, %.0f sentences/sec, "
+                            + "transitions %d bytes, observations %.2f MB, %.2f MB kept in all%n", name, 100 * result.accuracy(),
+                    100 * (result.accuracy() - fullAccuracy), changed, speeds[k], transitionBytes, observationBytes / 1e6, keptBytes / 1e6);
+        }
+        System.out.println("Scores per cache line: " + Arrays.toString(new int[] {64 / Double.BYTES, 64 / Short.BYTES, 64 / Byte.BYTES})
+                + " for double, 16-bit and 8-bit");
+    }
+
+    /**
+     * @return - the sentences a tagger tags per second, over three passes of the test set
+     */
+    private static double sentencesPerSecond(Tagger tagger, ArrayList<String> lines) {
+        long start = System.nanoTime();
+        for (int pass = 0; pass < 3; pass++) { for (String line : lines) { tagger.tag(line); } }
+        return 3.0 * lines.size() / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * @return - the bytes of heap in use after garbage collection
+     */
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) { System.gc(); }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
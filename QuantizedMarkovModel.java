@@ -0,0 +1,340 @@
+import java.util.Arrays;
+
+/**
+ * A compiled model whose transition and observation log frequencies are rounded to 8- or 16-bit fixed point.
+ * Every score becomes an unsigned cost, its distance below log 1 in steps of one shared size, so the whole transition
+ * matrix is a few KB and an observation row is one or two bytes per tag instead of eight. The Viterbi algorithm adds
+ * the costs as longs and keeps the cheapest path, which is the most likely one up to rounding.
+ * The largest code stands for the unseen constant, whose cost is usually far larger than the codes can hold.
+ * The observation codes follow the rows of the compiled model's lexicon, one per tag a word was seen with, and every
+ * other tag of the word costs the unseen constant.
+ * Only the lexicon, for the word ids and the tags of each row, and the unknown-word model are kept from the compiled
+ * model, so its double tables can be collected once it is no longer used.
+ * The tables never change once built, so one quantized model can be shared by any number of threads.
+ */
+public class QuantizedMarkovModel implements Tagger {
+
+    // The cost of a state that cannot be reached
+    private static final long IMPOSSIBLE = Long.MAX_VALUE;
+
+    private final CompactLexicon lexicon;
+    // Scores words that were never observed, or null to give them unseenWordCosts
+    private final UnknownWordModel unknownWords;
+    private final int bits;
+    private final int numTags;
+    // The size of one step of cost, in log frequency
+    private final double step;
+    // The code for the unseen constant, and for a transition that was never seen, and the cost of the unseen constant
+    private final int unseenCode;
+    private final long unseenCost;
+    // The rounded cost of a word that was never observed under every tag, when there is no unknown-word model
+    private final long[] unseenWordCosts;
+
+    // transitions[from * numTags + to] holds the codes of the transitions, and observations the codes of the lexicon's
+    // scores in the same order as its pairs of tag and score, in bytes or shorts by bits
+    private final byte[] transitions8, observations8;
+    private final short[] transitions16, observations16;
+    // successors[from] lists every tag that can follow the from tag
+    private final int[][] successors;
+
+    // Reusable per-thread cost and backpointer arrays
+    private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+    /**
+     * Quantizes the tables of a compiled model
+     * @param model - The compiled model
+     * @param bits - The size of a code, 8 or 16
+     */
+    QuantizedMarkovModel(CompiledMarkovModel model, int bits) {
+        if (bits != 8 && bits != 16) { throw new IllegalArgumentException("Scores can only be quantized to 8 or 16 bits"); }
+        lexicon = model.getLexicon();
+        unknownWords = model.getUnknownWordModel();
+        this.bits = bits;
+        numTags = model.numTags();
+        int numWords = lexicon.wordIdLimit();
+        double unseenConstant = model.getUnseenConstant();
+
+        // One step size for both tables, so that the codes of a transition and an observation can be added
+        double largest = 0;
+        for (int from = 0; from < numTags; from++) {
+            for (int to = 0; to < numTags; to++) {
+                double score = model.transitionScore(from, to);
+                if (score != Double.NEGATIVE_INFINITY) { largest = Math.max(largest, -score); }
+            }
+        }
+        for (int word = 0; word < numWords; word++) {
+            for (int k = 0; k < lexicon.tagCount(word); k++) { largest = Math.max(largest, -lexicon.scoreAt(word, k)); }
+        }
+        unseenCode = (1 << bits) - 1;
+        step = largest == 0 ? 1 : largest / (unseenCode - 1);
+        unseenCost = Math.round(-unseenConstant / step);
+        unseenWordCosts = new long[numTags];
+        for (int tag = 0; tag < numTags; tag++) { unseenWordCosts[tag] = Math.round(-model.observationScore(-1, tag) / step); }
+
+        int[] transitionCodes = new int[numTags * numTags];
+        successors = new int[numTags][];
+        for (int from = 0; from < numTags; from++) {
+            int count = 0;
+            int[] fromSuccessors = new int[numTags];
+            for (int to = 0; to < numTags; to++) {
+                double score = model.transitionScore(from, to);
+                if (score == Double.NEGATIVE_INFINITY) { transitionCodes[from * numTags + to] = unseenCode; }
+                else {
+                    transitionCodes[from * numTags + to] = code(score);
+                    fromSuccessors[count++] = to;
+                }
+            }
+            successors[from] = Arrays.copyOf(fromSuccessors, count);
+        }
+
+        int[] observationCodes = new int[lexicon.rowStart(numWords)];
+        for (int word = 0; word < numWords; word++) {
+            for (int k = 0; k < lexicon.tagCount(word); k++) { observationCodes[lexicon.rowStart(word) + k] = code(lexicon.scoreAt(word, k)); }
+        }
+
+        if (bits == 8) {
+            transitions8 = toBytes(transitionCodes);
+            observations8 = toBytes(observationCodes);
+            transitions16 = observations16 = null;
+        }
+        else {
+            transitions16 = toShorts(transitionCodes);
+            observations16 = toShorts(observationCodes);
+            transitions8 = observations8 = null;
+        }
+    }
+
+    /**
+     * @return - the code of a score seen in training, at most one below the unseen code
+     */
+    private int code(double score) {
+        return (int) Math.min(unseenCode - 1, Math.round(-score / step));
+    }
+
+    private static byte[] toBytes(int[] codes) {
+        byte[] bytes = new byte[codes.length];
+        for (int i = 0; i < codes.length; i++) { bytes[i] = (byte) codes[i]; }
+        return bytes;
+    }
+
+    private static short[] toShorts(int[] codes) {
+        short[] shorts = new short[codes.length];
+        for (int i = 0; i < codes.length; i++) { shorts[i] = (short) codes[i]; }
+        return shorts;
+    }
+
+    /**
+     * Run the Viterbi algorithm on a line of text over the quantized tables
+     * @param line - String line of text to be tagged, with words separated by a " "
+     * @return - the array of String parts of speech in order from the start to the end of the sentence
+     */
+    public String[] viterbiAlgo(String line) {
+        String[] eachObservation = line.split(" ");
+        int length = eachObservation.length;
+        Buffers buf = buffers.get();
+        buf.ensureCapacity(length, numTags);
+        for (int i = 0; i < length; i++) { buf.wordIds[i] = lexicon.wordId(eachObservation[i].toLowerCase()); }
+
+        int[] tags = buf.tagIds;
+        decode(buf, eachObservation, length, tags);
+        String[] tagNames = new String[length];
+        for (int i = 0; i < length; i++) { tagNames[i] = tags[i] < 0 ? null : lexicon.tagName(tags[i]); }
+        return tagNames;
+    }
+
+    /**
+     * Tags a line of text using the quantized Viterbi algorithm
+     * @param line - String line of text to be tagged
+     * @return - the array of String parts of speech in order from the start to the end of the sentence
+     */
+    public String[] tag(String line) {
+        return viterbiAlgo(line);
+    }
+
+    /**
+     * The Viterbi algorithm over the word ids in the buffers, keeping the cheapest path to every state
+     * @param words - The words of the sentence, to score the ones that were never observed
+     * @param tagsOut - Array receiving the id of the most likely tag of each word, -1 if no tag can be reached
+     */
+    private void decode(Buffers buf, String[] words, int length, int[] tagsOut) {
+        long[] currCosts = buf.currCosts;
+        long[] nextCosts = buf.nextCosts;
+        long[] emissions = buf.emissions;
+        int[] backPointers = buf.backPointers;
+
+        Arrays.fill(currCosts, IMPOSSIBLE);
+        currCosts[CompiledMarkovModel.START_ID] = 0;
+
+        for (int i = 0; i < length; i++) {
+            int word = buf.wordIds[i];
+            if (word >= 0) {
+                Arrays.fill(emissions, 0, numTags, unseenCost);
+                int pair = lexicon.rowStart(word);
+                for (int k = 0; k < lexicon.tagCount(word); k++) { emissions[lexicon.tagAt(word, k)] = observationCode(pair + k); }
+            }
+            else if (unknownWords == null) { System.arraycopy(unseenWordCosts, 0, emissions, 0, numTags); }
+            else {
+                double[] scores = unknownWords.scores(words[i]);
+                for (int tag = 0; tag < numTags; tag++) {
+                    emissions[tag] = Math.round(-scores[tag] / step);
+                }
+            }
+
+            if (bits == 8) { step8(currCosts, emissions, nextCosts, backPointers, i * numTags); }
+            else { step16(currCosts, emissions, nextCosts, backPointers, i * numTags); }
+
+            long[] swap = currCosts;
+            currCosts = nextCosts;
+            nextCosts = swap;
+        }
+
+        // Follow the cheapest final state back, the lowest one among ties as in CompiledMarkovModel
+        int probableTag = -1;
+        long probableCost = IMPOSSIBLE;
+        for (int tag = 0; tag < numTags; tag++) {
+            if (currCosts[tag] < probableCost) {
+                probableTag = tag;
+                probableCost = currCosts[tag];
+            }
+        }
+        if (probableTag < 0) {
+            Arrays.fill(tagsOut, 0, length, -1);
+            return;
+        }
+        if (length > 0) { tagsOut[length - 1] = probableTag; }
+        for (int i = length - 1; i > 0; i--) { tagsOut[i - 1] = backPointers[i * numTags + tagsOut[i]]; }
+    }
+
+    /**
+     * One word of the Viterbi algorithm over 8-bit transitions: the cheapest way to every state from the previous ones.
+     * The 8- and 16-bit steps are the same but for the table, so neither has to choose a table for every transition.
+     */
+    private void step8(long[] currCosts, long[] emissions, long[] nextCosts, int[] backPointers, int backBase) {
+        byte[] transitions = transitions8;
+        Arrays.fill(nextCosts, IMPOSSIBLE);
+        for (int from = 0; from < numTags; from++) {
+            long fromCost = currCosts[from];
+            if (fromCost == IMPOSSIBLE) { continue; }
+
+            int transBase = from * numTags;
+            for (int to : successors[from]) {
+                long nextCost = fromCost + (transitions[transBase + to] & 0xFF) + emissions[to];
+                if (nextCost < nextCosts[to]) {
+                    nextCosts[to] = nextCost;
+                    backPointers[backBase + to] = from;
+                }
+            }
+        }
+    }
+
+    /**
+     * One word of the Viterbi algorithm over 16-bit transitions, like step8
+     */
+    private void step16(long[] currCosts, long[] emissions, long[] nextCosts, int[] backPointers, int backBase) {
+        short[] transitions = transitions16;
+        Arrays.fill(nextCosts, IMPOSSIBLE);
+        for (int from = 0; from < numTags; from++) {
+            long fromCost = currCosts[from];
+            if (fromCost == IMPOSSIBLE) { continue; }
+
+            int transBase = from * numTags;
+            for (int to : successors[from]) {
+                long nextCost = fromCost + (transitions[transBase + to] & 0xFFFF) + emissions[to];
+                if (nextCost < nextCosts[to]) {
+                    nextCosts[to] = nextCost;
+                    backPointers[backBase + to] = from;
+                }
+            }
+        }
+    }
+
+    private int transitionCode(int index) {
+        return bits == 8 ? transitions8[index] & 0xFF : transitions16[index] & 0xFFFF;
+    }
+
+    private int observationCode(int index) {
+        return bits == 8 ? observations8[index] & 0xFF : observations16[index] & 0xFFFF;
+    }
+
+    /**
+     * @param from - The id of a tag
+     * @param to - The id of the tag after it
+     * @return - the rounded log frequency of the transition, negative infinity if it was never seen
+     */
+    public double transitionScore(int from, int to) {
+        int code = transitionCode(from * numTags + to);
+        return code == unseenCode ? Double.NEGATIVE_INFINITY : -code * step;
+    }
+
+    /**
+     * @param word - The id of a word, -1 if it was never observed
+     * @param tag - The id of a tag
+     * @return - the rounded log frequency of the word under the tag, the rounded unseen constant if it was never seen
+     * with the tag, or for a word never observed the compiled model's score of it rounded as decoding rounds it
+     */
+    public double observationScore(int word, int tag) {
+        if (word < 0) { return -unseenWordCosts[tag] * step; }
+        for (int k = 0; k < lexicon.tagCount(word); k++) {
+            if (lexicon.tagAt(word, k) == tag) { return -observationCode(lexicon.rowStart(word) + k) * step; }
+        }
+        return -unseenCost * step;
+    }
+
+    /**
+     * @return - the size of a code, 8 or 16 bits
+     */
+    public int getBits() { return bits; }
+
+    /**
+     * @return - the log frequency of one step of cost
+     */
+    public double getStep() { return step; }
+
+    /**
+     * @return - the bytes of the transition table
+     */
+    public long transitionBytes() { return (long) numTags * numTags * bits / 8; }
+
+    /**
+     * @return - the bytes of the observation codes
+     */
+    public long observationBytes() { return (long) lexicon.rowStart(lexicon.wordIdLimit()) * bits / 8; }
+
+    /**
+     * @return - the bytes the quantized model keeps: its codes, the successor lists, and the lexicon it shares with the
+     * compiled model, counted with the lexicon's accounting, but not the per-thread buffers or the unknown-word model
+     */
+    public long footprintBytes() {
+        long bytes = CompactLexicon.arrayBytes((long) numTags * numTags, bits / 8) + CompactLexicon.arrayBytes(lexicon.rowStart(lexicon.wordIdLimit()), bits / 8)
+                + CompactLexicon.arrayBytes(unseenWordCosts.length, 8) + CompactLexicon.arrayBytes(successors.length, 4);
+        for (int[] fromSuccessors : successors) { bytes += CompactLexicon.arrayBytes(fromSuccessors.length, 4); }
+        return bytes + lexicon.footprintBytes();
+    }
+
+    /**
+     * The cost and backpointer arrays reused by one thread across sentences.
+     * They only ever grow, to fit the longest sentence seen so far.
+     */
+    private static class Buffers {
+        long[] currCosts = new long[0];
+        long[] nextCosts = new long[0];
+        long[] emissions = new long[0];
+        int[] backPointers = new int[0];
+        int[] wordIds = new int[0];
+        int[] tagIds = new int[0];
+
+        void ensureCapacity(int length, int numTags) {
+            if (currCosts.length < numTags) {
+                currCosts = new long[numTags];
+                nextCosts = new long[numTags];
+                emissions = new long[numTags];
+            }
+            if (backPointers.length < length * numTags) { backPointers = new int[Math.max(length * numTags, backPointers.length * 2)]; }
+            if (wordIds.length < length) {
+                int size = Math.max(length, wordIds.length * 2);
+                wordIds = new int[size];
+                tagIds = new int[size];
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+import java.util.Arrays;
+
+/**
+ * The Viterbi step as plain loops, visiting the next tags of one previous tag at a time
+ */
+public class ScalarViterbiKernel implements ViterbiKernel {
+
+    static final ScalarViterbiKernel INSTANCE = new ScalarViterbiKernel();
+
+    private ScalarViterbiKernel() { }
+
+    public void step(double[] currScores, double[] transitions, double[] observed, int obsBase, int numTags,
+                     double[] nextScores, int[] backPointers, int backBase) {
+        Arrays.fill(nextScores, 0, numTags, Double.NEGATIVE_INFINITY);
+        for (int from = 0; from < numTags; from++) {
+            double fromScore = currScores[from];
+            if (fromScore == Double.NEGATIVE_INFINITY) { continue; }
+
+            int transBase = from * numTags;
+            for (int to = 0; to < numTags; to++) {
+                double nextScore = fromScore + transitions[transBase + to] + observed[obsBase + to];
+                if (nextScore > nextScores[to]) {
+                    nextScores[to] = nextScore;
+                    backPointers[backBase + to] = from;
+                }
+            }
+        }
+    }
+
+    public String name() { return "scalar"; }
+}
@@ -0,0 +1,239 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates random sentences, with their tags, from a trained MarkovModel in bulk.
+ * Each part of speech gets a Walker alias table over its next parts of speech and another over its words, built once
+ * from the probabilities in the transitions and observations maps, so drawing a tag or a word takes constant time.
+ * Sentences are generated in fixed-size chunks, each with its own random generator derived from the seed and the chunk
+ * number, so the output for a given seed is the same no matter how many workers generate it.
+ */
+public class SentenceGenerator {
+
+    // Sentences per chunk handed to a worker
+    private static final int CHUNK_SIZE = 1024;
+    // Longest sentence generated, in case a sentence never reaches an end tag
+    private static final int MAX_WORDS = 200;
+
+    private final String[] tagNames;
+    private final int startId;
+    private final int endId;
+    // Tables of each tag, null if the tag has no transitions or no words
+    private final AliasTable[] transitionTables;
+    private final int[][] transitionTags;
+    private final AliasTable[] observationTables;
+    private final String[][] observationWords;
+
+    /**
+     * Builds the sampling tables of a trained model
+     * @param model - The trained model, whose maps hold log frequencies
+     */
+    public SentenceGenerator(MarkovModel model) {
+        HashMap<String,HashMap<String,Double>> transitionsMap = model.getTransitionsMap();
+        HashMap<String,HashMap<String,Double>> observationMap = model.getObservationMap();
+
+        // Number every tag in sorted order, the start tag first, so the tables do not depend on map iteration order
+        TreeSet<String> tags = new TreeSet<>(transitionsMap.keySet());
+        for (HashMap<String,Double> nextTags : transitionsMap.values()) { tags.addAll(nextTags.keySet()); }
+        tags.addAll(observationMap.keySet());
+        tags.add(".");
+        tags.remove(model.getStartPOS());
+
+        tagNames = new String[tags.size() + 1];
+        tagNames[0] = model.getStartPOS();
+        HashMap<String,Integer> tagIds = new HashMap<>();
+        tagIds.put(tagNames[0], 0);
+        for (String tag : tags) {
+            tagNames[tagIds.size()] = tag;
+            tagIds.put(tag, tagIds.size());
+        }
+        startId = 0;
+        endId = tagIds.get(".");
+
+        transitionTables = new AliasTable[tagNames.length];
+        transitionTags = new int[tagNames.length][];
+        observationTables = new AliasTable[tagNames.length];
+        observationWords = new String[tagNames.length][];
+        for (int tag = 0; tag < tagNames.length; tag++) {
+            HashMap<String,Double> nextTags = transitionsMap.get(tagNames[tag]);
+            if (nextTags != null && !nextTags.isEmpty()) {
+                transitionTags[tag] = new int[nextTags.size()];
+                double[] probabilities = new double[nextTags.size()];
+                int i = 0;
+                for (String nextTag : new TreeSet<>(nextTags.keySet())) {
+                    transitionTags[tag][i] = tagIds.get(nextTag);
+                    probabilities[i++] = Math.exp(nextTags.get(nextTag));
+                }
+                transitionTables[tag] = new AliasTable(probabilities);
+            }
+
+            HashMap<String,Double> words = observationMap.get(tagNames[tag]);
+            if (words != null && !words.isEmpty()) {
+                observationWords[tag] = new String[words.size()];
+                double[] probabilities = new double[words.size()];
+                int i = 0;
+                for (String word : new TreeSet<>(words.keySet())) {
+                    observationWords[tag][i] = word;
+                    probabilities[i++] = Math.exp(words.get(word));
+                }
+                observationTables[tag] = new AliasTable(probabilities);
+            }
+        }
+    }
+
+    /**
+     * Generates one sentence, stopping at the end tag "."
+     * @param random - The random generator to draw from
+     * @param sentence - Receives the words, separated by a " "
+     * @param tags - Receives the tags, separated by a " ", or null if they are not wanted
+     */
+    public void generateSentence(SplittableRandom random, StringBuilder sentence, StringBuilder tags) {
+        int tag = startId;
+        for (int i = 0; i < MAX_WORDS && tag != endId && transitionTables[tag] != null; i++) {
+            tag = transitionTags[tag][transitionTables[tag].sample(random)];
+            if (observationTables[tag] == null) { break; }
+
+            if (i > 0) {
+                sentence.append(' ');
+                if (tags != null) { tags.append(' '); }
+            }
+            sentence.append(observationWords[tag][observationTables[tag].sample(random)]);
+            if (tags != null) { tags.append(tagNames[tag]); }
+        }
+    }
+
+    /**
+     * @param random - The random generator to draw from
+     * @return - one generated sentence
+     */
+    public String generateSentence(SplittableRandom random) {
+        StringBuilder sentence = new StringBuilder();
+        generateSentence(random, sentence, null);
+        return sentence.toString();
+    }
+
+    /**
+     * Generates many sentences in parallel and writes them, one per line, in the same format as the training files
+     * @param count - The number of sentences to generate
+     * @param seed - The seed; the same seed always gives the same sentences
+     * @param workers - The number of worker threads
+     * @param sentenceOut - Receives the sentences as UTF-8
+     * @param tagOut - Receives the tags of each sentence as UTF-8, or null if they are not wanted
+     * @throws IOException if writing fails
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public void generate(long count, long seed, int workers, OutputStream sentenceOut, OutputStream tagOut)
+            throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            ArrayDeque<Future<byte[][]>> inFlight = new ArrayDeque<>();
+            long chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            for (long chunk = 0; chunk < chunks; chunk++) {
+                long chunkIndex = chunk;
+                int chunkCount = (int) Math.min(CHUNK_SIZE, count - chunk * CHUNK_SIZE);
+                inFlight.add(pool.submit(() -> generateChunk(seed, chunkIndex, chunkCount, tagOut != null)));
+
+                // Write out the oldest chunk once enough are queued, keeping memory bounded
+                if (inFlight.size() >= workers * 4) { writeChunk(inFlight.poll(), sentenceOut, tagOut); }
+            }
+            while (!inFlight.isEmpty()) { writeChunk(inFlight.poll(), sentenceOut, tagOut); }
+            sentenceOut.flush();
+            if (tagOut != null) { tagOut.flush(); }
+        }
+        finally { pool.shutdownNow(); }
+    }
+
+    /**
+     * Generates one chunk of sentences with the chunk's own random generator
+     * @return - the UTF-8 bytes of the sentences and of their tags
+     */
+    private byte[][] generateChunk(long seed, long chunkIndex, int chunkCount, boolean withTags) {
+        SplittableRandom random = new SplittableRandom(seed + chunkIndex * 0x9E3779B97F4A7C15L);
+        StringBuilder sentences = new StringBuilder(chunkCount * 64);
+        StringBuilder tags = withTags ? new StringBuilder(chunkCount * 32) : null;
+        for (int i = 0; i < chunkCount; i++) {
+            StringBuilder sentence = new StringBuilder();
+            StringBuilder sentenceTags = withTags ? new StringBuilder() : null;
+            generateSentence(random, sentence, sentenceTags);
+            sentences.append(sentence).append('\n');
+            if (withTags) { tags.append(sentenceTags).append('\n'); }
+        }
+        return new byte[][] {sentences.toString().getBytes(StandardCharsets.UTF_8),
+                withTags ? tags.toString().getBytes(StandardCharsets.UTF_8) : null};
+    }
+
+    /**
+     * Waits for a chunk and writes it
+     */
+    private void writeChunk(Future<byte[][]> chunk, OutputStream sentenceOut, OutputStream tagOut) throws IOException, InterruptedException {
+        byte[][] bytes;
+        try { bytes = chunk.get(); }
+        catch (ExecutionException e) { throw new IOException("Generating sentences failed", e.getCause()); }
+        sentenceOut.write(bytes[0]);
+        if (tagOut != null) { tagOut.write(bytes[1]); }
+    }
+
+    /**
+     * Walker's alias method: after linear-time setup, draws an outcome from a discrete distribution in constant time
+     * by picking a column uniformly and then either the column itself or its alias.
+     */
+    static class AliasTable {
+        private final double[] probability;
+        private final int[] alias;
+
+        /**
+         * @param weights - The weight of each outcome; they do not need to sum to one
+         */
+        AliasTable(double[] weights) {
+            int n = weights.length;
+            probability = new double[n];
+            alias = new int[n];
+
+            double total = 0;
+            for (double weight : weights) { total += weight; }
+
+            // Split the outcomes into columns that are under-full and over-full at an average height of one
+            double[] scaled = new double[n];
+            int[] small = new int[n];
+            int[] large = new int[n];
+            int smallCount = 0, largeCount = 0;
+            for (int i = 0; i < n; i++) {
+                scaled[i] = weights[i] * n / total;
+                if (scaled[i] < 1.0) { small[smallCount++] = i; }
+                else { large[largeCount++] = i; }
+            }
+
+            // Top up each under-full column with part of an over-full one
+            while (smallCount > 0 && largeCount > 0) {
+                int less = small[--smallCount];
+                int more = large[--largeCount];
+                probability[less] = scaled[less];
+                alias[less] = more;
+                scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+                if (scaled[more] < 1.0) { small[smallCount++] = more; }
+                else { large[largeCount++] = more; }
+            }
+            // Whatever is left is full, up to rounding
+            while (largeCount > 0) { probability[large[--largeCount]] = 1.0; }
+            while (smallCount > 0) { probability[small[--smallCount]] = 1.0; }
+        }
+
+        /**
+         * @param random - The random generator to draw from
+         * @return - the index of the drawn outcome
+         */
+        int sample(SplittableRandom random) {
+            int column = random.nextInt(probability.length);
+            return random.nextDouble() < probability[column] ? column : alias[column];
+        }
+    }
+}
@@ -0,0 +1,37 @@
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+/**
+ * A driver class that generates synthetic Brown-like sentences and tags in bulk with the alias table generator,
+ * and compares its speed with generateRandomSentence.
+ * Usage: java SentenceGeneratorDriver [count] [seed] [sentenceFile] [tagFile]
+ */
+public class SentenceGeneratorDriver {
+    public static void main(String[] args) throws Exception {
+        long count = args.length > 0 ? Long.parseLong(args[0]) : 100000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+        String sentenceFile = args.length > 2 ? args[2] : "generated-sentences.txt";
+        String tagFile = args.length > 3 ? args[3] : "generated-tags.txt";
+
+        MarkovModel markovTester = MarkovModel.loadOrTrain("./PS5/texts/brown-train.hmm", "./PS5/texts/brown-train-sentences.txt", "./PS5/texts/brown-train-tags.txt");
+        SentenceGenerator generator = new SentenceGenerator(markovTester);
+
+        // The original generator, for comparison
+        int samples = 20;
+        long start = System.nanoTime();
+        for (int i = 0; i < samples; i++) { markovTester.generateRandomSentence(); }
+        double originalRate = samples / ((System.nanoTime() - start) / 1e9);
+
+        start = System.nanoTime();
+        try (OutputStream sentences = new BufferedOutputStream(new FileOutputStream(sentenceFile));
+             OutputStream tags = new BufferedOutputStream(new FileOutputStream(tagFile))) {
+            generator.generate(count, seed, Runtime.getRuntime().availableProcessors(), sentences, tags);
+        }
+        double aliasRate = count / ((System.nanoTime() - start) / 1e9);
+
+        System.out.println("Wrote " + count + " sentences to " + sentenceFile + " and their tags to " + tagFile);
+        System.out.printf("generateRandomSentence: %.1f sentences/sec%n", originalRate);
+        System.out.printf("Alias table generator: %.1f sentences/sec (%.0fx)%n", aliasRate, aliasRate / originalRate);
+    }
+}
@@ -0,0 +1,204 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads a file of sentences one line at a time into a reusable char buffer, and splits each line into words by
+ * recording where every word starts and ends, instead of creating a String per line and per word.
+ *
+ * Words are split exactly like String.split(" "): on every single space, keeping empty words between two spaces, and
+ * dropping empty words at the end of the line, except that an empty line is one empty word. Line breaks may be "\n"
+ * or "\r\n". Punctuation such as `` and '' is an ordinary word. The line is also lowercased into a second buffer, so a
+ * word can be looked up in a CompactLexicon as a slice while its original case stays available. Lowercasing goes char
+ * by char, which agrees with String.toLowerCase for every char whose lowercase form is a single char.
+ *
+ * A reader is not thread-safe; every thread reading a file needs its own.
+ */
+public class SentenceReader implements AutoCloseable {
+
+    private final Reader input;
+    // The chars read so far; the current line is chars[lineStart] up to lineEnd, and chars up to limit are read
+    private char[] chars = new char[1 << 16];
+    private int lineStart, lineEnd, limit, nextLine;
+    private boolean endOfInput;
+
+    // The lowercased current line: lowerChars[i] is the lowercase form of chars[lineStart + i]
+    private char[] lowerChars = new char[256];
+    // Word w of the current line is chars[lineStart + wordStart[w]] up to lineStart + wordEnd[w]
+    private int[] wordStart = new int[64];
+    private int[] wordEnd = new int[64];
+    private int wordCount;
+    private long lineNumber;
+
+    /**
+     * Opens a UTF-8 file
+     * @param fileName - The file to read
+     * @throws IOException if the file cannot be opened
+     */
+    public SentenceReader(String fileName) throws IOException {
+        this(new FileInputStream(fileName));
+    }
+
+    /**
+     * @param in - The UTF-8 input to read, closed when the reader is closed
+     */
+    public SentenceReader(InputStream in) {
+        this.input = new InputStreamReader(in, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Moves to the next line and splits it into words
+     * @return - whether there was another line
+     * @throws IOException if reading fails
+     */
+    public boolean nextLine() throws IOException {
+        // Find the end of the next line, reading more input until a line break or the end of the input
+        int scan = nextLine;
+        while (true) {
+            while (scan < limit && chars[scan] != '\n') { scan++; }
+            if (scan < limit || endOfInput) { break; }
+            int scanned = scan - nextLine;
+            fill();
+            scan = nextLine + scanned;
+        }
+        if (scan >= limit && nextLine >= limit) { return false; }
+
+        lineStart = nextLine;
+        lineEnd = scan;
+        nextLine = scan < limit ? scan + 1 : limit;
+        if (lineEnd > lineStart && chars[lineEnd - 1] == '\r') { lineEnd--; }
+        lineNumber += 1;
+
+        split();
+        return true;
+    }
+
+    /**
+     * Moves the unread chars to the front of the buffer, growing it if a line fills the whole buffer, and reads more
+     */
+    private void fill() throws IOException {
+        int unread = limit - nextLine;
+        if (nextLine > 0) {
+            System.arraycopy(chars, nextLine, chars, 0, unread);
+            nextLine = 0;
+            limit = unread;
+        }
+        if (limit == chars.length) { chars = Arrays.copyOf(chars, chars.length * 2); }
+
+        int read = input.read(chars, limit, chars.length - limit);
+        if (read < 0) { endOfInput = true; }
+        else { limit += read; }
+    }
+
+    /**
+     * Records the start and end of every word of the current line, and lowercases it
+     */
+    private void split() {
+        int length = lineEnd - lineStart;
+        if (lowerChars.length < length) { lowerChars = new char[Math.max(length, lowerChars.length * 2)]; }
+        for (int i = 0; i < length; i++) { lowerChars[i] = Character.toLowerCase(chars[lineStart + i]); }
+
+        wordCount = 0;
+        int start = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i == length || chars[lineStart + i] == ' ') {
+                addWord(start, i);
+                start = i + 1;
+            }
+        }
+        // Like String.split, drop empty words at the end, unless the line is empty
+        while (wordCount > 1 && wordEnd[wordCount - 1] == wordStart[wordCount - 1]) { wordCount--; }
+        if (wordCount == 1 && length > 0 && wordEnd[0] == wordStart[0]) { wordCount = 0; }
+    }
+
+    /**
+     * Records one word of the current line
+     */
+    private void addWord(int start, int end) {
+        if (wordCount == wordStart.length) {
+            wordStart = Arrays.copyOf(wordStart, wordCount * 2);
+            wordEnd = Arrays.copyOf(wordEnd, wordCount * 2);
+        }
+        wordStart[wordCount] = start;
+        wordEnd[wordCount] = end;
+        wordCount += 1;
+    }
+
+    /**
+     * @return - the number of words of the current line
+     */
+    public int wordCount() { return wordCount; }
+
+    /**
+     * @return - the number of the current line, counting from 1
+     */
+    public long lineNumber() { return lineNumber; }
+
+    /**
+     * @return - the buffer holding the current line as it was read; word w starts at wordOffset(w)
+     */
+    public char[] chars() { return chars; }
+
+    /**
+     * @return - the buffer holding the current line lowercased; word w starts at lowerOffset(w)
+     */
+    public char[] lowerChars() { return lowerChars; }
+
+    /**
+     * @param w - The index of a word of the current line
+     * @return - the index of the first char of the word in chars()
+     */
+    public int wordOffset(int w) { return lineStart + wordStart[w]; }
+
+    /**
+     * @param w - The index of a word of the current line
+     * @return - the index of the first char of the word in lowerChars()
+     */
+    public int lowerOffset(int w) { return wordStart[w]; }
+
+    /**
+     * @param w - The index of a word of the current line
+     * @return - the number of chars of the word
+     */
+    public int wordLength(int w) { return wordEnd[w] - wordStart[w]; }
+
+    /**
+     * @param w - The index of a word of the current line
+     * @return - the word as a new String, with its original case
+     */
+    public String word(int w) { return new String(chars, wordOffset(w), wordLength(w)); }
+
+    /**
+     * @param w - The index of a word of the current line
+     * @param text - The text to compare it with
+     * @return - whether the word, with its original case, is exactly the text
+     */
+    public boolean wordEquals(int w, String text) {
+        int length = wordLength(w);
+        if (length != text.length()) { return false; }
+        int offset = wordOffset(w);
+        for (int i = 0; i < length; i++) { if (chars[offset + i] != text.charAt(i)) { return false; } }
+        return true;
+    }
+
+    /**
+     * @param lexicon - The lexicon to look words up in
+     * @param wordIds - Array receiving the id of every word of the current line, -1 for words not in the lexicon;
+     *                at least wordCount long
+     */
+    public void lookUp(CompactLexicon lexicon, int[] wordIds) {
+        for (int w = 0; w < wordCount; w++) { wordIds[w] = lexicon.wordId(lowerChars, wordStart[w], wordLength(w)); }
+    }
+
+    /**
+     * Closes the input
+     * @throws IOException if closing fails
+     */
+    public void close() throws IOException {
+        input.close();
+    }
+}
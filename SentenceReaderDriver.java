@@ -0,0 +1,110 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FileReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * A driver class for SentenceReader. It checks that the reader splits every line of the Brown files, and a few awkward
+ * lines, exactly like String.split(" "), that the compiled model tags the test set identically through either path,
+ * and compares the speed and allocation of tagging the test file from Strings and from the reader's buffer.
+ */
+public class SentenceReaderDriver {
+
+    private static final String TEST_WORDS = "./PS5/texts/brown-test-sentences.txt";
+    private static final String TEST_TAGS = "./PS5/texts/brown-test-tags.txt";
+
+    public static void main(String[] args) throws Exception {
+        // Splitting must match String.split(" ") on every line
+        int lines = 0, mismatches = 0;
+        for (String file : new String[] {"./PS5/texts/brown-train-sentences.txt", "./PS5/texts/brown-train-tags.txt", TEST_WORDS, TEST_TAGS}) {
+            ArrayList<String> expected = MarkovBenchmark.readLines(file);
+            try (SentenceReader reader = new SentenceReader(file)) {
+                for (String line : expected) {
+                    if (!reader.nextLine() || !sameWords(reader, line)) { mismatches += 1; }
+                    lines += 1;
+                }
+                if (reader.nextLine()) { mismatches += 1; }
+            }
+        }
+        String awkward = "`` Quoted '' words\n\nspaces  between\r\ntrailing spaces  \n \n''\nno line break";
+        try (SentenceReader reader = new SentenceReader(new ByteArrayInputStream(awkward.getBytes(StandardCharsets.UTF_8)))) {
+            for (String line : awkward.split("\r?\n")) {
+                if (!reader.nextLine() || !sameWords(reader, line)) { mismatches += 1; }
+                lines += 1;
+            }
+            if (reader.nextLine()) { mismatches += 1; }
+        }
+        System.out.println("Lines split: " + lines + ", different from String.split: " + mismatches);
+
+        // Both paths must tag the test set the same way
+        MarkovModel markovTester = new MarkovModel("./PS5/texts/brown-train-sentences.txt", "./PS5/texts/brown-train-tags.txt");
+        CompiledMarkovModel compiledTester = markovTester.compile();
+        System.out.println("Strings: " + markovTester.testAccuracy(TEST_WORDS, TEST_TAGS).replace('\n', ' '));
+        System.out.println("Reader:  " + compiledTester.testAccuracy(TEST_WORDS, TEST_TAGS).replace('\n', ' '));
+
+        // Time and allocation of tagging the whole test file, from Strings and from the reader
+        int passes = 10;
+        for (int round = 0; round < 2; round++) {
+            long allocated = allocatedBytes(), start = System.nanoTime();
+            long sentences = 0;
+            for (int pass = 0; pass < passes; pass++) {
+                try (BufferedReader input = new BufferedReader(new FileReader(TEST_WORDS))) {
+                    String line;
+                    while ((line = input.readLine()) != null) { compiledTester.tag(line); sentences += 1; }
+                }
+            }
+            report(round == 1, "Strings", sentences, System.nanoTime() - start, allocatedBytes() - allocated);
+
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+            sentences = 0;
+            int[] tags = new int[256];
+            for (int pass = 0; pass < passes; pass++) {
+                try (SentenceReader reader = new SentenceReader(TEST_WORDS)) {
+                    while (reader.nextLine()) {
+                        if (tags.length < reader.wordCount()) { tags = new int[reader.wordCount()]; }
+                        compiledTester.tagLine(reader, tags);
+                        sentences += 1;
+                    }
+                }
+            }
+            report(round == 1, "Reader", sentences, System.nanoTime() - start, allocatedBytes() - allocated);
+        }
+    }
+
+    /**
+     * @return - whether the words of the reader's current line, and their lowercase forms, are those of String.split(" ")
+     */
+    private static boolean sameWords(SentenceReader reader, String line) {
+        String[] words = line.split(" ");
+        if (reader.wordCount() != words.length) { return false; }
+        for (int w = 0; w < words.length; w++) {
+            if (!reader.wordEquals(w, words[w])) { return false; }
+            String lower = new String(reader.lowerChars(), reader.lowerOffset(w), reader.wordLength(w));
+            if (!lower.equals(words[w].toLowerCase())) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * Prints the speed and allocation of one path, skipping the warm-up round
+     */
+    private static void report(boolean print, String name, long sentences, long nanos, long allocated) {
+        if (!print) { return; }
+        System.out.printf("%-8s %10.0f sentences/sec %10.0f bytes allocated per sentence%n", name, sentences / (nanos / 1e9),
+                (double) allocated / sentences);
+    }
+
+    /**
+     * @return - the bytes allocated so far by this thread, or 0 if the JVM cannot tell
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * A driver class that compares the single-threaded training of the Brown model against sharded training,
+ * checking that both give the same transitions and observations maps.
+ */
+public class ShardedTrainingDriver {
+    public static void main(String[] args) throws Exception {
+        String words = "./PS5/texts/brown-train-sentences.txt", tags = "./PS5/texts/brown-train-tags.txt";
+        int shards = Runtime.getRuntime().availableProcessors();
+        int runs = 5;
+
+        // Warm up both training paths
+        MarkovModel singleModel = new MarkovModel(words, tags);
+        MarkovModel shardedModel = new MarkovModel(words, tags, shards);
+        System.out.println("Same transitions: " + singleModel.getTransitionsMap().equals(shardedModel.getTransitionsMap()));
+        System.out.println("Same observations: " + singleModel.getObservationMap().equals(shardedModel.getObservationMap()));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) { new MarkovModel(words, tags); }
+        double singleMillis = (System.nanoTime() - start) / 1e6 / runs;
+
+        start = System.nanoTime();
+        for (int i = 0; i < runs; i++) { new MarkovModel(words, tags, shards); }
+        double shardedMillis = (System.nanoTime() - start) / 1e6 / runs;
+
+        System.out.println("Single-threaded training: " + singleMillis + " ms");
+        System.out.println("Sharded training (" + shards + " shards): " + shardedMillis + " ms");
+        System.out.println("Speedup: " + (singleMillis / shardedMillis) + "x");
+    }
+}
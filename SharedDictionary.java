@@ -0,0 +1,62 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One canonical copy of every word and tag String, shared by all the models loaded through it, and one word table
+ * shared by all the models compiled through it.
+ * Models trained or loaded on their own each hold their own copy of every key of their maps; interning the keys
+ * through a shared dictionary lets the Brown model and its variants point at the same Strings instead. Compiled models
+ * likewise number their words in the one word table, so each only adds its rows of tags, not another copy of its words.
+ * Entries are only removed by clearStrings, so a word stays in the dictionary after every model using it is dropped;
+ * whoever holds the dictionary counts it, and clears or drops it once no model uses it, as ModelRegistry does.
+ */
+public class SharedDictionary {
+
+    private final ConcurrentHashMap<String,String> strings = new ConcurrentHashMap<>();
+    private final WordTable words = new WordTable();
+
+    /**
+     * @param value - A word or tag
+     * @return - the canonical String equal to it, which is the value itself the first time it is seen
+     */
+    public String intern(String value) {
+        String canonical = strings.putIfAbsent(value, value);
+        return canonical == null ? value : canonical;
+    }
+
+    /**
+     * Drops every interned String, once no model that holds its maps uses them; compiled models only use the word table.
+     * Strings interned afterwards are new canonical copies.
+     */
+    public void clearStrings() { strings.clear(); }
+
+    /**
+     * @return - the word table of the models compiled through the dictionary
+     */
+    public WordTable getWords() { return words; }
+
+    /**
+     * @return - the number of distinct words and tags in the dictionary
+     */
+    public int size() { return strings.size(); }
+
+    /**
+     * @return - an estimate of the heap taken by the dictionary: every String and its bytes, plus a map node and
+     * table slot per entry, and the word table
+     */
+    public long footprintBytes() {
+        long bytes = words.footprintBytes();
+        for (String value : strings.keySet()) { bytes += stringBytes(value); }
+        // A 32 byte node and about two 4 byte table slots per entry
+        return bytes + 40L * strings.size();
+    }
+
+    /**
+     * @return - the heap size of a String: 24 bytes for the String, and an array of one byte per char if every char is
+     * Latin-1, or of two otherwise, with a 16 byte header and 8 byte alignment
+     */
+    static long stringBytes(String value) {
+        int charBytes = 1;
+        for (int i = 0; i < value.length(); i++) { if (value.charAt(i) > 0xFF) { charBytes = 2; break; } }
+        return 24 + CompactLexicon.arrayBytes(value.length(), charBytes);
+    }
+}
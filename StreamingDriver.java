@@ -0,0 +1,76 @@
+import java.util.ArrayList;
+
+/**
+ * A driver class for StreamingTagger. It streams the Brown test set word by word, ending each line, and checks every tag
+ * against viterbiAlgo for several windows. It then streams the whole test set as one line with no breaks and checks it
+ * against viterbiAlgo on that one long line, showing how few words wait for their tags, and compares speeds.
+ */
+public class StreamingDriver {
+
+    public static void main(String[] args) throws Exception {
+        CompiledMarkovModel compiled = new MarkovModel("./PS5/texts/brown-train-sentences.txt", "./PS5/texts/brown-train-tags.txt").compile();
+        ArrayList<String> lines = MarkovBenchmark.readLines("./PS5/texts/brown-test-sentences.txt");
+        ArrayList<String> expected = new ArrayList<>();
+        for (String line : lines) { for (String tag : compiled.viterbiAlgo(line)) { expected.add(tag); } }
+
+        // Line by line, against viterbiAlgo on every line
+        for (int window : new int[] {2, 4, 8, 16, 32, 256}) {
+            ArrayList<String> streamed = new ArrayList<>();
+            StreamingTagger stream = new StreamingTagger(compiled, window, (word, tag) -> streamed.add(tag));
+            for (String line : lines) {
+                for (String word : line.split(" ")) { stream.push(word); }
+                stream.finish();
+            }
+            System.out.printf("Window %3d: %d of %d tags differ from viterbiAlgo, %d forced flushes, at most %d words waiting, "
+                            + "%.2f words of delay on average%n", window, differences(expected, streamed), expected.size(),
+                    stream.getForcedFlushes(), stream.getMaxPending(), stream.averageDelay());
+        }
+
+        // The whole test set as one line with no breaks, against viterbiAlgo on that line
+        String transcript = String.join(" ", lines);
+        ArrayList<String> expectedTranscript = new ArrayList<>();
+        for (String tag : compiled.viterbiAlgo(transcript)) { expectedTranscript.add(tag); }
+        for (int window : new int[] {8, 32, 256}) {
+            ArrayList<String> streamed = new ArrayList<>();
+            StreamingTagger stream = new StreamingTagger(compiled, window, (word, tag) -> streamed.add(tag));
+            for (String word : transcript.split(" ")) { stream.push(word); }
+            stream.finish();
+            System.out.printf("One line, window %3d: %d of %d tags differ from viterbiAlgo, %d forced flushes, at most %d words waiting, "
+                            + "%.2f words of delay on average%n", window, differences(expectedTranscript, streamed), expectedTranscript.size(),
+                    stream.getForcedFlushes(), stream.getMaxPending(), stream.averageDelay());
+        }
+
+        // Speed of tagging the test set line by line, in batch and streaming
+        String[][] words = new String[lines.size()][];
+        for (int i = 0; i < lines.size(); i++) { words[i] = lines.get(i).split(" "); }
+        long[] tagged = new long[1];
+        StreamingTagger stream = new StreamingTagger(compiled, 32, (word, tag) -> tagged[0]++);
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (String line : lines) { compiled.viterbiAlgo(line); }
+            double batchSeconds = (System.nanoTime() - start) / 1e9;
+
+            start = System.nanoTime();
+            for (String[] sentence : words) {
+                for (String word : sentence) { stream.push(word); }
+                stream.finish();
+            }
+            double streamSeconds = (System.nanoTime() - start) / 1e9;
+            if (round == 2) {
+                System.out.printf("Batch:     %8.0f sentences/sec%nStreaming: %8.0f sentences/sec%n", lines.size() / batchSeconds,
+                        lines.size() / streamSeconds);
+            }
+        }
+    }
+
+    /**
+     * @return - the number of positions where two lists of tags differ, counting missing tags
+     */
+    private static int differences(ArrayList<String> expected, ArrayList<String> actual) {
+        int differences = Math.abs(expected.size() - actual.size());
+        for (int i = 0; i < Math.min(expected.size(), actual.size()); i++) {
+            if (!expected.get(i).equals(actual.get(i))) { differences += 1; }
+        }
+        return differences;
+    }
+}
@@ -0,0 +1,250 @@
+import java.util.Arrays;
+
+/**
+ * Tags an unbounded stream of words one word at a time with the Viterbi algorithm of a compiled model.
+ * Backpointers are only kept for the words whose tag is still undecided. After every word the paths of all reachable
+ * states are followed back together, and once they meet in one state every word up to it already has the tag it will
+ * have in the best tagging of the whole sentence, so those tags are passed on at once, exactly as viterbiAlgo would tag them.
+ * If the paths have not met after window words, the oldest word is tagged as the path of the current best state has it,
+ * so memory stays at window backpointers per tag however long the stream runs.
+ *
+ * A sentence can reach a word that no state can reach. viterbiAlgo then gives the whole sentence no tags, but a stream
+ * cannot take back tags it has already passed on: the words of the sentence that were already decided keep their tags,
+ * and only the undecided words, the word that broke the sentence and every later word of it get null.
+ *
+ * A StreamingTagger holds the state of one stream, so only one thread may use it at a time.
+ */
+public class StreamingTagger {
+
+    /**
+     * Receives the words of the stream with their tags, in order
+     */
+    public interface TagListener {
+
+        /**
+         * @param word - A word of the stream
+         * @param tag - The part of speech of the word, or null if no tagging of its sentence reaches it: the word where
+         *            no state could be reached any more, the words before it that were still undecided then, and every
+         *            later word of its sentence. Earlier words of the sentence have already been passed on with their tags.
+         */
+        void tagged(String word, String tag);
+    }
+
+    // Once the best score falls below this, every score is raised by it, so the scores of an endless stream keep their precision
+    private static final double RESCALE_BELOW = -1e6;
+
+    private final CompiledMarkovModel model;
+    private final int numTags;
+    private final int window;
+    private final TagListener listener;
+
+    // The score of every state at the last word, and the scores being computed for the next one
+    private double[] currScores, nextScores;
+    // The observation scores of a known word, spread out from the model's lexicon
+    private final double[] observedRow;
+    // backPointers[(position % window) * numTags + tag] is the previous state of the tag at every undecided position
+    private final int[] backPointers;
+    // The undecided words, and the tags being committed, by position % window
+    private final String[] pendingWords;
+    private final int[] path;
+    // Scratch for following the paths of every state back together
+    private int[] states, previousStates;
+    private final boolean[] seen;
+
+    // The words received and the words tagged since the stream started
+    private long received, committed;
+    // Whether no state can be reached since some word of the current sentence
+    private boolean unreachable;
+
+    private long forcedFlushes, delays;
+    private int maxPending;
+
+    /**
+     * Makes a streaming tagger
+     * @param model - The compiled model to tag with
+     * @param window - The most words that may wait for their tag before the oldest one is forced out
+     * @param listener - Receives every word with its tag, in order
+     */
+    public StreamingTagger(CompiledMarkovModel model, int window, TagListener listener) {
+        if (window < 1) { throw new IllegalArgumentException("The window must hold at least one word"); }
+        this.model = model;
+        this.numTags = model.numTags();
+        this.window = window;
+        this.listener = listener;
+        currScores = new double[numTags];
+        nextScores = new double[numTags];
+        observedRow = new double[numTags];
+        backPointers = new int[window * numTags];
+        pendingWords = new String[window];
+        path = new int[window];
+        states = new int[numTags];
+        previousStates = new int[numTags];
+        seen = new boolean[numTags];
+        startSentence();
+    }
+
+    /**
+     * Adds the next word of the stream, passing on the tags of every word that is now decided
+     * @param word - The word, as it appears in the text
+     */
+    public void push(String word) {
+        if (unreachable) {
+            received += 1;
+            committed += 1;
+            listener.tagged(word, null);
+            return;
+        }
+
+        int wordId = model.wordId(word.toLowerCase());
+        int slot = slot(received);
+        double[] observed = wordId >= 0 ? model.observationRow(wordId, observedRow) : model.unknownWordScores(word);
+        model.viterbiStep(currScores, observed, nextScores, backPointers, slot * numTags);
+        pendingWords[slot] = word;
+        received += 1;
+
+        double[] swap = currScores;
+        currScores = nextScores;
+        nextScores = swap;
+
+        // No tagging of the sentence reaches this word: it, the undecided words before it and the rest of the sentence get
+        // no tags, while the words already passed on keep theirs
+        int best = bestState();
+        if (best < 0) {
+            while (committed < received) { emit(committed++, null); }
+            unreachable = true;
+            return;
+        }
+        if (currScores[best] < RESCALE_BELOW) {
+            double shift = currScores[best];
+            for (int tag = 0; tag < numTags; tag++) { currScores[tag] -= shift; }
+        }
+
+        commitConverged();
+        if (received - committed == window) { forceOldest(best); }
+        maxPending = Math.max(maxPending, (int) (received - committed));
+    }
+
+    /**
+     * Ends the current sentence: tags every undecided word from the best state, as viterbiAlgo does at the end of a line,
+     * and starts the next sentence from the start state
+     */
+    public void finish() {
+        if (!unreachable && committed < received) { commitThrough(received - 1, bestState()); }
+        startSentence();
+    }
+
+    /**
+     * @return - the number of words received whose tags have not been passed on yet
+     */
+    public int pending() { return (int) (received - committed); }
+
+    /**
+     * @return - the most words that ever waited for their tags at once
+     */
+    public int getMaxPending() { return maxPending; }
+
+    /**
+     * @return - the number of times the window filled up and the oldest word was tagged before the paths met
+     */
+    public long getForcedFlushes() { return forcedFlushes; }
+
+    /**
+     * @return - the average number of later words received before a word's tag was passed on
+     */
+    public double averageDelay() { return committed == 0 ? 0 : (double) delays / committed; }
+
+    /**
+     * Follows the paths of every reachable state back until they meet, and passes on the tags of every word up to there
+     */
+    private void commitConverged() {
+        int count = 0;
+        for (int tag = 0; tag < numTags; tag++) {
+            if (currScores[tag] != Double.NEGATIVE_INFINITY) { states[count++] = tag; }
+        }
+
+        long position = received - 1;
+        while (count > 1 && position > committed) {
+            int base = slot(position) * numTags;
+            int previousCount = 0;
+            for (int k = 0; k < count; k++) {
+                int previous = backPointers[base + states[k]];
+                if (!seen[previous]) {
+                    seen[previous] = true;
+                    previousStates[previousCount++] = previous;
+                }
+            }
+            for (int k = 0; k < previousCount; k++) { seen[previousStates[k]] = false; }
+
+            int[] swap = states;
+            states = previousStates;
+            previousStates = swap;
+            count = previousCount;
+            position--;
+        }
+        if (count == 1) { commitThrough(position, states[0]); }
+    }
+
+    /**
+     * Tags the oldest undecided word as the path of the best state has it.
+     * Every state is kept: dropping the ones that disagree can leave only states the model cannot get out of, like ".",
+     * which only ever follows itself in the Brown corpus. The paths that disagree can still win later, so the tags
+     * around a forced word may not be one path of the model.
+     * @param best - The best state at the last word
+     */
+    private void forceOldest(int best) {
+        int tag = best;
+        for (long position = received - 1; position > committed; position--) { tag = backPointers[slot(position) * numTags + tag]; }
+        forcedFlushes += 1;
+        commitThrough(committed, tag);
+    }
+
+    /**
+     * Passes on the tags of every undecided word up to a position, following the path back from its tag there
+     * @param position - The last word to tag
+     * @param tag - The tag of that word
+     */
+    private void commitThrough(long position, int tag) {
+        for (long p = position; p >= committed; p--) {
+            path[slot(p)] = tag;
+            if (p > committed) { tag = backPointers[slot(p) * numTags + tag]; }
+        }
+        while (committed <= position) {
+            emit(committed, model.tagName(path[slot(committed)]));
+            committed += 1;
+        }
+    }
+
+    /**
+     * Passes one undecided word on with its tag
+     */
+    private void emit(long position, String tag) {
+        int slot = slot(position);
+        String word = pendingWords[slot];
+        pendingWords[slot] = null;
+        delays += received - 1 - position;
+        listener.tagged(word, tag);
+    }
+
+    /**
+     * @return - the state with the best score at the last word, the lowest one among ties as in viterbiAlgo, or -1 if none can be reached
+     */
+    private int bestState() {
+        int best = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int tag = 0; tag < numTags; tag++) {
+            if (currScores[tag] > bestScore) {
+                best = tag;
+                bestScore = currScores[tag];
+            }
+        }
+        return best;
+    }
+
+    private void startSentence() {
+        Arrays.fill(currScores, Double.NEGATIVE_INFINITY);
+        currScores[CompiledMarkovModel.START_ID] = 0.0;
+        unreachable = false;
+    }
+
+    private int slot(long position) { return (int) (position % window); }
+}
@@ -0,0 +1,72 @@
+/**
+ * The posterior marginals of a sentence from forward-backward: the probability of every tag at every word, given
+ * the whole sentence, along with the most likely tagging from the Viterbi algorithm.
+ * The confidence of a word is the probability of its Viterbi tag, so words with a low confidence are the ones worth
+ * a second look.
+ */
+public class TagPosteriors {
+
+    private final String[] tagNames;
+    private final String[] tags;
+    // probabilities[i * tagNames.length + t] is the probability that word i has tag t
+    private final double[] probabilities;
+    private final double logLikelihood;
+
+    /**
+     * @param tagNames - The parts of speech by id
+     * @param tags - The Viterbi tag of every word
+     * @param probabilities - The probability of every tag id at every word, word by word
+     * @param logLikelihood - The log probability of the sentence over every tagging
+     */
+    TagPosteriors(String[] tagNames, String[] tags, double[] probabilities, double logLikelihood) {
+        this.tagNames = tagNames;
+        this.tags = tags;
+        this.probabilities = probabilities;
+        this.logLikelihood = logLikelihood;
+    }
+
+    /**
+     * @return - the number of words
+     */
+    public int length() { return tags.length; }
+
+    /**
+     * @return - the most likely tagging of the sentence, as viterbiAlgo gives it
+     */
+    public String[] getTags() { return tags.clone(); }
+
+    /**
+     * @param i - The index of a word
+     * @return - the probability that the word has its Viterbi tag, 0 if no tagging is possible
+     */
+    public double confidence(int i) { return tags[i] == null ? 0 : probability(i, tags[i]); }
+
+    /**
+     * @param i - The index of a word
+     * @param tag - A part of speech
+     * @return - the probability that the word has the tag, given the whole sentence
+     */
+    public double probability(int i, String tag) {
+        for (int t = 0; t < tagNames.length; t++) {
+            if (tagNames[t].equals(tag)) { return probabilities[i * tagNames.length + t]; }
+        }
+        return 0;
+    }
+
+    /**
+     * @param i - The index of a word
+     * @return - the tag of the word with the highest probability, which may differ from its Viterbi tag, or null if no tagging is possible
+     */
+    public String mostProbableTag(int i) {
+        int best = -1;
+        for (int t = 0; t < tagNames.length; t++) {
+            if (probabilities[i * tagNames.length + t] > (best < 0 ? 0 : probabilities[i * tagNames.length + best])) { best = t; }
+        }
+        return best < 0 ? null : tagNames[best];
+    }
+
+    /**
+     * @return - the log probability of the sentence summed over every tagging, negative infinity if no tagging is possible
+     */
+    public double getLogLikelihood() { return logLikelihood; }
+}
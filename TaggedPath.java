@@ -0,0 +1,29 @@
+/**
+ * One tagging of a sentence, with the log probability of the path through the model that gives it
+ */
+public class TaggedPath {
+
+    private final String[] tags;
+    private final double score;
+
+    /**
+     * @param tags - The part of speech of every word
+     * @param score - The log probability of the tags and the words together
+     */
+    public TaggedPath(String[] tags, double score) {
+        this.tags = tags;
+        this.score = score;
+    }
+
+    /**
+     * @return - the part of speech of every word, in order from the start to the end of the sentence
+     */
+    public String[] getTags() { return tags.clone(); }
+
+    /**
+     * @return - the log probability of the tags and the words together
+     */
+    public double getScore() { return score; }
+
+    public String toString() { return String.join(" ", tags) + " (" + score + ")"; }
+}
@@ -0,0 +1,13 @@
+/**
+ * Anything that can predict the parts of speech of a line of text.
+ * Implementations must be safe to call from several threads at once once they are built.
+ */
+public interface Tagger {
+
+    /**
+     * Tag every word of a line of text with its most likely part of speech
+     * @param line - String line of text, with words separated by a " "
+     * @return - the array of String parts of speech in order from the start to the end of the sentence
+     */
+    String[] tag(String line);
+}
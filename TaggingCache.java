@@ -0,0 +1,239 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded cache of whole-sentence tagging results in front of a Tagger, for traffic that repeats the same lines.
+ *
+ * Sentences are looked up by their words, split on single spaces the same way the models split a line before decoding
+ * it. Spacing is not collapsed, since the models split on every single space and a line with a double space has one more
+ * word than the same line without it. Case is kept by default: a model with an unknown-word model tags a capitalized
+ * word it never observed differently from its lowercase form. Lines that only differ in case can share one entry when
+ * case folding is asked for, which is only safe for a tagger that lowercases every word, such as a compiled model without
+ * an unknown-word model. On a miss the tagger is given the line as it was written, not its lookup form, so the cache
+ * always returns what the tagger would.
+ *
+ * The entries are spread over independently locked segments by the hash of the sentence, so concurrent lookups rarely
+ * wait on each other. Each segment keeps its entries in least recently used order and evicts the oldest once it is full.
+ * Every segment also remembers the model version its entries were tagged with, and empties itself as soon as it sees a
+ * newer version, so results from before an update of the model are never returned. A retrained model is a new model:
+ * swapping it in also empties every segment, and tags still being made by the old model are never filed.
+ */
+public class TaggingCache implements Tagger {
+
+    // The tagger and its version, replaced as a whole when a new model is swapped in
+    private volatile Source source;
+    private final boolean foldCase;
+    private final Segment[] segments;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * Caches the tags of a model that can be updated, emptying the cache whenever the model's version changes
+     * @param model - The model to tag with
+     * @param maxEntries - The most sentences to keep
+     */
+    public TaggingCache(MarkovModel model, int maxEntries) {
+        this(model, model::getVersion, maxEntries, Runtime.getRuntime().availableProcessors() * 4, false);
+    }
+
+    /**
+     * Caches the tags of a tagger that never changes, such as a compiled model
+     * @param tagger - The tagger to tag with
+     * @param maxEntries - The most sentences to keep
+     */
+    public TaggingCache(Tagger tagger, int maxEntries) {
+        this(tagger, () -> 0, maxEntries, Runtime.getRuntime().availableProcessors() * 4, false);
+    }
+
+    /**
+     * @param tagger - The tagger to tag with
+     * @param version - The current version of the model behind the tagger; any change empties the cache
+     * @param maxEntries - The most sentences to keep, split evenly between the segments
+     * @param segmentCount - The number of independently locked segments
+     * @param foldCase - Whether lines that only differ in case share one entry, for a tagger that lowercases every word
+     */
+    public TaggingCache(Tagger tagger, LongSupplier version, int maxEntries, int segmentCount, boolean foldCase) {
+        if (maxEntries < 1 || segmentCount < 1) { throw new IllegalArgumentException("The cache needs at least one entry and one segment"); }
+        source = new Source(tagger, version, 0);
+        this.foldCase = foldCase;
+
+        segmentCount = Math.min(segmentCount, maxEntries);
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            // Spread the remainder so the segments hold exactly maxEntries together
+            segments[i] = new Segment(maxEntries / segmentCount + (i < maxEntries % segmentCount ? 1 : 0));
+        }
+    }
+
+    /**
+     * Tags a line, answering from the cache when the same normalized sentence was tagged before with the same model version
+     * @param line - String line of text to be tagged
+     * @return - the array of String parts of speech of the line, the same as the tagger returns for it
+     */
+    public String[] tag(String line) {
+        String sentence = normalize(line, foldCase);
+        Segment segment = segments[Math.floorMod(spread(sentence.hashCode()), segments.length)];
+
+        // Read the version before tagging, so tags are never filed under a version older than the model that made them
+        Source current = source;
+        long currentVersion = current.version.getAsLong();
+        String[] tags = segment.get(sentence, current.generation, currentVersion);
+        if (tags != null) {
+            hits.increment();
+            return tags.clone();
+        }
+
+        misses.increment();
+        tags = current.tagger.tag(line);
+        segment.put(sentence, tags.clone(), current.generation, currentVersion);
+        return tags;
+    }
+
+    /**
+     * Tags with a new model from now on, such as one retrained from scratch, dropping everything the old one tagged
+     * @param model - The model to tag with, whose version changes empty the cache as before
+     */
+    public void swap(MarkovModel model) { swap(model, model::getVersion); }
+
+    /**
+     * Tags with a new tagger from now on, such as a recompiled model, dropping everything the old one tagged
+     * @param tagger - The tagger to tag with
+     * @param version - The current version of the model behind the tagger; any change empties the cache
+     */
+    public synchronized void swap(Tagger tagger, LongSupplier version) {
+        Source swapped = new Source(tagger, version, source.generation + 1);
+        source = swapped;
+        // Move every segment to the new generation, so tags the old model is still making can no longer be filed
+        long swappedVersion = version.getAsLong();
+        for (Segment segment : segments) {
+            synchronized (segment) { segment.invalidateBefore(swapped.generation, swappedVersion); }
+        }
+    }
+
+    /**
+     * @param line - A line of text
+     * @param foldCase - Whether to lowercase the line
+     * @return - the words of the line split on single spaces as the models split them, joined back with single spaces,
+     * so that two lines have the same lookup form exactly when the models see the same words in them
+     */
+    static String normalize(String line, boolean foldCase) {
+        String[] words = (foldCase ? line.toLowerCase() : line).split(" ");
+        return String.join(" ", words);
+    }
+
+    /**
+     * Mixes the high bits of a hash into the low bits that pick the segment
+     */
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Empties every segment
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) { segment.entries.clear(); }
+        }
+    }
+
+    /**
+     * @return - the number of sentences held
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) { size += segment.entries.size(); }
+        }
+        return size;
+    }
+
+    /**
+     * @return - the number of lines answered from the cache
+     */
+    public long getHits() { return hits.sum(); }
+
+    /**
+     * @return - the number of lines that had to be tagged
+     */
+    public long getMisses() { return misses.sum(); }
+
+    /**
+     * @return - the number of sentences dropped to make room for newer ones
+     */
+    public long getEvictions() { return evictions.sum(); }
+
+    /**
+     * @return - the number of sentences dropped because the model changed
+     */
+    public long getInvalidations() { return invalidations.sum(); }
+
+    /**
+     * A tagger, its version, and the number of swaps before it, which orders the versions of different models
+     */
+    private static class Source {
+        final Tagger tagger;
+        final LongSupplier version;
+        final long generation;
+
+        Source(Tagger tagger, LongSupplier version, long generation) {
+            this.tagger = tagger;
+            this.version = version;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * One lock-protected part of the cache, holding its sentences in least recently used order
+     */
+    private class Segment {
+        final LinkedHashMap<String,String[]> entries;
+        // The swap generation and model version every entry was tagged with
+        long generation;
+        long version;
+
+        Segment(int capacity) {
+            entries = new LinkedHashMap<String,String[]>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String,String[]> eldest) {
+                    if (size() <= capacity) { return false; }
+                    evictions.increment();
+                    return true;
+                }
+            };
+        }
+
+        /**
+         * @return - the cached tags of a sentence, or null if they are missing or were tagged with an older model
+         */
+        synchronized String[] get(String sentence, long currentGeneration, long currentVersion) {
+            invalidateBefore(currentGeneration, currentVersion);
+            return currentGeneration == generation ? entries.get(sentence) : null;
+        }
+
+        /**
+         * Files the tags of a sentence, unless the segment already holds entries of a newer model
+         */
+        synchronized void put(String sentence, String[] tags, long taggedGeneration, long taggedVersion) {
+            invalidateBefore(taggedGeneration, taggedVersion);
+            if (taggedGeneration == generation && taggedVersion == version) { entries.put(sentence, tags); }
+        }
+
+        /**
+         * Empties the segment if its entries are older than a generation and version
+         */
+        void invalidateBefore(long currentGeneration, long currentVersion) {
+            if (currentGeneration < generation || (currentGeneration == generation && currentVersion <= version)) { return; }
+            invalidations.add(entries.size());
+            entries.clear();
+            generation = currentGeneration;
+            version = currentVersion;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A driver class for the sentence cache. It replays Brown test sentences with a skewed, Zipf-like popularity, as in
+ * traffic full of repeated lines, and compares tagging through the cache with tagging every line. It then updates a model,
+ * and swaps in a retrained one, and checks that the cache stops returning the tags of the old model each time.
+ */
+public class TaggingCacheDriver {
+    public static void main(String[] args) throws Exception {
+        MarkovModel markovTester = new MarkovModel("./PS5/texts/brown-train-sentences.txt", "./PS5/texts/brown-train-tags.txt");
+        CompiledMarkovModel compiledTester = markovTester.compile();
+        ArrayList<String> lines = MarkovBenchmark.readLines("./PS5/texts/brown-test-sentences.txt");
+
+        // Pick 200000 lines with Zipf popularity, the i-th most popular line being drawn with weight 1 / i
+        Random random = new Random(42);
+        double[] cumulative = new double[lines.size()];
+        double total = 0;
+        for (int i = 0; i < lines.size(); i++) { total += 1.0 / (i + 1); cumulative[i] = total; }
+        ArrayList<String> traffic = new ArrayList<>();
+        for (int i = 0; i < 200000; i++) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            traffic.add(lines.get(Math.min(lines.size() - 1, index < 0 ? -index - 1 : index)));
+        }
+
+        TaggingCache cache = new TaggingCache(compiledTester, 1000);
+        int workers = Runtime.getRuntime().availableProcessors();
+        double directRate = rate(compiledTester, traffic, workers);
+        double cachedRate = rate(cache, traffic, workers);
+
+        // The cache must answer exactly like the tagger it wraps
+        int mismatches = 0;
+        for (String line : lines) { if (!Arrays.equals(cache.tag(line), compiledTester.tag(line))) { mismatches += 1; } }
+
+        // Also for lines written differently: uppercased ones only share the entry of the line when case is folded, for
+        // the compiled model that lowercases every word, and double spaced ones never do
+        TaggingCache foldingCache = new TaggingCache(compiledTester, () -> 0, 1000, 4, true);
+        int variantMismatches = 0;
+        long variantHits = 0, foldedHits = 0;
+        for (String line : lines.subList(0, 500)) {
+            cache.tag(line);
+            foldingCache.tag(line);
+            long hitsBefore = cache.getHits(), foldedBefore = foldingCache.getHits();
+            for (String variant : new String[] { line.toUpperCase(), line.replace(" ", "  ") }) {
+                if (!Arrays.equals(cache.tag(variant), compiledTester.tag(variant))) { variantMismatches += 1; }
+                if (!Arrays.equals(foldingCache.tag(variant), compiledTester.tag(variant))) { variantMismatches += 1; }
+            }
+            variantHits += cache.getHits() - hitsBefore;
+            foldedHits += foldingCache.getHits() - foldedBefore;
+        }
+
+        System.out.printf("Direct: %.0f sentences/sec%n", directRate);
+        System.out.printf("Cached: %.0f sentences/sec (%.2fx)%n", cachedRate, cachedRate / directRate);
+        System.out.println("Hits: " + cache.getHits() + ", misses: " + cache.getMisses() + ", evictions: " + cache.getEvictions()
+                + ", size: " + cache.size() + ", mismatches: " + mismatches);
+        System.out.println("Uppercased and double spaced lines: " + variantMismatches + " mismatches, "
+                + variantHits + " hits out of 1000 keeping case, " + foldedHits + " folding case");
+
+        // Updating the model must invalidate what was cached before
+        TaggingCache modelCache = new TaggingCache(markovTester, 1000);
+        String sentence = "the dog saw the cat .";
+        String[] before = modelCache.tag(sentence);
+        markovTester.update("the dog saw the saw .", "DET N VD DET N .");
+        String[] after = modelCache.tag(sentence);
+        System.out.println("Before update: " + String.join(" ", before) + ", after update: " + String.join(" ", after)
+                + ", matches model: " + Arrays.equals(after, markovTester.tag(sentence))
+                + ", invalidations: " + modelCache.getInvalidations());
+
+        // Swapping in a retrained model must drop the tags of the old one
+        MarkovModel retrained = new MarkovModel("./PS5/texts/simple-train-sentences.txt", "./PS5/texts/simple-train-tags.txt");
+        modelCache.swap(retrained);
+        String[] swapped = modelCache.tag(sentence);
+        System.out.println("After swapping in a retrained model: " + String.join(" ", swapped)
+                + ", matches model: " + Arrays.equals(swapped, retrained.tag(sentence))
+                + ", invalidations: " + modelCache.getInvalidations());
+    }
+
+    /**
+     * @return - the sentences per second of tagging every line with a number of workers
+     */
+    private static double rate(Tagger tagger, List<String> traffic, int workers) throws Exception {
+        try (BatchTagger batch = new BatchTagger(tagger, workers)) {
+            batch.tagAll(traffic);
+            long start = System.nanoTime();
+            batch.tagAll(traffic);
+            return traffic.size() / ((System.nanoTime() - start) / 1e9);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * Evaluates a tagger on a test set of sentences and their correct tags.
+ * The sentences are decoded in parallel by a BatchTagger, then every word is compared with the answer key, filling in
+ * a confusion matrix and separate counts for words that were and were not seen in training.
+ * A sentence whose predicted tags do not line up with its answer key is counted and scored as far as it goes instead of failing.
+ */
+public class TaggingEvaluator {
+
+    private final Tagger tagger;
+    private final int workers;
+    // Whether a word, as it appears in the text, was seen in training
+    private final Predicate<String> knownWord;
+
+    /**
+     * @param tagger - The tagger to evaluate
+     * @param workers - The number of threads to decode with
+     * @param knownWord - Whether a word was seen in training, to split the accuracy into known and unknown words
+     */
+    public TaggingEvaluator(Tagger tagger, int workers, Predicate<String> knownWord) {
+        this.tagger = tagger;
+        this.workers = workers;
+        this.knownWord = knownWord;
+    }
+
+    /**
+     * Evaluates a compiled model, using its vocabulary for known and unknown words
+     * @param model - The compiled model to evaluate
+     * @param workers - The number of threads to decode with
+     */
+    public TaggingEvaluator(CompiledMarkovModel model, int workers) {
+        this(model, workers, word -> model.wordId(word.toLowerCase()) >= 0);
+    }
+
+    /**
+     * Evaluates the tagger on a file of sentences and a file of their correct tags
+     * @param testSentenceFile - The file of sentences, one per line
+     * @param testTagsFile - The file of the correct tags of every sentence
+     * @return - the result of the evaluation
+     * @throws Exception if a file cannot be read, the files do not have the same number of lines, or tagging fails
+     */
+    public EvaluationResult evaluate(String testSentenceFile, String testTagsFile) throws Exception {
+        List<String> lines = readLines(testSentenceFile);
+        List<String> tagLines = readLines(testTagsFile);
+        if (lines.size() != tagLines.size()) {
+            throw new Exception(testSentenceFile + " has " + lines.size() + " lines but " + testTagsFile + " has " + tagLines.size());
+        }
+        return evaluate(lines, tagLines);
+    }
+
+    /**
+     * Evaluates the tagger on lists of sentences and their correct tags
+     * @param lines - The sentences, with words separated by a " "
+     * @param tagLines - The correct tags of every sentence, separated by a " "
+     * @return - the result of the evaluation
+     * @throws Exception if tagging fails
+     */
+    public EvaluationResult evaluate(List<String> lines, List<String> tagLines) throws Exception {
+        if (lines.size() != tagLines.size()) { throw new IllegalArgumentException(lines.size() + " sentences but " + tagLines.size() + " tag lines"); }
+
+        List<String[]> predictions;
+        long start = System.nanoTime();
+        try (BatchTagger batch = new BatchTagger(tagger, workers)) { predictions = batch.tagAll(lines); }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        // Number every tag of the answer key and of the predictions, with NONE for missing predictions last
+        ArrayList<String[]> answers = new ArrayList<>(tagLines.size());
+        TreeSet<String> allTags = new TreeSet<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String[] gold = tagLines.get(i).split(" ");
+            answers.add(gold);
+            for (String tag : gold) { allTags.add(tag); }
+            for (String tag : predictions.get(i)) { if (tag != null) { allTags.add(tag); } }
+        }
+        allTags.remove(EvaluationResult.NONE);
+        String[] tags = allTags.toArray(new String[allTags.size() + 1]);
+        tags[tags.length - 1] = EvaluationResult.NONE;
+        HashMap<String,Integer> tagIds = new HashMap<>();
+        for (int t = 0; t < tags.length; t++) { tagIds.put(tags[t], t); }
+
+        long[][] confusion = new long[tags.length][tags.length];
+        long knownCorrect = 0, knownTotal = 0, unknownCorrect = 0, unknownTotal = 0, lengthMismatches = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            String[] words = lines.get(i).split(" ");
+            String[] gold = answers.get(i);
+            String[] predicted = predictions.get(i);
+            if (predicted.length != gold.length || words.length != gold.length) { lengthMismatches += 1; }
+
+            for (int j = 0; j < gold.length; j++) {
+                String guess = j < predicted.length && predicted[j] != null ? predicted[j] : EvaluationResult.NONE;
+                confusion[tagIds.get(gold[j])][tagIds.get(guess)] += 1;
+                boolean correct = gold[j].equals(guess);
+                if (j < words.length && knownWord.test(words[j])) {
+                    knownTotal += 1;
+                    if (correct) { knownCorrect += 1; }
+                }
+                else {
+                    unknownTotal += 1;
+                    if (correct) { unknownCorrect += 1; }
+                }
+            }
+        }
+
+        return new EvaluationResult(tags, confusion, knownCorrect, knownTotal, unknownCorrect, unknownTotal,
+                lines.size(), lengthMismatches, seconds);
+    }
+
+    /**
+     * @return - every line of a file
+     */
+    private static List<String> readLines(String fileName) throws Exception {
+        ArrayList<String> lines = new ArrayList<>();
+        try (BufferedReader input = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            while ((line = input.readLine()) != null) { lines.add(line); }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,217 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A local HTTP tagging service that shares one tagger between many concurrent clients.
+ *
+ *   POST /tag      body: one sentence per line   response: one line of space separated tags per sentence,
+ *                                                an empty line for a sentence that cannot be tagged
+ *   GET  /metrics  plain text counters: requests, sentences, queue depth, latency percentiles and throughput
+ *
+ * Connection threads only parse requests and wait. Every request goes into one queue, from which a small pool of decoder
+ * threads takes one request at a time and tags its sentences. The requests are not batched: the tagger decodes one
+ * sentence at a time, so a batch would share no work, and the decoders already run side by side.
+ */
+public class TaggingServer {
+
+    private final Tagger tagger;
+
+    private final HttpServer server;
+    private final ExecutorService connectionPool;
+    private final ExecutorService decoderPool;
+    private final LinkedBlockingQueue<PendingRequest> queue = new LinkedBlockingQueue<>();
+
+    // Metrics
+    private final long startNanos = System.nanoTime();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder sentences = new LongAdder();
+    private final LongAdder tokens = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * Creates a server listening on localhost; call start to begin serving
+     * @param tagger - The tagger shared by every request
+     * @param port - The port to listen on, 0 to pick any free port
+     * @param decoders - The number of decoder threads
+     * @throws IOException if the port cannot be bound
+     */
+    public TaggingServer(Tagger tagger, int port, int decoders) throws IOException {
+        this.tagger = tagger;
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/tag", this::handleTag);
+        server.createContext("/metrics", this::handleMetrics);
+        connectionPool = Executors.newCachedThreadPool(daemonThreads("tagging-connection"));
+        server.setExecutor(connectionPool);
+        decoderPool = Executors.newFixedThreadPool(decoders, daemonThreads("tagging-decoder"));
+        for (int i = 0; i < decoders; i++) { decoderPool.execute(this::decodeLoop); }
+    }
+
+    /**
+     * Starts accepting connections
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting connections and stops the decoder threads
+     */
+    public void stop() {
+        server.stop(0);
+        decoderPool.shutdownNow();
+        connectionPool.shutdownNow();
+    }
+
+    /**
+     * @return - the port the server listens on
+     */
+    public int getPort() { return server.getAddress().getPort(); }
+
+    /**
+     * @return - the latency of every request answered so far, from receiving it to sending its tags
+     */
+    public LatencyHistogram getLatency() { return latency; }
+
+    /**
+     * Handles POST /tag: queues the sentences of the request and answers once a decoder has tagged them
+     */
+    private void handleTag(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                respond(exchange, 405, "Use POST with one sentence per line\n");
+                return;
+            }
+
+            String body;
+            try (InputStream in = exchange.getRequestBody()) { body = new String(in.readAllBytes(), StandardCharsets.UTF_8); }
+            String[] lines = body.isEmpty() ? new String[0] : body.split("\r?\n");
+
+            PendingRequest request = new PendingRequest(lines);
+            queue.add(request);
+            String[][] allTags = request.result.get();
+
+            StringBuilder response = new StringBuilder();
+            for (String[] tags : allTags) {
+                // A null tag means the sentence could not be tagged, and is answered with an empty line as BatchTagger writes it
+                if (!Arrays.asList(tags).contains(null)) { response.append(String.join(" ", tags)); }
+                response.append('\n');
+            }
+            respond(exchange, 200, response.toString());
+
+            requests.increment();
+            latency.record((System.nanoTime() - start) / 1000);
+        }
+        catch (Exception e) {
+            errors.increment();
+            respond(exchange, 500, "Tagging failed: " + e + "\n");
+        }
+    }
+
+    /**
+     * Handles GET /metrics
+     */
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        respond(exchange, 200, metrics());
+    }
+
+    /**
+     * @return - every metric as "name value" lines
+     */
+    public String metrics() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return "requests_total " + requests.sum() + "\n"
+                + "errors_total " + errors.sum() + "\n"
+                + "sentences_total " + sentences.sum() + "\n"
+                + "tokens_total " + tokens.sum() + "\n"
+                + "queue_depth " + queue.size() + "\n"
+                + "latency_p50_us " + latency.percentile(50) + "\n"
+                + "latency_p99_us " + latency.percentile(99) + "\n"
+                + "latency_mean_us " + latency.mean() + "\n"
+                + "throughput_sentences_per_sec " + sentences.sum() / seconds + "\n"
+                + "throughput_requests_per_sec " + requests.sum() / seconds + "\n";
+    }
+
+    /**
+     * Run by every decoder thread: take the next request and tag it
+     */
+    private void decodeLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            PendingRequest request = null;
+            try {
+                request = queue.take();
+                tagRequest(request);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                // Never leave a client waiting on a request that will not be tagged
+                if (request != null && !request.result.isDone()) { request.result.completeExceptionally(new IllegalStateException("Server stopped")); }
+            }
+        }
+    }
+
+    /**
+     * Tags every sentence of one request and completes it
+     */
+    private void tagRequest(PendingRequest request) {
+        try {
+            String[][] allTags = new String[request.lines.length][];
+            for (int i = 0; i < allTags.length; i++) {
+                allTags[i] = tagger.tag(request.lines[i]);
+                tokens.add(allTags[i].length);
+            }
+            sentences.add(allTags.length);
+            request.result.complete(allTags);
+        }
+        catch (RuntimeException e) { request.result.completeExceptionally(e); }
+    }
+
+    /**
+     * Sends a plain text response
+     */
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) { out.write(bytes); }
+    }
+
+    /**
+     * @return - a thread factory for daemon threads with a name
+     */
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * The sentences of one HTTP request, waiting for a decoder
+     */
+    private static class PendingRequest {
+        final String[] lines;
+        final CompletableFuture<String[][]> result = new CompletableFuture<>();
+
+        PendingRequest(String[] lines) { this.lines = lines; }
+    }
+}
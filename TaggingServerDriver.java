@@ -0,0 +1,87 @@
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A driver class for the tagging server.
+ * With no arguments it serves the Brown model on localhost port 8080 until killed.
+ * With "selftest" it starts the server on a free port, sends the Brown test set from many concurrent clients,
+ * checks every answer against the tagger directly, and prints the server's metrics. It then measures the latency seen by
+ * a lone client.
+ */
+public class TaggingServerDriver {
+    public static void main(String[] args) throws Exception {
+        MarkovModel markovTester = MarkovModel.loadOrTrain("./PS5/texts/brown-train.hmm", "./PS5/texts/brown-train-sentences.txt", "./PS5/texts/brown-train-tags.txt");
+        CompiledMarkovModel compiledTester = markovTester.compile();
+        int decoders = Runtime.getRuntime().availableProcessors();
+        boolean selfTest = args.length > 0 && args[0].equals("selftest");
+
+        TaggingServer server = new TaggingServer(compiledTester, selfTest ? 0 : 8080, decoders);
+        server.start();
+        System.out.println("Serving on http://localhost:" + server.getPort() + "/tag");
+        if (!selfTest) { return; }
+
+        ArrayList<String> lines = MarkovBenchmark.readLines("./PS5/texts/brown-test-sentences.txt");
+        int clients = 32;
+        ExecutorService clientPool = Executors.newFixedThreadPool(clients);
+        ArrayList<Future<Integer>> results = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            // Every client sends its share of the sentences, a few at a time
+            results.add(clientPool.submit(() -> {
+                int wrong = 0;
+                for (int i = client * 4; i < lines.size(); i += clients * 4) {
+                    StringBuilder body = new StringBuilder();
+                    ArrayList<String> sent = new ArrayList<>();
+                    for (int j = i; j < Math.min(i + 4, lines.size()); j++) { body.append(lines.get(j)).append('\n'); sent.add(lines.get(j)); }
+
+                    String[] answer = post("http://localhost:" + server.getPort() + "/tag", body.toString()).split("\n");
+                    for (int j = 0; j < sent.size(); j++) {
+                        if (!answer[j].equals(String.join(" ", compiledTester.tag(sent.get(j))))) { wrong += 1; }
+                    }
+                }
+                return wrong;
+            }));
+        }
+
+        int wrong = 0;
+        for (Future<Integer> result : results) { wrong += result.get(); }
+        clientPool.shutdown();
+
+        System.out.println("Wrong answers: " + wrong);
+        System.out.print(server.metrics());
+        server.stop();
+
+        // A lone client sending one sentence at a time.
+        // The server's own latency is reported, since the client's is dominated by the round trip over loopback TCP
+        TaggingServer lone = new TaggingServer(compiledTester, 0, decoders);
+        lone.start();
+        String url = "http://localhost:" + lone.getPort() + "/tag";
+        for (String line : lines.subList(0, 300)) { post(url, line + "\n"); }
+        LatencyHistogram serverLatency = lone.getLatency();
+        System.out.printf("Lone client: server latency mean %.0f us, p50 %d us, p99 %d us%n",
+                serverLatency.mean(), serverLatency.percentile(50), serverLatency.percentile(99));
+        lone.stop();
+    }
+
+    /**
+     * Sends a POST request and returns the body of the response
+     */
+    static String post(String url, String body) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) { out.write(body.getBytes(StandardCharsets.UTF_8)); }
+
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        try (InputStream in = connection.getInputStream()) { in.transferTo(response); }
+        return response.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,331 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+/**
+ * Raw transition and observation counts of a set of training sentences, kept in primitive arrays.
+ * Tags and words are interned into int ids; transitions are counted in a dense tag-by-tag matrix and observations in a
+ * LongCountTable keyed by (tag id, word id). Counts of different shards of the data can be merged, and normalizing the
+ * merged counts gives exactly the same transitions and observations maps as MarkovModel's own training.
+ */
+public class TrainingCounts {
+
+    private final String startPOS;
+
+    // Tag and word dictionaries
+    private final ArrayList<String> tags = new ArrayList<>();
+    private final HashMap<String,Integer> tagIds = new HashMap<>();
+    private final ArrayList<String> words = new ArrayList<>();
+    private final HashMap<String,Integer> wordIds = new HashMap<>();
+
+    // transitionCounts[from * tagCapacity + to] counts each transition
+    private int tagCapacity = 64;
+    private long[] transitionCounts = new long[tagCapacity * tagCapacity];
+    private long[] transitionTotals = new long[tagCapacity];
+    private long[] observationTotals = new long[tagCapacity];
+
+    // Count of each word under each tag, keyed by observationKey(tag, word)
+    private final LongCountTable observationCounts = new LongCountTable(1 << 12);
+    // How many of those tokens were written with a capital first letter, under the same keys
+    private final LongCountTable capitalCounts = new LongCountTable(1 << 8);
+
+    /**
+     * Creates empty counts
+     * @param startPOS - The starting part of speech that every sentence transitions from
+     */
+    public TrainingCounts(String startPOS) {
+        this.startPOS = startPOS;
+        tagId(startPOS);
+    }
+
+    /**
+     * Counts the transitions and observations of one sentence, in the same way as MarkovModel's training
+     * @param sentence - The words of the sentence, counted in the form MarkovModel.normalizeWord gives them
+     * @param sentenceTags - The tag of each word of the sentence
+     */
+    public void addSentence(String[] sentence, String[] sentenceTags) {
+        int prevTag = tagId(startPOS);
+        for (int i = 0; i < sentenceTags.length; i++) {
+            int currTag = tagId(sentenceTags[i]);
+            addTransition(prevTag, currTag, 1);
+            int word = wordId(MarkovModel.normalizeWord(sentence[i]));
+            addObservation(currTag, word, 1);
+            if (UnknownWordModel.isCapitalized(sentence[i])) { capitalCounts.add(observationKey(currTag, word), 1); }
+            prevTag = currTag;
+        }
+    }
+
+    /**
+     * Counts only the transitions of one sentence, for callers that count its observations some other way
+     * @param sentenceTags - The tag of each word of the sentence
+     */
+    void addTransitions(String[] sentenceTags) {
+        int prevTag = tagId(startPOS);
+        for (String tag : sentenceTags) {
+            int currTag = tagId(tag);
+            addTransition(prevTag, currTag, 1);
+            prevTag = currTag;
+        }
+    }
+
+    /**
+     * Adds every count of another set of counts to these ones
+     * @param other - The counts to merge in, which are left unchanged
+     */
+    public void merge(TrainingCounts other) {
+        add(other, 1);
+    }
+
+    /**
+     * Takes every count of another set of counts away from these ones, e.g. to hold out one fold of the data
+     * without counting the rest again. The other counts must be a part of these ones.
+     * @param other - The counts to take away, which are left unchanged
+     */
+    public void subtract(TrainingCounts other) {
+        add(other, -1);
+    }
+
+    /**
+     * Adds every count of another set of counts, times a sign, to these ones
+     */
+    private void add(TrainingCounts other, long sign) {
+        // Translate the other dictionaries into ids of this one
+        int[] tagMapping = new int[other.tags.size()];
+        for (int i = 0; i < tagMapping.length; i++) { tagMapping[i] = tagId(other.tags.get(i)); }
+        int[] wordMapping = new int[other.words.size()];
+        for (int i = 0; i < wordMapping.length; i++) { wordMapping[i] = wordId(other.words.get(i)); }
+
+        for (int from = 0; from < tagMapping.length; from++) {
+            for (int to = 0; to < tagMapping.length; to++) {
+                long count = other.transitionCounts[from * other.tagCapacity + to];
+                if (count != 0) { addTransition(tagMapping[from], tagMapping[to], sign * count); }
+            }
+        }
+
+        LongCountTable otherObservations = other.observationCounts;
+        for (int slot = 0; slot < otherObservations.capacity(); slot++) {
+            long key = otherObservations.keyAt(slot);
+            if (key < 0) { continue; }
+            addObservation(tagMapping[(int) (key >>> 32)], wordMapping[(int) key], sign * otherObservations.countAt(slot));
+        }
+        LongCountTable otherCapitals = other.capitalCounts;
+        for (int slot = 0; slot < otherCapitals.capacity(); slot++) {
+            long key = otherCapitals.keyAt(slot);
+            if (key < 0) { continue; }
+            capitalCounts.add(observationKey(tagMapping[(int) (key >>> 32)], wordMapping[(int) key]), sign * otherCapitals.countAt(slot));
+        }
+    }
+
+    /**
+     * Counts a list of sentences split into shards on several threads, and merges the counts of the shards
+     * @param sentences - Each sentence split into its words
+     * @param sentenceTags - The corresponding tags of each sentence
+     * @param startPOS - The starting part of speech
+     * @param shards - The number of shards, each counted on its own thread
+     * @return - the counts of all the sentences
+     * @throws Exception if counting any shard fails
+     */
+    public static TrainingCounts countSharded(List<String[]> sentences, List<String[]> sentenceTags, String startPOS, int shards) throws Exception {
+        if (shards < 1) { throw new IllegalArgumentException("At least one shard is needed"); }
+        ExecutorService pool = Executors.newFixedThreadPool(shards);
+        try {
+            ArrayList<Future<TrainingCounts>> shardCounts = new ArrayList<>();
+            int shardSize = (sentenceTags.size() + shards - 1) / shards;
+            for (int start = 0; start < sentenceTags.size(); start += shardSize) {
+                int from = start, to = Math.min(start + shardSize, sentenceTags.size());
+                shardCounts.add(pool.submit(() -> {
+                    TrainingCounts counts = new TrainingCounts(startPOS);
+                    for (int j = from; j < to; j++) { counts.addSentence(sentences.get(j), sentenceTags.get(j)); }
+                    return counts;
+                }));
+            }
+
+            TrainingCounts allCounts = new TrainingCounts(startPOS);
+            for (Future<TrainingCounts> counts : shardCounts) { allCounts.merge(counts.get()); }
+            return allCounts;
+        }
+        finally { pool.shutdown(); }
+    }
+
+    /**
+     * Counts a sentence file and its tag file by reading both a line at a time in lockstep,
+     * so memory only grows with the number of distinct tags and words and never with the number of sentences
+     * @param fileWords - The file containing all the sentences
+     * @param fileTags - The file containing all the corresponding tags for the sentences
+     * @param startPOS - The starting part of speech
+     * @return - the counts of every sentence in the files
+     * @throws Exception if a file cannot be read, or if the files do not have the same number of lines,
+     * or if a line does not have as many words as tags
+     */
+    public static TrainingCounts countStreaming(String fileWords, String fileTags, String startPOS) throws Exception {
+        TrainingCounts counts = new TrainingCounts(startPOS);
+        forEachSentence(fileWords, fileTags, counts::addSentence);
+        return counts;
+    }
+
+    /**
+     * Reads a sentence file and its tag file a line at a time in lockstep, handing every sentence and its tags on
+     * @param fileWords - The file containing all the sentences
+     * @param fileTags - The file containing all the corresponding tags for the sentences
+     * @param sentences - Called with the words and the tags of every sentence in turn
+     * @throws Exception if a file cannot be read, or if the files do not have the same number of lines,
+     * or if a line does not have as many words as tags
+     */
+    static void forEachSentence(String fileWords, String fileTags, BiConsumer<String[],String[]> sentences) throws Exception {
+        try (BufferedReader wordsInput = new BufferedReader(new FileReader(fileWords));
+             BufferedReader tagsInput = new BufferedReader(new FileReader(fileTags))) {
+            int lineNumber = 0;
+            while (true) {
+                String wordsLine = wordsInput.readLine();
+                String tagsLine = tagsInput.readLine();
+                lineNumber += 1;
+                if (wordsLine == null && tagsLine == null) { break; }
+
+                // Report the first place where the two files stop lining up
+                if (wordsLine == null || tagsLine == null) {
+                    throw new Exception((wordsLine == null ? fileWords : fileTags) + " ends at line " + lineNumber
+                            + " but " + (wordsLine == null ? fileTags : fileWords) + " continues");
+                }
+                String[] sentence = wordsLine.split(" ");
+                String[] sentenceTags = tagsLine.split(" ");
+                if (sentence.length != sentenceTags.length) {
+                    throw new Exception("Line " + lineNumber + " has " + sentence.length + " words but "
+                            + sentenceTags.length + " tags");
+                }
+
+                sentences.accept(sentence, sentenceTags);
+            }
+        }
+    }
+
+    /**
+     * Collects the transition counts into the raw frequency maps that MarkovModel normalizes.
+     * Like MarkovModel's training, only tags with at least one transition get a row, except the start POS which always has one.
+     * @return - the map of each part of speech to its next parts of speech and their frequencies
+     */
+    public HashMap<String,HashMap<String,Double>> toTransitionsCounts() {
+        HashMap<String,HashMap<String,Double>> transitionsCounts = new HashMap<>();
+        for (int from = 0; from < tags.size(); from++) {
+            if (transitionTotals[from] == 0 && !tags.get(from).equals(startPOS)) { continue; }
+
+            HashMap<String,Double> row = new HashMap<>();
+            for (int to = 0; to < tags.size(); to++) {
+                long count = transitionCounts[from * tagCapacity + to];
+                if (count != 0) { row.put(tags.get(to), (double) count); }
+            }
+            transitionsCounts.put(tags.get(from), row);
+        }
+        return transitionsCounts;
+    }
+
+    /**
+     * Collects the observation counts into the raw frequency maps that MarkovModel normalizes
+     * @return - the map of each part of speech to its words and their frequencies
+     */
+    public HashMap<String,HashMap<String,Double>> toObservationCounts() { return toMaps(observationCounts); }
+
+    /**
+     * Collects the counts of the tokens written with a capital first letter, which the unknown-word model learns from
+     * @return - the map of each part of speech to its words and how many of their tokens were capitalized
+     */
+    public HashMap<String,HashMap<String,Double>> toCapitalCounts() { return toMaps(capitalCounts); }
+
+    /**
+     * @param table - Counts keyed by observationKey(tag, word)
+     * @return - the map of each part of speech to its words and their counts, leaving out counts of zero
+     */
+    private HashMap<String,HashMap<String,Double>> toMaps(LongCountTable table) {
+        HashMap<String,HashMap<String,Double>> observationMap = new HashMap<>();
+        for (int slot = 0; slot < table.capacity(); slot++) {
+            long key = table.keyAt(slot);
+            long count = table.countAt(slot);
+            if (key < 0 || count == 0) { continue; }
+
+            String tag = tags.get((int) (key >>> 32));
+            HashMap<String,Double> row = observationMap.get(tag);
+            if (row == null) {
+                row = new HashMap<>();
+                observationMap.put(tag, row);
+            }
+            row.put(words.get((int) key), (double) count);
+        }
+        return observationMap;
+    }
+
+    /**
+     * @return - the starting part of speech
+     */
+    public String getStartPOS() { return startPOS; }
+
+    /**
+     * Adds to the count of a transition and to the total of its from tag
+     */
+    private void addTransition(int from, int to, long count) {
+        transitionCounts[from * tagCapacity + to] += count;
+        transitionTotals[from] += count;
+    }
+
+    /**
+     * Adds to the count of a word under a tag and to the total of the tag
+     */
+    private void addObservation(int tag, int word, long count) {
+        observationCounts.add(observationKey(tag, word), count);
+        observationTotals[tag] += count;
+    }
+
+    /**
+     * @return - the key of a (tag, word) pair in the observation counts
+     */
+    private static long observationKey(int tag, int word) {
+        return ((long) tag << 32) | word;
+    }
+
+    /**
+     * @return - the id of a tag, interning it and growing the tag tables if it is new
+     */
+    private int tagId(String tag) {
+        Integer id = tagIds.get(tag);
+        if (id != null) { return id; }
+
+        id = tags.size();
+        if (id == tagCapacity) { growTags(); }
+        tags.add(tag);
+        tagIds.put(tag, id);
+        return id;
+    }
+
+    /**
+     * @return - the id of a word, interning it if it is new
+     */
+    private int wordId(String word) {
+        Integer id = wordIds.get(word);
+        if (id != null) { return id; }
+
+        id = words.size();
+        words.add(word);
+        wordIds.put(word, id);
+        return id;
+    }
+
+    /**
+     * Doubles the number of tags the transition matrix and totals can hold
+     */
+    private void growTags() {
+        int newCapacity = tagCapacity * 2;
+        long[] newTransitions = new long[newCapacity * newCapacity];
+        for (int from = 0; from < tagCapacity; from++) {
+            System.arraycopy(transitionCounts, from * tagCapacity, newTransitions, from * newCapacity, tagCapacity);
+        }
+        transitionCounts = newTransitions;
+        transitionTotals = Arrays.copyOf(transitionTotals, newCapacity);
+        observationTotals = Arrays.copyOf(observationTotals, newCapacity);
+        tagCapacity = newCapacity;
+    }
+}
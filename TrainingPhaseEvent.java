@@ -0,0 +1,47 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event for one phase of training a MarkovModel: reading a file, counting the sentences,
+ * or normalizing the counts into log frequencies.
+ */
+@Name("postagger.TrainingPhase")
+@Label("Training Phase")
+@Category("POS Tagger")
+@Description("One phase of training the Markov model")
+@StackTrace(false)
+public class TrainingPhaseEvent extends Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Source")
+    @Description("The file read, if any")
+    String source;
+
+    @Label("Items")
+    @Description("The lines read, sentences counted or rows normalized")
+    long items;
+
+    /**
+     * Ends a phase: commits the event if a recording wants it, and records the phase's time in the global metrics
+     * @param event - The event, begun at the start of the phase
+     * @param startNanos - What the registry's startNanos returned at the start of the phase
+     * @param phase - The name of the phase
+     * @param source - The file read, or null
+     * @param items - The lines read, sentences counted or rows normalized
+     */
+    static void end(TrainingPhaseEvent event, long startNanos, String phase, String source, long items) {
+        if (event.shouldCommit()) {
+            event.phase = phase;
+            event.source = source;
+            event.items = items;
+            event.commit();
+        }
+        MetricsRegistry.global().recordPhase(phase, startNanos);
+    }
+}
@@ -0,0 +1,34 @@
+import java.util.ArrayList;
+
+/**
+ * A driver class that compares the trigram model with the bigram model on the Brown test set,
+ * reporting the accuracy and throughput of each against exact bigram decoding.
+ */
+public class TrigramDriver {
+    public static void main(String[] args) throws Exception {
+        String trainWords = "./PS5/texts/brown-train-sentences.txt", trainTags = "./PS5/texts/brown-train-tags.txt";
+        MarkovModel markovTester = new MarkovModel(trainWords, trainTags);
+        TrigramMarkovModel trigramTester = new TrigramMarkovModel(trainWords, trainTags, false);
+        TrigramMarkovModel trigramUnknownTester = new TrigramMarkovModel(trainWords, trainTags, true);
+        TrigramMarkovModel trigramWeightedTester = new TrigramMarkovModel(trainWords, trainTags, false, new double[] {0.001, 0.6, 0.399});
+        ArrayList<String> lines = MarkovBenchmark.readLines("./PS5/texts/brown-test-sentences.txt");
+        ArrayList<String> tagLines = MarkovBenchmark.readLines("./PS5/texts/brown-test-tags.txt");
+
+        double[] lambdas = trigramTester.getLambdas();
+        System.out.printf("Interpolation weights: unigram %.3f, bigram %.3f, trigram %.3f%n", lambdas[0], lambdas[1], lambdas[2]);
+
+        String[] names = {"bigram exact", "bigram exact + unknown words", "trigram beam 30", "trigram beam 10",
+                "trigram beam 30 + unknown words", "trigram weights .001/.6/.399"};
+        Tagger[] taggers = {markovTester.compile(), markovTester.compile(true), trigramTester,
+                trigramTester.beamTagger(10), trigramUnknownTester, trigramWeightedTester};
+
+        double bigramRate = 0;
+        System.out.printf("%-32s %10s %16s %12s%n", "Tagger", "Accuracy", "Sentences/sec", "vs bigram");
+        for (int t = 0; t < taggers.length; t++) {
+            double rate = AmbiguityClassDriver.sentencesPerSecond(taggers[t], lines);
+            if (t == 0) { bigramRate = rate; }
+            System.out.printf("%-32s %9.3f%% %16.0f %11.2fx%n", names[t], 100 * BeamSearchDriver.accuracy(taggers[t], lines, tagLines),
+                    rate, rate / bigramRate);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A second-order Hidden Markov Model, where each part of speech depends on the two before it.
+ *
+ * The transition probability P(t3 | t1, t2) mixes the trigram, bigram and unigram estimates,
+ *   P(t3 | t1, t2) = l1 P(t3) + l2 P(t3 | t2) + l3 P(t3 | t1, t2)
+ * with weights found by deleted interpolation (Brants, TnT): every trigram of the training data votes, with its count,
+ * for whichever estimate predicts it best once that trigram is left out. Every tag can therefore follow any pair of tags,
+ * with a small probability, and trigrams never seen in training fall back to the bigram and unigram estimates.
+ * Observations are those of the bigram model compiled from the same counts: this model decodes with that model's
+ * lexicon, observation rows, unseen constant, ambiguity classes and unknown-word scores instead of building its own.
+ *
+ * The Viterbi search runs over pairs of tags, so a full search would cost numTags^3 steps per word instead of numTags^2.
+ * To keep it fast, every word only considers the tags of its ambiguity class in the bigram model, the tags it was seen
+ * with in training, or the open-class tags if it was never seen; and after every word, pairs scoring more than the beam
+ * threshold below the best pair are dropped. A word none of whose candidates can follow any live pair, which can happen
+ * when some weight is zero, considers every tag instead, like CompiledMarkovModel.decodeRestricted. All scores live in dense arrays: transitionScores[(t1 * numTags + t2) * numTags + t3].
+ */
+public class TrigramMarkovModel implements Tagger {
+
+    static final int START_ID = CompiledMarkovModel.START_ID;
+    // Same start POS as MarkovModel
+    private static final String START_POS = "#";
+    // Default beam, in log space: wide enough that it almost never changes the best path
+    static final double DEFAULT_BEAM_THRESHOLD = 30.0;
+
+    // The bigram model compiled from the same counts, whose tags, words and observation scores this model decodes with
+    private final CompiledMarkovModel observations;
+    private final int numTags;
+
+    // Log of the interpolated P(t3 | t1, t2), at [(t1 * numTags + t2) * numTags + t3]
+    private final double[] transitionScores;
+    // The interpolation weights of the unigram, bigram and trigram estimates
+    private final double[] lambdas;
+    // Every tag id in order, the candidates of a word none of whose own candidates can follow a live pair
+    private final int[] everyTag;
+
+    private final ThreadLocal<TrigramBuffers> buffers = ThreadLocal.withInitial(TrigramBuffers::new);
+
+    /**
+     * Trains a trigram model from the two training files
+     * @param fileWords - The file containing all the sentences
+     * @param fileTags - The file containing all the corresponding tags for the sentences
+     * @param unknownWordModel - Whether to score words that were never observed by their shape and suffix
+     * @throws Exception if a file cannot be read or the files do not line up
+     */
+    public TrigramMarkovModel(String fileWords, String fileTags, boolean unknownWordModel) throws Exception {
+        this(fileWords, fileTags, unknownWordModel, null);
+    }
+
+    /**
+     * Trains a trigram model from the two training files with given interpolation weights, e.g. weights tuned on held-out data
+     * @param fileWords - The file containing all the sentences
+     * @param fileTags - The file containing all the corresponding tags for the sentences
+     * @param unknownWordModel - Whether to score words that were never observed by their shape and suffix
+     * @param weights - The weights of the unigram, bigram and trigram estimates, which are scaled to sum to one,
+     *                or null to find them by deleted interpolation
+     * @throws Exception if a file cannot be read or the files do not line up
+     */
+    public TrigramMarkovModel(String fileWords, String fileTags, boolean unknownWordModel, double[] weights) throws Exception {
+        if (weights != null && (weights.length != 3 || weights[0] < 0 || weights[1] < 0 || weights[2] < 0)) {
+            throw new IllegalArgumentException("Expected three non-negative interpolation weights");
+        }
+
+        // One pass over the files counts the words and tags of the bigram model, and the tag trigrams, where every sentence
+        // starts with two start POS. Tags are numbered in the order they are first seen until the bigram model gives them
+        // their ids; a trigram key holds the three numbers, 21 bits each
+        TrainingCounts counts = new TrainingCounts(START_POS);
+        HashMap<String,Integer> seenTags = new HashMap<>();
+        seenTags.put(START_POS, 0);
+        LongCountTable trigramCounts = new LongCountTable(1 << 12);
+        TrainingCounts.forEachSentence(fileWords, fileTags, (sentence, sentenceTags) -> {
+            counts.addSentence(sentence, sentenceTags);
+            long first = 0, second = 0;
+            for (String tag : sentenceTags) {
+                long third = seenTags.computeIfAbsent(tag, newTag -> seenTags.size());
+                trigramCounts.add((first << 42) | (second << 21) | third, 1);
+                first = second;
+                second = third;
+            }
+        });
+
+        // The observations of the bigram model trained on the same counts, with its tag ids: the start POS at id 0 and
+        // the rest in sorted order
+        MarkovModel source = MarkovModel.fromCounts(counts, 0, MarkovModel.DEFAULT_UNSEEN_CONSTANT);
+        observations = new CompiledMarkovModel(source, unknownWordModel);
+        numTags = observations.numTags();
+        everyTag = new int[numTags];
+        for (int t = 0; t < numTags; t++) { everyTag[t] = t; }
+
+        // Every token is the third tag of one trigram, so the unigram and bigram counts are sums of the trigram counts
+        int[] tagMapping = new int[seenTags.size()];
+        for (Map.Entry<String,Integer> tag : seenTags.entrySet()) { tagMapping[tag.getValue()] = observations.tagId(tag.getKey()); }
+        long[] unigrams = new long[numTags];
+        long[] bigrams = new long[numTags * numTags];
+        long[] trigrams = new long[numTags * numTags * numTags];
+        long tokens = 0;
+        for (int slot = 0; slot < trigramCounts.capacity(); slot++) {
+            long key = trigramCounts.keyAt(slot);
+            if (key < 0) { continue; }
+            long count = trigramCounts.countAt(slot);
+            int first = tagMapping[(int) (key >>> 42)], second = tagMapping[(int) (key >>> 21) & 0x1FFFFF], third = tagMapping[(int) key & 0x1FFFFF];
+            unigrams[third] += count;
+            bigrams[second * numTags + third] += count;
+            trigrams[(first * numTags + second) * numTags + third] += count;
+            tokens += count;
+        }
+
+        // The number of times each pair and each tag was followed by anything
+        long[] pairContexts = new long[numTags * numTags];
+        long[] tagContexts = new long[numTags];
+        for (int pair = 0; pair < numTags * numTags; pair++) {
+            for (int third = 0; third < numTags; third++) { pairContexts[pair] += trigrams[pair * numTags + third]; }
+            tagContexts[pair / numTags] += bigrams[pair];
+        }
+
+        // Unless weights were given, find them by deleted interpolation: each trigram adds its count to the estimate
+        // that predicts it best without it
+        lambdas = weights == null ? new double[3] : weights.clone();
+        for (int pair = 0; weights == null && pair < numTags * numTags; pair++) {
+            int second = pair % numTags;
+            for (int third = 0; third < numTags; third++) {
+                long count = trigrams[pair * numTags + third];
+                if (count == 0) { continue; }
+                double trigram = pairContexts[pair] > 1 ? (count - 1.0) / (pairContexts[pair] - 1) : 0;
+                double bigram = tagContexts[second] > 1 ? (bigrams[second * numTags + third] - 1.0) / (tagContexts[second] - 1) : 0;
+                double unigram = tokens > 1 ? (unigrams[third] - 1.0) / (tokens - 1) : 0;
+                if (trigram >= bigram && trigram >= unigram) { lambdas[2] += count; }
+                else if (bigram >= unigram) { lambdas[1] += count; }
+                else { lambdas[0] += count; }
+            }
+        }
+        double lambdaTotal = lambdas[0] + lambdas[1] + lambdas[2];
+        for (int i = 0; i < 3; i++) { lambdas[i] /= lambdaTotal; }
+
+        // The interpolated transition scores; nothing ever transitions back to the start POS
+        transitionScores = new double[numTags * numTags * numTags];
+        for (int pair = 0; pair < numTags * numTags; pair++) {
+            int second = pair % numTags;
+            for (int third = 0; third < numTags; third++) {
+                double probability = lambdas[0] * unigrams[third] / tokens;
+                if (tagContexts[second] > 0) { probability += lambdas[1] * bigrams[second * numTags + third] / tagContexts[second]; }
+                if (pairContexts[pair] > 0) { probability += lambdas[2] * trigrams[pair * numTags + third] / pairContexts[pair]; }
+                transitionScores[pair * numTags + third] = third == START_ID || probability == 0 ? Double.NEGATIVE_INFINITY : Math.log(probability);
+            }
+        }
+    }
+
+    /**
+     * Tags a line of text with the default beam
+     * @param line - String line of text to be tagged, with words separated by a " "
+     * @return - the array of String parts of speech in order from the start to the end of the sentence
+     */
+    public String[] tag(String line) {
+        return viterbiAlgo(line, DEFAULT_BEAM_THRESHOLD);
+    }
+
+    /**
+     * Run the trigram Viterbi algorithm on a line of text
+     * @param line - String line of text to be tagged, with words separated by a " "
+     * @param beamThreshold - How far below the best pair of tags, in log space, a pair may fall before it is dropped
+     * @return - the array of String parts of speech in order from the start to the end of the sentence
+     */
+    public String[] viterbiAlgo(String line, double beamThreshold) {
+        TrigramBuffers buf = buffers.get();
+        String[] eachObservation = line.split(" ");
+        int length = eachObservation.length;
+        buf.ensureCapacity(length, numTags);
+
+        int numPairs = numTags * numTags;
+        double[] currScores = buf.currScores;
+        double[] nextScores = buf.nextScores;
+        int[] livePairs = buf.livePairs;
+        int[] nextPairs = buf.nextPairs;
+        int[] backPointers = buf.backPointers;
+
+        // Before the first word the only state is the pair of start tags
+        Arrays.fill(currScores, Double.NEGATIVE_INFINITY);
+        Arrays.fill(nextScores, Double.NEGATIVE_INFINITY);
+        currScores[START_ID * numTags + START_ID] = 0.0;
+        livePairs[0] = START_ID * numTags + START_ID;
+        int liveCount = 1;
+
+        for (int i = 0; i < length; i++) {
+            int word = observations.wordId(MarkovModel.normalizeWord(eachObservation[i]));
+            double[] observed = word >= 0 ? observations.observationRow(word, buf.observedRow) : observations.unknownWordScores(eachObservation[i]);
+
+            int[] candidates = observations.candidateTags(word);
+            int candidateStart = observations.candidateStart(word);
+            int candidateEnd = observations.candidateEnd(word);
+
+            // Extend every live pair (first, second) by each candidate third tag, into the pair (second, third).
+            // If no candidate can follow any live pair, e.g. with a zero unigram weight, extend them by every tag instead
+            int backBase = i * numPairs;
+            int nextCount = 0;
+            double best = Double.NEGATIVE_INFINITY;
+            for (int pass = 0; pass < 2 && nextCount == 0; pass++) {
+                if (pass == 1) {
+                    candidates = everyTag;
+                    candidateStart = 0;
+                    candidateEnd = numTags;
+                }
+                for (int k = 0; k < liveCount; k++) {
+                    int pair = livePairs[k];
+                    double pairScore = currScores[pair];
+                    int second = pair % numTags;
+                    int transBase = pair * numTags;
+                    for (int c = candidateStart; c < candidateEnd; c++) {
+                        int third = candidates[c];
+                        double nextScore = pairScore + transitionScores[transBase + third] + observed[third];
+                        int nextPair = second * numTags + third;
+                        if (nextScore > nextScores[nextPair]) {
+                            if (nextScores[nextPair] == Double.NEGATIVE_INFINITY) { nextPairs[nextCount++] = nextPair; }
+                            nextScores[nextPair] = nextScore;
+                            backPointers[backBase + nextPair] = pair / numTags;
+                            if (nextScore > best) { best = nextScore; }
+                        }
+                    }
+                }
+            }
+
+            // Clear the old scores, and keep only the new pairs within the beam
+            for (int k = 0; k < liveCount; k++) { currScores[livePairs[k]] = Double.NEGATIVE_INFINITY; }
+            liveCount = 0;
+            for (int k = 0; k < nextCount; k++) {
+                int pair = nextPairs[k];
+                if (nextScores[pair] >= best - beamThreshold) { livePairs[liveCount++] = pair; }
+                else { nextScores[pair] = Double.NEGATIVE_INFINITY; }
+            }
+
+            double[] swap = currScores;
+            currScores = nextScores;
+            nextScores = swap;
+        }
+
+        // Find the best final pair and follow the backpointers
+        int bestPair = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < liveCount; k++) {
+            int pair = livePairs[k];
+            if (currScores[pair] > bestScore || (currScores[pair] == bestScore && pair < bestPair)) {
+                bestScore = currScores[pair];
+                bestPair = pair;
+            }
+        }
+        for (int k = 0; k < liveCount; k++) { currScores[livePairs[k]] = Double.NEGATIVE_INFINITY; }
+
+        String[] finalTags = new String[length];
+        if (bestPair < 0 || length == 0) { return finalTags; }
+        int second = bestPair / numTags, third = bestPair % numTags;
+        for (int i = length - 1; i >= 0; i--) {
+            finalTags[i] = observations.tagName(third);
+            int first = backPointers[i * numPairs + second * numTags + third];
+            third = second;
+            second = first;
+        }
+        return finalTags;
+    }
+
+    /**
+     * @param beamThreshold - How far below the best pair a pair may fall before it is dropped
+     * @return - a tagger that decodes with this beam
+     */
+    public Tagger beamTagger(double beamThreshold) {
+        return line -> viterbiAlgo(line, beamThreshold);
+    }
+
+    /**
+     * @return - the interpolation weights of the unigram, bigram and trigram estimates
+     */
+    public double[] getLambdas() { return lambdas.clone(); }
+
+    /**
+     * @return - the number of tags, including the start POS
+     */
+    public int numTags() { return numTags; }
+
+    /**
+     * The score and backpointer arrays reused by one thread across sentences.
+     * Within a sentence only the live pairs of each word are cleared, instead of every pair.
+     */
+    private static class TrigramBuffers {
+        double[] currScores = new double[0];
+        double[] nextScores = new double[0];
+        // The observation scores of a known word, spread out from its lexicon row
+        double[] observedRow = new double[0];
+        int[] livePairs = new int[0];
+        int[] nextPairs = new int[0];
+        int[] backPointers = new int[0];
+
+        void ensureCapacity(int length, int numTags) {
+            int numPairs = numTags * numTags;
+            if (currScores.length < numPairs) {
+                currScores = new double[numPairs];
+                nextScores = new double[numPairs];
+                observedRow = new double[numTags];
+                livePairs = new int[numPairs];
+                nextPairs = new int[numPairs];
+            }
+            if (backPointers.length < length * numPairs) {
+                backPointers = new int[Math.max(length * numPairs, backPointers.length * 2)];
+            }
+        }
+    }
+}
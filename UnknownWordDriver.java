@@ -0,0 +1,112 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+
+/**
+ * A driver class that compares the unknown-word model with the flat unseen constant on the Brown test set.
+ * It trains once on all of the Brown training set and once on a tenth of it, which leaves many more test words
+ * unknown, like text from outside the training domain, and reports the accuracy on all words and on unknown words only.
+ * The Brown files are all lowercase, so it then writes their proper nouns capitalized, as in running text, and checks
+ * that the capital shape is learned: a capitalized unknown word must score differently from its lowercase form.
+ */
+public class UnknownWordDriver {
+    public static void main(String[] args) throws Exception {
+        ArrayList<String> trainLines = MarkovBenchmark.readLines("./PS5/texts/brown-train-sentences.txt");
+        ArrayList<String> trainTagLines = MarkovBenchmark.readLines("./PS5/texts/brown-train-tags.txt");
+        ArrayList<String> lines = MarkovBenchmark.readLines("./PS5/texts/brown-test-sentences.txt");
+        ArrayList<String> tagLines = MarkovBenchmark.readLines("./PS5/texts/brown-test-tags.txt");
+
+        System.out.printf("%-10s %-14s %10s %10s %10s %16s%n", "Training", "Unknown words", "Accuracy", "Unknown", "Known", "Sentences/sec");
+        for (int fraction : new int[] {1, 10}) {
+            // Write every fraction-th training sentence to temporary files, and train on those
+            File words = File.createTempFile("train-sentences", ".txt");
+            File tags = File.createTempFile("train-tags", ".txt");
+            words.deleteOnExit();
+            tags.deleteOnExit();
+            try (BufferedWriter wordOut = new BufferedWriter(new FileWriter(words));
+                 BufferedWriter tagOut = new BufferedWriter(new FileWriter(tags))) {
+                for (int i = 0; i < trainLines.size(); i += fraction) {
+                    wordOut.write(trainLines.get(i));
+                    wordOut.newLine();
+                    tagOut.write(trainTagLines.get(i));
+                    tagOut.newLine();
+                }
+            }
+            MarkovModel model = new MarkovModel(words.getPath(), tags.getPath());
+            String training = fraction == 1 ? "all" : "1/" + fraction;
+
+            for (boolean unknownWordModel : new boolean[] {false, true}) {
+                CompiledMarkovModel compiled = model.compile(unknownWordModel);
+                report(training, unknownWordModel ? "shape+suffix" : "constant", compiled, lines, tagLines);
+                UnknownWordModel unknownWords = compiled.getUnknownWordModel();
+                if (unknownWords != null) {
+                    System.out.printf("%-10s cache hits %d, misses %d%n", "", unknownWords.getCacheHits(), unknownWords.getCacheMisses());
+                }
+            }
+        }
+
+        // Train on the Brown training set with every proper noun capitalized
+        TrainingCounts counts = new TrainingCounts("#");
+        for (int i = 0; i < trainLines.size(); i++) {
+            String[] sentenceTags = trainTagLines.get(i).split(" ");
+            counts.addSentence(capitalizeProperNouns(trainLines.get(i), sentenceTags).split(" "), sentenceTags);
+        }
+        CompiledMarkovModel cased = MarkovModel.fromCounts(counts, 0, MarkovModel.DEFAULT_UNSEEN_CONSTANT).compile(true);
+        ArrayList<String> casedLines = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) { casedLines.add(capitalizeProperNouns(lines.get(i), tagLines.get(i).split(" "))); }
+        report("cased", "cased text", cased, casedLines, tagLines);
+        report("cased", "lowercase text", cased, lines, tagLines);
+
+        int properNoun = cased.tagId("NP");
+        for (String word : new String[] {"Kelbrook", "kelbrook", "Tarvenning", "tarvenning"}) {
+            double[] scores = cased.unknownWordScores(word);
+            int best = 0;
+            for (int tag = 1; tag < scores.length; tag++) { if (scores[tag] > scores[best]) { best = tag; } }
+            System.out.printf("Unknown word %-11s NP score %8.3f, best tag %s%n", word, scores[properNoun], cased.tagName(best));
+        }
+    }
+
+    /**
+     * @return - a line with the first letter of every word tagged as a proper noun capitalized
+     */
+    private static String capitalizeProperNouns(String line, String[] tags) {
+        String[] words = line.split(" ");
+        for (int i = 0; i < words.length && i < tags.length; i++) {
+            if (tags[i].equals("NP") && !words[i].isEmpty()) { words[i] = Character.toUpperCase(words[i].charAt(0)) + words[i].substring(1); }
+        }
+        return String.join(" ", words);
+    }
+
+    /**
+     * Prints the accuracy of a compiled model on all words, unknown words and known words, and its speed
+     */
+    private static void report(String training, String name, CompiledMarkovModel compiled, ArrayList<String> lines, ArrayList<String> tagLines) {
+        long correctUnknown = 0, totalUnknown = 0, correctKnown = 0, totalKnown = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            String[] observations = lines.get(i).split(" ");
+            String[] predicted = compiled.tag(lines.get(i));
+            String[] answers = tagLines.get(i).split(" ");
+            for (int j = 0; j < answers.length; j++) {
+                boolean correct = j < predicted.length && answers[j].equals(predicted[j]);
+                if (compiled.wordId(observations[j].toLowerCase()) < 0) {
+                    totalUnknown += 1;
+                    if (correct) { correctUnknown += 1; }
+                }
+                else {
+                    totalKnown += 1;
+                    if (correct) { correctKnown += 1; }
+                }
+            }
+        }
+
+        int passes = 3;
+        long start = System.nanoTime();
+        for (int pass = 0; pass < passes; pass++) { for (String line : lines) { compiled.tag(line); } }
+        double rate = passes * lines.size() / ((System.nanoTime() - start) / 1e9);
+
+        System.out.printf("%-10s %-14s %9.3f%% %9.3f%% %9.3f%% %16.0f%n", training, name,
+                100.0 * (correctUnknown + correctKnown) / (totalUnknown + totalKnown),
+                100.0 * correctUnknown / Math.max(1, totalUnknown), 100.0 * correctKnown / Math.max(1, totalKnown), rate);
+    }
+}
@@ -0,0 +1,258 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Observation scores for words that were never seen in training, guessed from the shape and suffix of the word.
+ * Without it every tag gets the same unseen constant for an unknown word, so only the transitions decide its tag.
+ *
+ * The model is trained from the rare words of the training data, which behave most like unknown words. Each rare word
+ * is filed under its shape (whether it has a digit, a hyphen, a capital first letter) and each of its suffixes of up to
+ * MAX_SUFFIX letters, and counts its tags there. Words are counted lowercased, so whether a rare word had a capital is
+ * taken from a separate count of the tokens that were written with one. An unknown word then starts from the tag distribution of its shape and
+ * refines it with ever longer suffixes, mixing each level with the one below it as in Brants' TnT tagger, so that a
+ * suffix seen only a few times cannot override the shorter ones.
+ *
+ * The distribution of tags given the word is turned into a score per tag with Bayes' rule, P(word|tag) ~ P(tag|word) / count(tag),
+ * which puts it on the same log frequency scale as the observations of known words.
+ * Tags never seen with a rare word of that shape, such as determiners, keep the unseen constant.
+ *
+ * Scoring a word takes several hash lookups, so the scores of the most recent unknown words are kept in a small
+ * fixed-size cache; a repeated unknown word such as a name or a product code costs a single lookup.
+ */
+public class UnknownWordModel {
+
+    // Words seen at most this many times in training are used to train the model
+    private static final int RARE_COUNT = 2;
+    // Longest suffix considered
+    private static final int MAX_SUFFIX = 4;
+
+    // Shape flags of a word
+    private static final int DIGIT = 1;
+    private static final int HYPHEN = 2;
+    private static final int CAPITAL = 4;
+
+    // The order of the tags in every row of scores
+    private final String[] tagNames;
+    private final int numTags;
+    private final double unseenConstant;
+
+    // Tag counts of rare words by "shape|suffix", where the empty suffix holds the counts of the whole shape
+    private final HashMap<String,double[]> suffixCounts = new HashMap<>();
+    // Total number of words each tag was observed with, over all words
+    private final double[] tagTotals;
+    // Weight of the shorter suffix when mixing in a longer one
+    private final double theta;
+
+    // Two-way set-associative cache of word scores: a word lives in one of the two slots of the set its hash picks
+    private final AtomicReferenceArray<CachedScores> cache;
+    private final int cacheMask;
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    /**
+     * Trains the model from the raw counts of a trained MarkovModel
+     * @param observationCounts - The raw frequency of each word under each part of speech
+     * @param capitalCounts - How many of those tokens of each word under each part of speech were written with a capital
+     *                      first letter, or null if that is not known, in which case no word gets the capital shape
+     * @param tagNames - The parts of speech, in the order every row of scores should use
+     * @param unseenConstant - The score of a tag that was never seen with a word like this one
+     * @param cacheSize - The number of words to cache, rounded up to a power of two of at least 2
+     */
+    public UnknownWordModel(HashMap<String,HashMap<String,Double>> observationCounts, HashMap<String,HashMap<String,Double>> capitalCounts,
+                            String[] tagNames, double unseenConstant, int cacheSize) {
+        this.tagNames = tagNames.clone();
+        this.numTags = tagNames.length;
+        this.unseenConstant = unseenConstant;
+
+        HashMap<String,Integer> tagIds = new HashMap<>();
+        for (int tag = 0; tag < numTags; tag++) { tagIds.put(tagNames[tag], tag); }
+
+        // Total count of every word over all its tags, to find the rare ones
+        HashMap<String,Double> wordTotals = new HashMap<>();
+        tagTotals = new double[numTags];
+        for (String tag : observationCounts.keySet()) {
+            Integer tagId = tagIds.get(tag);
+            for (String word : observationCounts.get(tag).keySet()) {
+                double count = observationCounts.get(tag).get(word);
+                wordTotals.merge(word, count, Double::sum);
+                if (tagId != null) { tagTotals[tagId] += count; }
+            }
+        }
+
+        // File the tags of every rare word under its shape and each of its suffixes, its capitalized tokens under
+        // the shape with the capital flag and the rest under the shape without it
+        for (String tag : observationCounts.keySet()) {
+            Integer tagId = tagIds.get(tag);
+            if (tagId == null) { continue; }
+            HashMap<String,Double> tagCapitals = capitalCounts == null ? null : capitalCounts.get(tag);
+            for (String word : observationCounts.get(tag).keySet()) {
+                if (wordTotals.get(word) > RARE_COUNT) { continue; }
+                double count = observationCounts.get(tag).get(word);
+                double capitals = tagCapitals == null ? 0 : Math.min(count, tagCapitals.getOrDefault(word, 0.0));
+                String lowerWord = word.toLowerCase();
+                int shape = shapeOf(lowerWord);
+                if (capitals < count) { fileRareWord(lowerWord, shape, tagId, count - capitals); }
+                if (capitals > 0) { fileRareWord(lowerWord, shape | CAPITAL, tagId, capitals); }
+            }
+        }
+
+        // TnT sets the mixing weight to the standard deviation of the tag probabilities of rare words
+        double[] rareTags = new double[numTags];
+        double rareTotal = 0;
+        for (String key : suffixCounts.keySet()) {
+            if (!key.endsWith("|")) { continue; }
+            double[] counts = suffixCounts.get(key);
+            for (int tag = 0; tag < numTags; tag++) { rareTags[tag] += counts[tag]; rareTotal += counts[tag]; }
+        }
+        double mean = 1.0 / numTags, variance = 0;
+        for (int tag = 0; tag < numTags; tag++) {
+            double p = rareTotal == 0 ? 0 : rareTags[tag] / rareTotal;
+            variance += (p - mean) * (p - mean);
+        }
+        theta = Math.sqrt(variance / (numTags - 1));
+
+        int capacity = Integer.highestOneBit(Math.max(2, cacheSize - 1)) << 1;
+        cache = new AtomicReferenceArray<>(capacity);
+        cacheMask = capacity - 1;
+    }
+
+    /**
+     * @param word - A word as it appears in the text, before lowercasing
+     * @return - the observation score of the word under every tag, in the order of the tag names.
+     * The array is shared with the cache and must not be modified.
+     */
+    public double[] scores(String word) {
+        int hash = spread(word.hashCode());
+        int set = hash & cacheMask & ~1;
+        CachedScores first = cache.get(set);
+        if (first != null && first.word.equals(word)) {
+            cacheHits.increment();
+            return first.scores;
+        }
+        CachedScores second = cache.get(set + 1);
+        if (second != null && second.word.equals(word)) {
+            cacheHits.increment();
+            return second.scores;
+        }
+
+        // Fill an empty slot of the set, or else replace one of the two picked by another bit of the hash
+        cacheMisses.increment();
+        double[] scores = computeScores(word);
+        int slot = first == null ? set : second == null ? set + 1 : set + ((hash >>> 20) & 1);
+        cache.set(slot, new CachedScores(word, scores));
+        return scores;
+    }
+
+    /**
+     * Works out the scores of a word from its shape and suffixes, without the cache
+     */
+    private double[] computeScores(String word) {
+        String lowerWord = word.toLowerCase();
+
+        // Start from the tags of the shape, dropping the capital flag and then every flag if no rare word had that shape
+        int shape = shapeOf(word);
+        double[] counts = suffixCounts.get(shape + "|");
+        if (counts == null) { shape &= ~CAPITAL; counts = suffixCounts.get(shape + "|"); }
+        if (counts == null) { shape = 0; counts = suffixCounts.get(shape + "|"); }
+
+        double[] probabilities = new double[numTags];
+        if (counts != null) { normalize(counts, probabilities); }
+
+        // Refine with each longer suffix, stopping at the first one no rare word of the shape had
+        double[] suffixProbabilities = new double[numTags];
+        for (int length = 1; length <= Math.min(MAX_SUFFIX, lowerWord.length()); length++) {
+            counts = suffixCounts.get(shape + "|" + lowerWord.substring(lowerWord.length() - length));
+            if (counts == null) { break; }
+            normalize(counts, suffixProbabilities);
+            for (int tag = 0; tag < numTags; tag++) {
+                probabilities[tag] = (suffixProbabilities[tag] + theta * probabilities[tag]) / (1 + theta);
+            }
+        }
+
+        double[] scores = new double[numTags];
+        for (int tag = 0; tag < numTags; tag++) {
+            scores[tag] = probabilities[tag] > 0 && tagTotals[tag] > 0
+                    ? Math.log(probabilities[tag] / tagTotals[tag])
+                    : unseenConstant;
+        }
+        return scores;
+    }
+
+    /**
+     * Counts tokens of a rare word under a tag, for its shape and each of its suffixes
+     */
+    private void fileRareWord(String lowerWord, int shape, int tagId, double count) {
+        for (int length = 0; length <= Math.min(MAX_SUFFIX, lowerWord.length()); length++) {
+            String key = shape + "|" + lowerWord.substring(lowerWord.length() - length);
+            suffixCounts.computeIfAbsent(key, k -> new double[numTags])[tagId] += count;
+        }
+    }
+
+    /**
+     * Scales counts into probabilities that sum to one
+     */
+    private void normalize(double[] counts, double[] probabilities) {
+        double total = 0;
+        for (double count : counts) { total += count; }
+        if (total == 0) { Arrays.fill(probabilities, 0); return; }
+        for (int tag = 0; tag < numTags; tag++) { probabilities[tag] = counts[tag] / total; }
+    }
+
+    /**
+     * @param word - A word as written
+     * @return - whether its first letter is a capital, the capital flag of its shape
+     */
+    static boolean isCapitalized(String word) { return !word.isEmpty() && Character.isUpperCase(word.charAt(0)); }
+
+    /**
+     * @return - the shape flags of a word
+     */
+    private static int shapeOf(String word) {
+        int shape = 0;
+        if (isCapitalized(word)) { shape |= CAPITAL; }
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (Character.isDigit(c)) { shape |= DIGIT; }
+            else if (c == '-') { shape |= HYPHEN; }
+        }
+        return shape;
+    }
+
+    /**
+     * Mixes the high bits of a hash into the low bits that pick the cache slot
+     */
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return - the parts of speech in the order of every row of scores
+     */
+    public String[] getTagNames() { return tagNames.clone(); }
+
+    /**
+     * @return - the number of lookups answered from the cache
+     */
+    public long getCacheHits() { return cacheHits.sum(); }
+
+    /**
+     * @return - the number of lookups that had to compute the scores
+     */
+    public long getCacheMisses() { return cacheMisses.sum(); }
+
+    /**
+     * An unknown word and its scores, as stored in one cache slot
+     */
+    private static class CachedScores {
+        final String word;
+        final double[] scores;
+
+        CachedScores(String word, double[] scores) {
+            this.word = word;
+            this.scores = scores;
+        }
+    }
+}
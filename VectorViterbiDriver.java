@@ -0,0 +1,106 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A driver class that compares the scalar Viterbi step with the Vector API one.
+ * It checks that both decode the same tags as the compiled decoder on the simple and Brown test sets, times whole
+ * sentences on both models, and times the step alone on random tables from as few tags as the simple set up to 256 tags,
+ * including the 87 tags of the full Brown tagset.
+ * Compile and run it with the vector backend:
+ * javac -d out *.java && javac --add-modules jdk.incubator.vector -cp out -d out vector/*.java
+ * java --add-modules jdk.incubator.vector -cp out VectorViterbiDriver
+ * Without the module it falls back to the scalar kernel and says so.
+ */
+public class VectorViterbiDriver {
+
+    public static void main(String[] args) throws Exception {
+        ViterbiKernel scalar = ViterbiKernel.scalar();
+        ViterbiKernel best = ViterbiKernel.best();
+        System.out.println("Best available kernel: " + best.name());
+
+        String[][] corpora = {
+                {"simple", "./PS5/texts/simple-train-sentences.txt", "./PS5/texts/simple-train-tags.txt", "./PS5/texts/simple-test-sentences.txt"},
+                {"Brown", "./PS5/texts/brown-train-sentences.txt", "./PS5/texts/brown-train-tags.txt", "./PS5/texts/brown-test-sentences.txt"}};
+        for (String[] corpus : corpora) {
+            CompiledMarkovModel compiled = new MarkovModel(corpus[1], corpus[2]).compile();
+            ArrayList<String> lines = MarkovBenchmark.readLines(corpus[3]);
+
+            int mismatches = 0;
+            for (String line : lines) {
+                String[] expected = compiled.viterbiAlgo(line);
+                if (!Arrays.equals(expected, compiled.viterbiDense(line, scalar)) || !Arrays.equals(expected, compiled.viterbiDense(line, best))) { mismatches += 1; }
+            }
+            System.out.printf("%n%s, %d tags, %d test sentences, different from decode: %d%n", corpus[0], compiled.numTags(), lines.size(), mismatches);
+            report("successor lists", compiled::viterbiAlgo, lines);
+            report("dense " + scalar.name(), compiled.denseTagger(scalar), lines);
+            report("dense " + best.name(), compiled.denseTagger(best), lines);
+        }
+
+        System.out.printf("%nThe step alone on random tables:%n%6s %16s %16s %8s%n", "tags", scalar.name() + " ns", best.name() + " ns", "speedup");
+        for (int numTags : new int[] {9, 12, 32, 64, 87, 128, 256}) {
+            double scalarNanos = stepNanos(scalar, numTags), bestNanos = stepNanos(best, numTags);
+            System.out.printf("%6d %16.1f %16.1f %7.2fx%n", numTags, scalarNanos, bestNanos, scalarNanos / bestNanos);
+        }
+    }
+
+    /**
+     * Prints the sentences per second of a tagger over the test sentences, after a warm-up pass
+     */
+    private static void report(String name, Tagger tagger, ArrayList<String> lines) throws Exception {
+        long sentences = 0, start = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            sentences = 0;
+            start = System.nanoTime();
+            // Run for at least a second, so the tiny simple test set is timed over many passes
+            while (sentences == 0 || System.nanoTime() - start < 1_000_000_000L) {
+                for (String line : lines) { tagger.tag(line); }
+                sentences += lines.size();
+            }
+        }
+        System.out.printf("  %-24s %12.0f sentences/sec%n", name, sentences / ((System.nanoTime() - start) / 1e9));
+    }
+
+    /**
+     * Times the step of a kernel on random scores, checking it against the scalar kernel
+     * @return - the nanoseconds per step
+     */
+    private static double stepNanos(ViterbiKernel kernel, int numTags) {
+        SplittableRandom random = new SplittableRandom(numTags);
+        double[] transitions = new double[numTags * numTags];
+        double[] observed = new double[numTags];
+        double[] currScores = new double[numTags];
+        for (int i = 0; i < transitions.length; i++) {
+            // A quarter of the transitions were never seen, like the sparse rows of a trained model
+            transitions[i] = random.nextInt(4) == 0 ? Double.NEGATIVE_INFINITY : Math.log(random.nextDouble());
+        }
+        for (int t = 0; t < numTags; t++) {
+            observed[t] = Math.log(random.nextDouble());
+            currScores[t] = -10 * random.nextDouble();
+        }
+
+        double[] nextScores = new double[numTags], expectedScores = new double[numTags];
+        int[] backPointers = new int[numTags], expectedPointers = new int[numTags];
+        ViterbiKernel.scalar().step(currScores, transitions, observed, 0, numTags, expectedScores, expectedPointers, 0);
+        kernel.step(currScores, transitions, observed, 0, numTags, nextScores, backPointers, 0);
+        if (!Arrays.equals(nextScores, expectedScores) || !Arrays.equals(backPointers, expectedPointers)) {
+            throw new IllegalStateException(kernel.name() + " differs from the scalar kernel at " + numTags + " tags");
+        }
+
+        long steps = 0, start = 0;
+        double checksum = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            steps = 0;
+            start = System.nanoTime();
+            while (System.nanoTime() - start < 500_000_000L) {
+                for (int i = 0; i < 1000; i++) {
+                    kernel.step(currScores, transitions, observed, 0, numTags, nextScores, backPointers, 0);
+                    checksum += nextScores[i % numTags];
+                }
+                steps += 1000;
+            }
+        }
+        if (checksum == 1) { System.out.println(); }
+        return (System.nanoTime() - start) / (double) steps;
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * One step of the compiled Viterbi algorithm over every tag: for each next tag, the best previous tag and its score,
+ * max over every previous tag of (score of the previous tag + transition score) + observation score.
+ * That is a dense max-plus matrix-vector product, so it can be done by plain loops or by SIMD instructions.
+ *
+ * Every kernel must pick the same previous tag as CompiledMarkovModel.decode: the lowest-numbered one among equal best
+ * scores, with the scores added in the same order, so that every kernel decodes exactly the same tags.
+ */
+public interface ViterbiKernel {
+
+    /**
+     * Scores every next tag from every reachable previous tag
+     * @param currScores - The score of every tag at the previous word, negative infinity for tags that cannot be reached
+     * @param transitions - The transition scores, transitions[from * numTags + to], negative infinity for impossible transitions
+     * @param observed - The observation scores of the word, the score of tag t at observed[obsBase + t]
+     * @param obsBase - The index in observed of the score of tag 0
+     * @param numTags - The number of tags
+     * @param nextScores - Receives the best score of every tag at this word, negative infinity if it cannot be reached
+     * @param backPointers - Receives the best previous tag of every reachable tag, at backPointers[backBase + tag]
+     * @param backBase - The index in backPointers of the previous tag of tag 0
+     */
+    void step(double[] currScores, double[] transitions, double[] observed, int obsBase, int numTags,
+              double[] nextScores, int[] backPointers, int backBase);
+
+    /**
+     * @return - a short name of the kernel, for reports
+     */
+    String name();
+
+    /**
+     * @return - the kernel that uses plain Java loops, which is always available
+     */
+    static ViterbiKernel scalar() { return ScalarViterbiKernel.INSTANCE; }
+
+    /**
+     * Loads the kernel that uses the JDK Vector API, which is only there if the classes in vector/ were compiled and
+     * the JVM runs with --add-modules jdk.incubator.vector
+     * @return - the Vector API kernel, or the scalar kernel if it is not available
+     */
+    static ViterbiKernel best() {
+        try { return (ViterbiKernel) Class.forName("VectorViterbiKernel").getDeclaredConstructor().newInstance(); }
+        catch (ReflectiveOperationException | LinkageError e) { return scalar(); }
+    }
+}
@@ -0,0 +1,168 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+
+/**
+ * A table of words and their int ids, each word stored once as a slice of one shared char array and found through an
+ * open-addressing table of ids. A CompactLexicon keeps its words in one, and indexes its rows of tags by their ids.
+ *
+ * Words are only ever added, and keep their ids, so several lexicons can share one table: a SharedDictionary holds the
+ * table of every model compiled through it, and each model's lexicon has rows for its own words only.
+ * Adding words builds new arrays and publishes them at once, so a thread looking words up never waits for, or sees half
+ * of, words being added by another.
+ *
+ * Words can be looked up either as Strings or as a slice of a char array, so a tokenizer can look words up in its own
+ * buffer without creating a String for each one.
+ */
+public class WordTable {
+
+    private volatile Words words = new Words(new char[0], new int[1]);
+
+    /**
+     * Makes an empty table
+     */
+    public WordTable() {}
+
+    /**
+     * Adds every word that is not in the table yet, in the order given, after the words already in it
+     * @param added - The words to add
+     */
+    public synchronized void addAll(Collection<String> added) {
+        Words current = words;
+        LinkedHashSet<String> missing = new LinkedHashSet<>();
+        for (String word : added) { if (current.wordId(word) < 0) { missing.add(word); } }
+        if (missing.isEmpty()) { return; }
+
+        int numWords = current.numWords();
+        int poolSize = current.charPool.length;
+        for (String word : missing) { poolSize += word.length(); }
+        char[] charPool = Arrays.copyOf(current.charPool, poolSize);
+        int[] wordStart = Arrays.copyOf(current.wordStart, numWords + missing.size() + 1);
+        int offset = current.charPool.length, id = numWords;
+        for (String word : missing) {
+            word.getChars(0, word.length(), charPool, offset);
+            offset += word.length();
+            wordStart[++id] = offset;
+        }
+
+        Words grown = new Words(charPool, wordStart);
+        for (int word = 0; word < grown.numWords(); word++) { grown.place(word); }
+        words = grown;
+    }
+
+    /**
+     * @param word - A lowercase word
+     * @return - the id of the word, or -1 if it is not in the table
+     */
+    public int wordId(String word) { return words.wordId(word); }
+
+    /**
+     * @param chars - A buffer holding a lowercase word
+     * @param offset - The index of the first char of the word
+     * @param length - The number of chars of the word
+     * @return - the id of the word, or -1 if it is not in the table
+     */
+    public int wordId(char[] chars, int offset, int length) {
+        Words current = words;
+        int slot = spread(hash(chars, offset, length)) & current.tableMask;
+        for (int id = current.table[slot]; id != -1; slot = (slot + 1) & current.tableMask, id = current.table[slot]) {
+            int start = current.wordStart[id];
+            if (current.wordStart[id + 1] - start != length) { continue; }
+            int i = 0;
+            while (i < length && current.charPool[start + i] == chars[offset + i]) { i++; }
+            if (i == length) { return id; }
+        }
+        return -1;
+    }
+
+    /**
+     * @param id - The id of a word
+     * @return - the word with that id
+     */
+    public String wordName(int id) {
+        Words current = words;
+        return new String(current.charPool, current.wordStart[id], current.wordStart[id + 1] - current.wordStart[id]);
+    }
+
+    /**
+     * @return - the number of words, which is one more than the largest id
+     */
+    public int size() { return words.numWords(); }
+
+    /**
+     * @return - the bytes taken by the arrays of the table, counting a 16 byte header per array and 8 byte alignment
+     */
+    public long footprintBytes() {
+        Words current = words;
+        return CompactLexicon.arrayBytes(current.charPool.length, 2) + CompactLexicon.arrayBytes(current.wordStart.length, 4)
+                + CompactLexicon.arrayBytes(current.table.length, 4);
+    }
+
+    /**
+     * @return - the same hash as String.hashCode, of a slice of chars
+     */
+    private static int hash(char[] chars, int offset, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) { hash = 31 * hash + chars[offset + i]; }
+        return hash;
+    }
+
+    /**
+     * Mixes the high bits of a hash into the low bits that pick the slot
+     */
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * The arrays of the table at one time, never changed once published.
+     * Word w is charPool[wordStart[w]] up to wordStart[w + 1]; table holds the word ids by the hash of the word, -1 where empty
+     */
+    private static class Words {
+        final char[] charPool;
+        final int[] wordStart;
+        final int[] table;
+        final int tableMask;
+
+        /**
+         * Makes the arrays of the words in a pool, with a hash table at most two thirds full and no word placed in it yet
+         */
+        Words(char[] charPool, int[] wordStart) {
+            this.charPool = charPool;
+            this.wordStart = wordStart;
+            int capacityWords = wordStart.length - 1;
+            int capacity = Integer.highestOneBit(Math.max(2, capacityWords + capacityWords / 2 - 1)) << 1;
+            table = new int[capacity];
+            tableMask = capacity - 1;
+            Arrays.fill(table, -1);
+        }
+
+        int numWords() { return wordStart.length - 1; }
+
+        /**
+         * Puts a word whose chars are already in the pool into the hash table
+         */
+        void place(int id) {
+            int slot = spread(hash(charPool, wordStart[id], wordStart[id + 1] - wordStart[id])) & tableMask;
+            while (table[slot] != -1) { slot = (slot + 1) & tableMask; }
+            table[slot] = id;
+        }
+
+        /**
+         * @return - the id of the word, or -1 if it is not in the table
+         */
+        int wordId(String word) {
+            int length = word.length();
+            int slot = spread(word.hashCode()) & tableMask;
+            for (int id = table[slot]; id != -1; slot = (slot + 1) & tableMask, id = table[slot]) {
+                int start = wordStart[id];
+                if (wordStart[id + 1] - start != length) { continue; }
+                int i = 0;
+                while (i < length && charPool[start + i] == word.charAt(i)) { i++; }
+                if (i == length) { return id; }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The Viterbi step with the JDK Vector API. A block of next tags, as wide as the machine's preferred vector, is kept in
+ * registers while every previous tag is folded into it: its transition row is loaded, the previous score and the
+ * observation scores are added, and a lanewise compare picks which lanes take the new score and previous tag.
+ *
+ * Two things keep the loop in registers on JDK 17. Unreachable previous tags are not skipped, since negative infinity
+ * plus any score never wins the compare, and a branch in the loop makes the JIT box the vectors. The previous tags are
+ * kept as doubles under the same mask as the scores, because casting the mask to an int vector's is not compiled to
+ * vector instructions either; either one made the kernel several times slower than the scalar loop.
+ *
+ * Compile it separately, with the module added, on top of the other classes:
+ * javac --add-modules jdk.incubator.vector -cp out -d out vector/*.java
+ * and run with --add-modules jdk.incubator.vector. ViterbiKernel.best loads it when both are done.
+ */
+public class VectorViterbiKernel implements ViterbiKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    public void step(double[] currScores, double[] transitions, double[] observed, int obsBase, int numTags,
+                     double[] nextScores, int[] backPointers, int backBase) {
+        int lanes = SPECIES.length();
+        int bound = SPECIES.loopBound(numTags);
+        int to = 0;
+        for (; to < bound; to += lanes) {
+            DoubleVector observedScores = DoubleVector.fromArray(SPECIES, observed, obsBase + to);
+            DoubleVector best = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+            DoubleVector bestFrom = DoubleVector.zero(SPECIES);
+            for (int from = 0; from < numTags; from++) {
+                DoubleVector nextScore = DoubleVector.fromArray(SPECIES, transitions, from * numTags + to).add(currScores[from]).add(observedScores);
+                VectorMask<Double> better = nextScore.compare(VectorOperators.GT, best);
+                best = best.blend(nextScore, better);
+                bestFrom = bestFrom.blend((double) from, better);
+            }
+            best.intoArray(nextScores, to);
+            for (int lane = 0; lane < lanes; lane++) { backPointers[backBase + to + lane] = (int) bestFrom.lane(lane); }
+        }
+
+        // The tags past the last whole vector
+        for (; to < numTags; to++) {
+            double best = Double.NEGATIVE_INFINITY;
+            for (int from = 0; from < numTags; from++) {
+                double fromScore = currScores[from];
+                if (fromScore == Double.NEGATIVE_INFINITY) { continue; }
+
+                double nextScore = fromScore + transitions[from * numTags + to] + observed[obsBase + to];
+                if (nextScore > best) {
+                    best = nextScore;
+                    backPointers[backBase + to] = from;
+                }
+            }
+            nextScores[to] = best;
+        }
+    }
+
+    public String name() { return "vector(" + SPECIES.length() + " lanes)"; }
+}